@@ -0,0 +1,38 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs JMH benchmarks once per thread count, so results of different thread counts can be compared.
+ * Arguments are usual JMH command line arguments. Thread counts are taken from system property
+ * {@code jmh.threads} (comma separated, default "1,4,16"), results are written as JSON to directory
+ * from system property {@code jmh.resultDir}.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        final File resultDir = new File(System.getProperty("jmh.resultDir", "build/reports/jmh"));
+        if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+            throw new IllegalStateException("Can't create directory " + resultDir);
+        }
+        for (String threads : System.getProperty("jmh.threads", "1,4,16").split(",")) {
+            final Options options = new OptionsBuilder()
+                    .parent(commandLineOptions)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultDir, "results-" + threads.trim() + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All threads update the counter of the same key. Compares {@link EntityLocker#forLock(Object, java.util.function.Supplier)}
+ * with delegation of updates to the holder of the key by {@link CombiningEntityLocker#forLockCombining}.
+ * Run with several threads, e.g. {@code gradle jmh -Pjmh.threads=4,16 -Pjmh.args=CombiningBenchmark}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombiningBenchmark {
+    private static final Integer KEY = 0;
+
+    @Param({"EntityLocker", "GlobalEntityLocker"})
+    public String lockerType;
+
+    /**
+     * Work of protected code, 100 tokens take about 0.3 microseconds.
+     */
+    @Param({"10", "100"})
+    public long workTokens;
+
+    private CombiningEntityLocker<Integer> locker_;
+    private long counter_;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker_ = (CombiningEntityLocker<Integer>) EntityLockerBenchmark.newLocker(lockerType);
+    }
+
+    @Benchmark
+    public long forLock() {
+        return locker_.forLock(KEY, this::increment);
+    }
+
+    @Benchmark
+    public long forLockCombining() {
+        return locker_.forLockCombining(KEY, this::increment);
+    }
+
+    private long increment() {
+        Blackhole.consumeCPU(workTokens);
+        return ++counter_;
+    }
+}
@@ -0,0 +1,138 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock/unlock cycles of EntityLocker implementations under different contention:
+ * <p>
+ * uncontended - each thread locks its own key;<br>
+ * low - each thread locks random key of 1024 keys;<br>
+ * hot - all threads lock the same key.
+ * <p>
+ * Protected code consumes a few CPU cycles, so threads spend some time under the lock.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EntityLockerBenchmark {
+    static final int KEY_COUNT = 1024;
+    static final int WORK_TOKENS = 20;
+
+    @Param({"EntityLocker", "GlobalEntityLocker"})
+    public String lockerType;
+
+    @Param({"uncontended", "low", "hot"})
+    public String contention;
+
+    private EntityLocker<Integer> locker_;
+    private final Integer[] keys_ = new Integer[KEY_COUNT];
+    private final AtomicInteger threadCount_ = new AtomicInteger();
+    private final Supplier<Integer> work_ = () -> {
+        Blackhole.consumeCPU(WORK_TOKENS);
+        return WORK_TOKENS;
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker_ = newLocker(lockerType);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys_[i] = i;
+        }
+    }
+
+    static EntityLocker<Integer> newLocker(String lockerType) {
+        switch (lockerType) {
+            case "EntityLocker":
+                return new EntityLockerImpl<>();
+            case "GlobalEntityLocker":
+                return new GlobalEntityLockerImpl<>();
+            default:
+                throw new IllegalArgumentException("Unknown locker type " + lockerType);
+        }
+    }
+
+    /**
+     * Keys of benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private int threadIndex_;
+        private SplittableRandom random_;
+        private boolean randomKeys_;
+        private boolean hot_;
+
+        @Setup(Level.Trial)
+        public void setUp(EntityLockerBenchmark benchmark) {
+            threadIndex_ = benchmark.threadCount_.getAndIncrement() % KEY_COUNT;
+            random_ = new SplittableRandom(threadIndex_);
+            randomKeys_ = benchmark.contention.equals("low");
+            hot_ = benchmark.contention.equals("hot");
+        }
+
+        Integer nextKey(Integer[] keys) {
+            if (hot_) {
+                return keys[0];
+            }
+            return keys[randomKeys_ ? random_.nextInt(KEY_COUNT) : threadIndex_];
+        }
+    }
+
+    @Benchmark
+    public void lockUnlock(ThreadKeys threadKeys) {
+        final Integer key = threadKeys.nextKey(keys_);
+        locker_.lock(key);
+        try {
+            Blackhole.consumeCPU(WORK_TOKENS);
+        } finally {
+            locker_.unlock(key);
+        }
+    }
+
+    @Benchmark
+    public void acquireClose(ThreadKeys threadKeys) {
+        try (LockHandle<Integer> ignored = locker_.acquire(threadKeys.nextKey(keys_))) {
+            Blackhole.consumeCPU(WORK_TOKENS);
+        }
+    }
+
+    @Benchmark
+    public Integer forLock(ThreadKeys threadKeys) {
+        return locker_.forLock(threadKeys.nextKey(keys_), work_);
+    }
+
+    @Benchmark
+    public void reentrantLockUnlock(ThreadKeys threadKeys) {
+        final Integer key = threadKeys.nextKey(keys_);
+        locker_.lock(key);
+        try {
+            locker_.lock(key);
+            try {
+                Blackhole.consumeCPU(WORK_TOKENS);
+            } finally {
+                locker_.unlock(key);
+            }
+        } finally {
+            locker_.unlock(key);
+        }
+    }
+}
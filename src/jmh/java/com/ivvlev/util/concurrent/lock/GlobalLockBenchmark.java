@@ -0,0 +1,68 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Key locks of GlobalEntityLocker interleaved with global locks: in each group three threads lock their own keys
+ * and one thread sets global lock.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class GlobalLockBenchmark {
+    private final GlobalEntityLocker<Integer> locker_ = new GlobalEntityLockerImpl<>();
+    private final AtomicInteger threadCount_ = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadKey {
+        private Integer key_;
+
+        @Setup(Level.Trial)
+        public void setUp(GlobalLockBenchmark benchmark) {
+            key_ = benchmark.threadCount_.getAndIncrement();
+        }
+    }
+
+    @Benchmark
+    @Group("interleaving")
+    @GroupThreads(3)
+    public void lockUnlockKey(ThreadKey threadKey) {
+        locker_.lock(threadKey.key_);
+        try {
+            Blackhole.consumeCPU(EntityLockerBenchmark.WORK_TOKENS);
+        } finally {
+            locker_.unlock(threadKey.key_);
+        }
+    }
+
+    @Benchmark
+    @Group("interleaving")
+    @GroupThreads(1)
+    public void lockUnlockGlobal() {
+        locker_.lockGlobal();
+        try {
+            Blackhole.consumeCPU(EntityLockerBenchmark.WORK_TOKENS);
+        } finally {
+            locker_.unlockGlobal();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All threads lock the same key with short protected code. Compares adaptive spinning before park
+ * with parking right after failed attempt to lock (spinning disabled by system property in forked JVM).
+ * Run with several threads, e.g. {@code gradle jmh -Pjmh.threads=2,4 -Pjmh.args=SpinWaitBenchmark}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpinWaitBenchmark {
+    private static final Integer KEY = 0;
+
+    @Param({"EntityLocker", "GlobalEntityLocker"})
+    public String lockerType;
+
+    /**
+     * Work of protected code, 100 tokens take about 0.3 microseconds.
+     */
+    @Param({"100", "1000"})
+    public long workTokens;
+
+    private EntityLocker<Integer> locker_;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locker_ = EntityLockerBenchmark.newLocker(lockerType);
+    }
+
+    @Benchmark
+    public void spinThenPark() {
+        lockUnlock();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dcom.ivvlev.util.concurrent.lock.maxSpins=0")
+    public void parkOnly() {
+        lockUnlock();
+    }
+
+    private void lockUnlock() {
+        locker_.lock(KEY);
+        try {
+            Blackhole.consumeCPU(workTokens);
+        } finally {
+            locker_.unlock(KEY);
+        }
+    }
+}
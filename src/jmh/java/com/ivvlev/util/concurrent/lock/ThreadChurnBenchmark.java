@@ -0,0 +1,96 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * First lock of short-lived thread, while many other threads, which have used the locker, are alive.
+ * Transaction of new thread is registered by the locker, which also purges transactions of terminated threads,
+ * so the cost of registration must not grow with the number of alive threads.
+ * <p>
+ * Score includes start and join of the thread, which is measured alone by {@link #newThread()}.
+ * Run with one benchmark thread: -Pjmh.threads=1.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadChurnBenchmark {
+
+    /**
+     * Number of alive threads, which have used the locker.
+     */
+    @Param({"100", "10000"})
+    public int liveThreads;
+
+    private EntityLocker<Integer> locker_;
+    private final CountDownLatch release_ = new CountDownLatch(1);
+    private final List<Thread> threads_ = new ArrayList<>();
+    private final AtomicInteger keySequence_ = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        locker_ = new EntityLockerImpl<>();
+        final CountDownLatch locked = new CountDownLatch(liveThreads);
+        for (int i = 0; i < liveThreads; i++) {
+            final Integer key = keySequence_.getAndIncrement();
+            final Thread thread = new Thread(null, () -> {
+                locker_.forLock(key, () -> {
+                });
+                locked.countDown();
+                try {
+                    release_.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "live-" + i, 64 * 1024);
+            thread.start();
+            threads_.add(thread);
+        }
+        locked.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        release_.countDown();
+        for (Thread thread : threads_) {
+            thread.join();
+        }
+    }
+
+    @Benchmark
+    public void newThread() throws InterruptedException {
+        final Thread thread = new Thread(() -> {
+        });
+        thread.start();
+        thread.join();
+    }
+
+    @Benchmark
+    public void firstLockOfNewThread() throws InterruptedException {
+        final Integer key = keySequence_.getAndIncrement();
+        final Thread thread = new Thread(() -> locker_.forLock(key, () -> {
+        }));
+        thread.start();
+        thread.join();
+    }
+}
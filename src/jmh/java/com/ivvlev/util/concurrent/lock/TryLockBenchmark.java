@@ -0,0 +1,122 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * tryLock of free key and of key held by another thread for the whole trial, which fails by timeout.
+ * <p>
+ * Timeout-heavy cases: all threads try to lock the same hot key, most of attempts fail by timeout under overload;
+ * tryLockAll of free key and held key, which fails by timeout after the free key has been locked.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TryLockBenchmark {
+    private static final Integer HELD_KEY = -1;
+    private static final Integer HOT_KEY = -2;
+
+    @Param({"EntityLocker", "GlobalEntityLocker"})
+    public String lockerType;
+
+    /**
+     * Timeout of tryLock in microseconds.
+     */
+    @Param({"1", "100"})
+    public long timeoutMicros;
+
+    private EntityLocker<Integer> locker_;
+    private final AtomicInteger threadCount_ = new AtomicInteger();
+    private final CountDownLatch release_ = new CountDownLatch(1);
+    private Thread holder_;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        locker_ = EntityLockerBenchmark.newLocker(lockerType);
+        final CountDownLatch locked = new CountDownLatch(1);
+        holder_ = new Thread(() -> locker_.forLock(HELD_KEY, () -> {
+            locked.countDown();
+            try {
+                release_.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }), "key-holder");
+        holder_.start();
+        locked.await();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        release_.countDown();
+        holder_.join();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadKey {
+        private Integer key_;
+        private List<Integer> keys_;
+
+        @Setup(Level.Trial)
+        public void setUp(TryLockBenchmark benchmark) {
+            key_ = benchmark.threadCount_.getAndIncrement();
+            keys_ = List.of(key_, HELD_KEY);
+        }
+    }
+
+    @Benchmark
+    public boolean tryLockFreeKey(ThreadKey threadKey) {
+        final boolean locked = locker_.tryLock(threadKey.key_, timeoutMicros, TimeUnit.MICROSECONDS);
+        if (locked) {
+            locker_.unlock(threadKey.key_);
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public boolean tryLockHeldKey() {
+        return locker_.tryLock(HELD_KEY, timeoutMicros, TimeUnit.MICROSECONDS);
+    }
+
+    @Benchmark
+    public boolean tryLockHotKey() {
+        final boolean locked = locker_.tryLock(HOT_KEY, timeoutMicros, TimeUnit.MICROSECONDS);
+        if (locked) {
+            try {
+                Blackhole.consumeCPU(EntityLockerBenchmark.WORK_TOKENS);
+            } finally {
+                locker_.unlock(HOT_KEY);
+            }
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public boolean tryLockAllHeldKey(ThreadKey threadKey) {
+        final boolean locked = locker_.tryLockAll(threadKey.keys_, timeoutMicros, TimeUnit.MICROSECONDS);
+        if (locked) {
+            locker_.unlockAll(threadKey.keys_);
+        }
+        return locked;
+    }
+}
@@ -0,0 +1,228 @@
+package com.ivvlev.util.concurrent;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer, which keeps scheduled tasks in hashed wheel of buckets. Worker thread moves from bucket to bucket once per tick
+ * and runs the tasks, which have expired. Scheduling and cancelling of task cost O(1) and do not wake worker thread,
+ * so tens of thousands of pending tasks cost almost nothing. Tasks are run with precision of one tick.
+ * <p>
+ * Tasks are run by worker thread, so they must be short.
+ */
+public class HashedWheelTimer implements AutoCloseable {
+    private static final Logger logger_ = Logger.getLogger(HashedWheelTimer.class.getCanonicalName());
+
+    private final long tickNanos_;
+    private final Bucket[] wheel_;
+    private final int mask_;
+    /**
+     * Scheduled tasks, which have not been put to the wheel yet. Wheel is changed only by worker thread.
+     */
+    private final Queue<Timeout> pendingTimeouts_ = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount_ = new AtomicInteger();
+    private final Thread worker_;
+    private final long startNanos_;
+    private volatile boolean closed_ = false;
+
+    /**
+     * @param tickDuration Duration of tick
+     * @param unit         the time unit of the tickDuration argument
+     * @param wheelSize    Number of buckets. Rounded up to the nearest power of two.
+     * @param threadName   Name of worker thread
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int wheelSize, String threadName) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException(String.format("Wheel size must be in range [1..%s]", 1 << 30));
+        }
+        final int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+        tickNanos_ = unit.toNanos(tickDuration);
+        wheel_ = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel_[i] = new Bucket();
+        }
+        mask_ = size - 1;
+        startNanos_ = System.nanoTime();
+        worker_ = new Thread(this::run, threadName);
+        worker_.setDaemon(true);
+        worker_.start();
+    }
+
+    /**
+     * Method schedules task.
+     *
+     * @param task  Task
+     * @param delay the time from now to run the task
+     * @param unit  the time unit of the delay argument
+     * @return Scheduled task, which can be cancelled.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Objects.requireNonNull(task, "task");
+        if (closed_) {
+            throw new IllegalStateException("Timer is closed");
+        }
+        final Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(0, unit.toNanos(delay)));
+        pendingCount_.incrementAndGet();
+        pendingTimeouts_.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Method return the number of scheduled tasks, which have not been run or cancelled yet.
+     *
+     * @return pending task count
+     */
+    public int getPendingCount() {
+        return pendingCount_.get();
+    }
+
+    /**
+     * Method stops worker thread. Pending tasks are not run.
+     */
+    @Override
+    public void close() {
+        closed_ = true;
+        LockSupport.unpark(worker_);
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!closed_) {
+            final long deadline = startNanos_ + (tick + 1) * tickNanos_;
+            long sleepNanos;
+            while ((sleepNanos = deadline - System.nanoTime()) > 0 && !closed_) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+            if (closed_) {
+                return;
+            }
+            transferPendingTimeouts(tick);
+            wheel_[(int) (tick & mask_)].expireTimeouts(deadline);
+            tick++;
+        }
+    }
+
+    private void transferPendingTimeouts(long tick) {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts_.poll()) != null) {
+            if (timeout.state_.get() != Timeout.WAITING) {
+                continue;
+            }
+            final long ticks = Math.max((timeout.deadlineNanos_ - startNanos_ + tickNanos_ - 1) / tickNanos_ - 1, tick);
+            timeout.remainingRounds_ = (ticks - tick) / wheel_.length;
+            wheel_[(int) (ticks & mask_)].add(timeout);
+        }
+    }
+
+    /**
+     * Doubly linked list of tasks. Used only by worker thread.
+     */
+    private final class Bucket {
+        private Timeout head_;
+        private Timeout tail_;
+
+        private void add(Timeout timeout) {
+            if (head_ == null) {
+                head_ = tail_ = timeout;
+            } else {
+                tail_.next_ = timeout;
+                timeout.prev_ = tail_;
+                tail_ = timeout;
+            }
+        }
+
+        private void expireTimeouts(long deadlineNanos) {
+            Timeout timeout = head_;
+            while (timeout != null) {
+                final Timeout next = timeout.next_;
+                if (timeout.state_.get() != Timeout.WAITING) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds_ <= 0 && timeout.deadlineNanos_ <= deadlineNanos) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.remainingRounds_--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev_ != null) {
+                timeout.prev_.next_ = timeout.next_;
+            } else {
+                head_ = timeout.next_;
+            }
+            if (timeout.next_ != null) {
+                timeout.next_.prev_ = timeout.prev_;
+            } else {
+                tail_ = timeout.prev_;
+            }
+            timeout.prev_ = timeout.next_ = null;
+        }
+    }
+
+    /**
+     * Scheduled task.
+     */
+    public final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task_;
+        private final long deadlineNanos_;
+        private final AtomicInteger state_ = new AtomicInteger(WAITING);
+        //Fields used only by worker thread.
+        private long remainingRounds_;
+        private Timeout prev_;
+        private Timeout next_;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task_ = task;
+            this.deadlineNanos_ = deadlineNanos;
+        }
+
+        /**
+         * Method cancels the task. Cancelled task is removed from the wheel lazily, when worker reaches its bucket.
+         *
+         * @return true, if the task has not been run or cancelled before.
+         */
+        public boolean cancel() {
+            if (state_.compareAndSet(WAITING, CANCELLED)) {
+                pendingCount_.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state_.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state_.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state_.compareAndSet(WAITING, EXPIRED)) {
+                return;
+            }
+            pendingCount_.decrementAndGet();
+            try {
+                task_.run();
+            } catch (Throwable e) {
+                logger_.log(Level.WARNING, "Timer task has thrown exception", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends EntityLocker, adding asynchronous locks, which do not block threads.
+ * <p>
+ * Asynchronous lock is owned by {@link LockHandle}, not by a thread, so protected code can span several
+ * asynchronous stages. Waiting asynchronous locks are queued on the key and are completed by the thread releasing the key.
+ * The lock is exclusive, it excludes the locks of threads and of other handles.
+ * <p>
+ * Returned future can be cancelled or completed by timeout (e.g. by {@link CompletableFuture#orTimeout}),
+ * in this case the key is not locked by the handle.
+ * Asynchronous locks do not take part in deadlock detection.
+ */
+public interface AsyncEntityLocker<K> extends EntityLocker<K> {
+
+    /**
+     * Method perform asynchronous lock of key. If key is locked, returned future is completed in common
+     * {@link java.util.concurrent.ForkJoinPool}, after the key has been released.
+     *
+     * @param key Entity key.
+     * @return Future of lock handle.
+     */
+    CompletableFuture<LockHandle<K>> lockAsync(K key);
+
+    /**
+     * Method perform asynchronous lock of key. If key is locked, returned future is completed by executor,
+     * after the key has been released.
+     *
+     * @param key      Entity key.
+     * @param executor Executor used to complete the future.
+     * @return Future of lock handle.
+     */
+    CompletableFuture<LockHandle<K>> lockAsync(K key, Executor executor);
+
+    /**
+     * The method locks the passed key asynchronously until the stage returned by anonymous method is completed.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method, starting protected asynchronous code.
+     * @return Future of protected code result.
+     */
+    <R> CompletableFuture<R> forLockAsync(K key, Supplier<? extends CompletionStage<R>> protectedMethod);
+
+    /**
+     * The method locks the passed key asynchronously until the stage returned by anonymous method is completed.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method, starting protected asynchronous code.
+     * @param executor        Executor used to call anonymous method, if key is locked.
+     * @return Future of protected code result.
+     */
+    <R> CompletableFuture<R> forLockAsync(K key, Supplier<? extends CompletionStage<R>> protectedMethod, Executor executor);
+
+}
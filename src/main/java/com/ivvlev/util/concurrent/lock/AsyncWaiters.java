@@ -0,0 +1,88 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Asynchronous locks waiting for the key. Created by key entry on first asynchronous lock, which has to wait.
+ * <p>
+ * Waiters do not block threads. The key is granted to the first waiter by the thread, which has released the key
+ * or has queued the waiter, so threads and asynchronous locks compete for the key the same way as threads do.
+ */
+final class AsyncWaiters<K> {
+    private final Queue<Waiter<K>> waiters_ = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Method queues the waiter.
+     *
+     * @param fairTicket Place of waiter in the queue of fair entry or zero, if entry is not fair.
+     */
+    void add(Waiter<K> waiter, long fairTicket) {
+        waiter.fairTicket_ = fairTicket;
+        waiters_.offer(waiter);
+    }
+
+    /**
+     * Method removes the waiter, which has been cancelled.
+     */
+    void remove(Waiter<K> waiter) {
+        waiters_.remove(waiter);
+    }
+
+    /**
+     * Check is the first waiter queued for fair entry before the ticket.
+     */
+    boolean isFirstQueuedBefore(long fairTicket) {
+        final Waiter<K> head = waiters_.peek();
+        return head != null && head.fairTicket_ < fairTicket;
+    }
+
+    /**
+     * Method grants the key to the first waiter, if the key is free. Asynchronous lock of fair entry waits,
+     * while thread queued before it waits.
+     *
+     * @param entry Key entry of the queue
+     */
+    void signal(EntityLockerAbst.Entry<K> entry) {
+        Waiter<K> waiter;
+        while ((waiter = waiters_.peek()) != null) {
+            if (entry.hasFairThreadQueuedBefore(waiter.fairTicket_)) {
+                //The first thread is unparked by releasing thread and takes the key itself.
+                return;
+            }
+            final long txId = waiter.tx.id;
+            if (!entry.tryAcquireFree(txId)) {
+                //Holder of the key will signal waiters after release.
+                return;
+            }
+            if (waiters_.remove(waiter) && waiter.grant()) {
+                return;
+            }
+            //Waiter has been cancelled.
+            entry.release(txId);
+        }
+    }
+
+    /**
+     * Asynchronous lock of the key, queued until the key is released.
+     * Waiter owns its own transaction, so the lock does not belong to any thread.
+     */
+    abstract static class Waiter<K> {
+        protected final EntityLockerAbst.Transaction<K> tx;
+        /**
+         * Place of waiter in the queue of fair entry. Written before the waiter is queued.
+         */
+        private long fairTicket_ = 0;
+
+        protected Waiter(EntityLockerAbst.Transaction<K> tx) {
+            this.tx = tx;
+        }
+
+        /**
+         * Method is called after the key has been locked exclusively on behalf of waiter transaction.
+         *
+         * @return false, if waiter has been cancelled and the key must be released.
+         */
+        protected abstract boolean grant();
+    }
+}
@@ -0,0 +1,45 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.Procedure;
+
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends EntityLocker, adding delegation (flat combining) mode of {@link #forLock(Object, Supplier)}
+ * for very hot keys.
+ * <p>
+ * Anonymous method passed while the key is locked exclusively by another thread is queued on the key, and the holder
+ * executes queued methods in a batch before it releases the key. Caller waits for its method to be executed and gets
+ * its result or exception. So the key and the data protected by it are not handed off between threads for each method.
+ * <p>
+ * Anonymous method can be executed by another thread, under the lock of that thread, so it must not depend on
+ * thread identity or thread-local state, and should not lock other keys. Method passed by thread, which already
+ * holds the key exclusively or upgradable, is executed in place as by {@link #forLock(Object, Supplier)}.
+ */
+public interface CombiningEntityLocker<K> extends EntityLocker<K> {
+
+    /**
+     * The method executes anonymous method under exclusive lock of the passed key, by current thread or by the thread
+     * holding the key.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forLockCombining(K key, Supplier<R> protectedMethod);
+
+    /**
+     * The method executes anonymous method under exclusive lock of the passed key, by current thread or by the thread
+     * holding the key.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forLockCombining(K key, Procedure protectedMethod);
+
+}
@@ -0,0 +1,147 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Methods delegated by {@link CombiningEntityLocker#forLockCombining(Object, Supplier)} to the holder of the key.
+ * Created by key entry on first method, which has been delegated.
+ * <p>
+ * Holder of exclusive lock executes queued methods in batch before release, delegating threads wait until
+ * their methods have been executed, or until the key has been released, then they lock the key themselves.
+ */
+final class CombiningQueue {
+    /**
+     * Max number of delegated methods executed by the holder per lock, so the holder and the callers queued
+     * after the batch wait for bounded time.
+     */
+    private static final int MAX_COMBINED = 256;
+
+    private final Queue<Request<?>> requests_ = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Method queues the method delegated by thread.
+     *
+     * @param method Protected method
+     * @param thread Delegating thread, which is unparked when the method has been executed
+     * @return Request, which is waited for by delegating thread.
+     */
+    <R> Request<R> add(Supplier<R> method, Thread thread) {
+        final Request<R> request = new Request<>(method, thread);
+        requests_.offer(request);
+        return request;
+    }
+
+    /**
+     * Method removes the request, which has been cancelled by its caller.
+     */
+    void remove(Request<?> request) {
+        requests_.remove(request);
+    }
+
+    /**
+     * Method executes methods delegated by other threads. Called by the holder of exclusive lock before release.
+     */
+    void runBatch() {
+        Request<?> request;
+        for (int i = 0; i < MAX_COMBINED && (request = requests_.poll()) != null; i++) {
+            request.run();
+        }
+    }
+
+    /**
+     * Method wakes up the first thread waiting for its delegated method, so it can lock the released key
+     * and execute queued methods itself.
+     */
+    void signal() {
+        for (Request<?> request : requests_) {
+            if (request.isWaiting()) {
+                request.wake();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Anonymous method delegated to the holder of the key, queued until the holder executes it,
+     * or until the caller locks the key itself.
+     * State is changed from waiting either to running by the holder or to cancelled by the caller.
+     */
+    static final class Request<R> {
+        private static final int WAITING = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int CANCELLED = 3;
+
+        private final Supplier<R> method_;
+        private final Thread thread_;
+        private final AtomicInteger state_ = new AtomicInteger(WAITING);
+        /**
+         * Fields are not volatile, they are written before the state is set to done.
+         */
+        private R result_;
+        private Throwable failure_;
+
+        private Request(Supplier<R> method, Thread thread) {
+            this.method_ = method;
+            this.thread_ = thread;
+        }
+
+        boolean isWaiting() {
+            return state_.get() == WAITING;
+        }
+
+        boolean isDone() {
+            return state_.get() == DONE;
+        }
+
+        /**
+         * Method withdraws the request, which has not been executed.
+         *
+         * @return false, if the holder has already taken the request.
+         */
+        boolean cancel() {
+            return state_.compareAndSet(WAITING, CANCELLED);
+        }
+
+        /**
+         * Method executes the request on behalf of its caller. Called by the holder of the key.
+         */
+        private void run() {
+            if (!state_.compareAndSet(WAITING, RUNNING)) {
+                return;
+            }
+            try {
+                result_ = method_.get();
+            } catch (Throwable e) {
+                failure_ = e;
+            }
+            state_.set(DONE);
+            LockSupport.unpark(thread_);
+        }
+
+        private void wake() {
+            LockSupport.unpark(thread_);
+        }
+
+        /**
+         * Method return the result of executed request or throws its exception in the thread of caller.
+         */
+        R getResult() {
+            final Throwable failure = failure_;
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            if (failure != null) {
+                throw new EntityLockerException(failure);
+            }
+            return result_;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.Procedure;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that executes tasks on entities one at a time per entity, as an alternative to
+ * {@link EntityLocker#forLock(Object, Supplier)}, which does not block threads.
+ * <p>
+ * Tasks submitted for the same key are executed in order of submission, at most one at a time, and each task sees
+ * the changes made by the previous ones. Tasks for different keys are executed in parallel.
+ * <p>
+ * Task must not wait for completion of other task of the same key, such task would wait forever.
+ */
+public interface EntityExecutor<K> {
+
+    /**
+     * Method submits the task of key.
+     *
+     * @param key  Entity key
+     * @param task Task
+     * @return Future of the result of task. Cancelled future prevents execution of the task, which has not started yet.
+     */
+    <R> CompletableFuture<R> submit(K key, Supplier<R> task);
+
+    /**
+     * Method submits the task of key.
+     *
+     * @param key  Entity key
+     * @param task Task
+     * @return Future completed after execution of task. Cancelled future prevents execution of the task,
+     * which has not started yet.
+     */
+    CompletableFuture<Void> submit(K key, Procedure task);
+
+}
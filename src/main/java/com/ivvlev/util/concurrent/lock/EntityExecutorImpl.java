@@ -0,0 +1,166 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.Procedure;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of EntityExecutor, which executes tasks on shared {@link Executor}.
+ * <p>
+ * Each key has lock-free queue of tasks and counter of pending tasks. Task is queued by submitting thread, and the
+ * thread, which has changed the counter from zero, schedules draining of the queue on the executor. Drain executes
+ * tasks one by one until the counter returns to zero, so no thread is blocked while tasks of the key wait.
+ * Drain executes at most {@link #MAX_BATCH} tasks, then it is rescheduled, so hot key does not occupy
+ * the thread of executor while tasks of other keys wait.
+ * <p>
+ * Queue of key is removed from the map, when all tasks submitted to it have been executed, the same way as
+ * {@link EntityLockerImpl} removes entries of unlocked keys. Task executed by the executor pool thread is not
+ * a holder of any lock, so tasks can use {@link EntityLocker} also.
+ */
+public class EntityExecutorImpl<K> implements EntityExecutor<K> {
+    /**
+     * Max number of tasks of key executed by one drain.
+     */
+    static final int MAX_BATCH = 64;
+
+    private final Map<K, KeyQueue> keyQueueMap_ = new ConcurrentHashMap<>();
+    private final Executor executor_;
+
+    /**
+     * Executor executing tasks in common {@link ForkJoinPool}.
+     */
+    public EntityExecutorImpl() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param executor Executor of tasks, e.g. thread pool or executor of virtual threads.
+     */
+    public EntityExecutorImpl(Executor executor) {
+        this.executor_ = Objects.requireNonNull(executor, "executor");
+    }
+
+    @Override
+    public <R> CompletableFuture<R> submit(K key, Supplier<R> task) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(task, "task");
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        keyQueueMap_.compute(key, (k, q) -> (q != null ? q : new KeyQueue(k)).acquire()).offer(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(task.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(K key, Procedure task) {
+        Objects.requireNonNull(task, "task");
+        return submit(key, () -> {
+            task.exec();
+            return null;
+        });
+    }
+
+    /**
+     * Method return the number of keys, which have tasks submitted and not executed yet.
+     */
+    int getKeyCount() {
+        return keyQueueMap_.size();
+    }
+
+    private void release(K key, int taskCount) {
+        keyQueueMap_.computeIfPresent(key, (k, q) -> q.release(taskCount));
+    }
+
+    /**
+     * Tasks of key.
+     */
+    private final class KeyQueue implements Runnable {
+        private final K key_;
+        private final Queue<Runnable> tasks_ = new ConcurrentLinkedQueue<>();
+        /**
+         * Number of tasks queued and not executed yet. Drain is scheduled by the task changing it from zero.
+         */
+        private final AtomicInteger pendingCount_ = new AtomicInteger();
+        /**
+         * Counts a number of tasks submitted to the queue and not released by drain.
+         * Field not volatile because changed only in {@link Map#compute(Object, BiFunction)} synchronized method.
+         */
+        private long usageCounter_ = 0;
+
+        private KeyQueue(K key) {
+            this.key_ = key;
+        }
+
+        private KeyQueue acquire() {
+            usageCounter_++;
+            return this;
+        }
+
+        /**
+         * @return this, if counter great then zero. null, if counter equal zero.
+         */
+        private KeyQueue release(int taskCount) {
+            return (usageCounter_ -= taskCount) > 0 ? this : null;
+        }
+
+        private void offer(Runnable task) {
+            tasks_.offer(task);
+            if (pendingCount_.getAndIncrement() == 0 && !schedule()) {
+                run();
+            }
+        }
+
+        /**
+         * Method schedules drain on the executor.
+         *
+         * @return false, if executor has rejected the drain, and it must be executed by current thread.
+         */
+        private boolean schedule() {
+            try {
+                executor_.execute(this);
+                return true;
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Drain of the queue. Each pending task is counted after it has been queued, so the queue is not empty
+         * while the counter is positive.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                int taskCount = 0;
+                boolean idle;
+                do {
+                    tasks_.poll().run();
+                    taskCount++;
+                    idle = pendingCount_.decrementAndGet() == 0;
+                } while (!idle && taskCount < MAX_BATCH);
+                EntityExecutorImpl.this.release(key_, taskCount);
+                if (idle || schedule()) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.ivvlev.util.concurrent.lock;
 import com.ivvlev.util.concurrent.TimeoutException;
 import com.ivvlev.util.function.Procedure;
 
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -39,6 +40,35 @@ public interface EntityLocker<K> {
      */
     void unlock(K key);
 
+    /**
+     * Method perform lock of key and return handle, which unlocks the key without looking it up.
+     * Handle is intended for try-with-resources statement:
+     * <pre>
+     *     try (LockHandle&lt;K&gt; handle = entityLocker.acquire(key)) {
+     *         ...
+     *     }
+     * </pre>
+     * Handle must be closed by current thread.
+     *
+     * @param key Entity key.
+     * @return Lock handle
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    LockHandle<K> acquire(K key);
+
+    /**
+     * Method perform attempt to lock of key with timeout and return handle, which unlocks the key without looking it up.
+     *
+     * @param key     Entity key
+     * @param timeout the time to wait for the lock
+     * @param unit    the time unit of the timeout argument
+     * @return Lock handle or null, if timeout occurs.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    LockHandle<K> tryAcquire(K key, long timeout, TimeUnit unit);
+
     /**
      * Check is key currently locked by current thread.
      *
@@ -95,4 +125,88 @@ public interface EntityLocker<K> {
      */
     void forLock(K key, Procedure protectedMethod, long timeout, TimeUnit unit);
 
+    /**
+     * Method perform lock of all keys. Keys are locked in one order, which is the same for all threads,
+     * so two threads locking intersecting sets of keys by this method can't deadlock each other.
+     * If any key can't be locked, all keys locked by the call are unlocked.
+     * Repeated keys are locked once.
+     *
+     * @param keys Entity keys.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockAll(Collection<K> keys);
+
+    /**
+     * Method perform attempt to lock of all keys with timeout. Keys are locked the same way as {@link #lockAll(Collection)}.
+     *
+     * @param keys    Entity keys.
+     * @param timeout the time to wait for all the locks
+     * @param unit    the time unit of the timeout argument
+     * @return {@code true} if all keys were locked, else {@code false} and no key is locked by the call.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockAll(Collection<K> keys, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform unlock of all keys. Repeated keys are unlocked once.
+     *
+     * @param keys Entity keys.
+     * @throws EntityLockerException if any key is not locked by current thread, no key is unlocked in that case
+     */
+    void unlockAll(Collection<K> keys);
+
+    /**
+     * The method locks all passed keys for the duration of the anonymous method execution.
+     * Keys are locked the same way as {@link #lockAll(Collection)}.
+     *
+     * @param keys            Entity keys
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forLockAll(Collection<K> keys, Supplier<R> protectedMethod);
+
+    /**
+     * The method locks all passed keys for the duration of the anonymous method execution.
+     * Keys are locked the same way as {@link #lockAll(Collection)}.
+     *
+     * @param keys            Entity keys
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forLockAll(Collection<K> keys, Procedure protectedMethod);
+
+    /**
+     * The method locks all passed keys for the duration of the anonymous method execution.
+     * Keys are locked the same way as {@link #lockAll(Collection)}.
+     *
+     * @param keys            Entity keys
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for all the locks
+     * @param unit            the time unit of the timeout argument
+     * @return The result of anonymous method
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forLockAll(Collection<K> keys, Supplier<R> protectedMethod, long timeout, TimeUnit unit);
+
+    /**
+     * The method locks all passed keys for the duration of the anonymous method execution.
+     * Keys are locked the same way as {@link #lockAll(Collection)}.
+     *
+     * @param keys            Entity keys
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for all the locks
+     * @param unit            the time unit of the timeout argument
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forLockAll(Collection<K> keys, Procedure protectedMethod, long timeout, TimeUnit unit);
+
 }
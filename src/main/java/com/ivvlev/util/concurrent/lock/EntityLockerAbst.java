@@ -1,37 +1,108 @@
 package com.ivvlev.util.concurrent.lock;
 
+import com.ivvlev.util.concurrent.HashedWheelTimer;
 import com.ivvlev.util.concurrent.TimeoutException;
 import com.ivvlev.util.function.Procedure;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.AbstractQueuedLongSynchronizer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Supplier;
 
 /**
  * Abstract implementation of EntityLocker interface. Implements common methods.
+ * <p>
+ * Threads are blocked only by {@link AbstractQueuedLongSynchronizer} of key entry, no monitor is held or waited on
+ * lock/unlock path, so virtual threads waiting for a key do not pin their carrier threads.
  */
-abstract class EntityLockerAbst<K> implements EntityLocker<K> {
+abstract class EntityLockerAbst<K> implements UpgradableEntityLocker<K>, LeaseEntityLocker<K>, CombiningEntityLocker<K> {
+    private static final int HANDLE_WAITING = 0;
+    private static final int HANDLE_LOCKED = 1;
+    private static final int HANDLE_CANCELLED = 2;
+    private static final int HANDLE_UNLOCKED = 3;
+    private static final int HANDLE_REVOKED = 4;
+    /**
+     * Transaction map size, below which transactions of terminated threads are not purged.
+     */
+    private static final int MIN_PURGE_THRESHOLD = 64;
+    /**
+     * Timeout of internal methods, which wait without timeout. Internal methods take timeouts in nanoseconds,
+     * zero timeout means a single attempt without waiting.
+     */
+    protected static final long NO_TIMEOUT = -1;
+
+    /**
+     * Transactions of alive threads, which have used the locker, and of asynchronous lock handles, by transaction identifier.
+     * Transaction of thread is registered once, when thread uses the locker first time, and is removed after the thread
+     * has terminated. Transaction of handle is registered while the handle is waiting for the key or holds it.
+     */
     private final Map<Long, Transaction<K>> threadTxMap_ = new ConcurrentHashMap<>();
+    /**
+     * Transaction map size, at which transactions of terminated threads are purged by the next new transaction.
+     * After purge the threshold is twice the size of the map, so purge costs O(1) per new transaction on average,
+     * regardless of the number of alive threads. {@link Integer#MAX_VALUE} while purge is running.
+     */
+    private final AtomicInteger purgeThreshold_ = new AtomicInteger(MIN_PURGE_THRESHOLD);
+    /**
+     * Transaction of current thread. Transaction is created once per thread and is kept while the thread is alive,
+     * so lock/unlock cycle does not modify any structure shared between threads to find the transaction.
+     * Other threads reach the transaction through {@link Entry}, which references transactions holding it,
+     * or through {@link #getTransactions()}.
+     */
+    private final ThreadLocal<Transaction<K>> threadTx_ = ThreadLocal.withInitial(this::newTransaction);
+    /**
+     * Contention counters. Null while metrics are disabled.
+     */
+    private volatile LockMetrics<K> metrics_ = null;
 
     @Override
     public void lock(K key) {
-        doLock(key, 0, TimeUnit.MILLISECONDS);
+        doLock(key, false, NO_TIMEOUT);
     }
 
     @Override
     public boolean tryLock(K key, long timeout, TimeUnit unit) {
-        try {
-            doLock(key, timeout, unit);
-        } catch (TimeoutException e) {
-            return false;
-        }
-        return true;
+        return doLock(key, false, toTimeoutNanos(timeout, unit)) != null;
+    }
+
+    @Override
+    public void lockShared(K key) {
+        doLock(key, true, NO_TIMEOUT);
+    }
+
+    @Override
+    public boolean tryLockShared(K key, long timeout, TimeUnit unit) {
+        return doLock(key, true, toTimeoutNanos(timeout, unit)) != null;
     }
 
     @Override
@@ -43,21 +114,53 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
         }
         final Transaction<K> tx = getTransaction();
         if (!tx.isHoldingEntry(entry)) {
-            removeEmptyTransaction(tx);
             throw new EntityLockerException(String.format("Key '%s' doesn't locked by thread '%s'", key, tx.threadId));
         }
-        doUnlock(tx, key, entry);
+        doUnlock(tx, key, entry, false);
+    }
+
+    @Override
+    public void unlockShared(K key) {
+        Objects.requireNonNull(key, "key");
+        final Entry<K> entry = findEntry(key);
+        if (entry == null) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked", key));
+        }
+        final Transaction<K> tx = getTransaction();
+        if (!tx.isHoldingSharedEntry(entry)) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked in shared mode by thread '%s'", key, tx.threadId));
+        }
+        doUnlock(tx, key, entry, true);
+    }
+
+    @Override
+    public LockHandle<K> acquire(K key) {
+        final Transaction<K> tx = getTransaction();
+        return new ThreadLockHandle(key, doLock(tx, key, false, NO_TIMEOUT), tx);
+    }
+
+    @Override
+    public LockHandle<K> tryAcquire(K key, long timeout, TimeUnit unit) {
+        final Transaction<K> tx = getTransaction();
+        final Entry<K> entry = doLock(tx, key, false, toTimeoutNanos(timeout, unit));
+        return entry != null ? new ThreadLockHandle(key, entry, tx) : null;
     }
 
     @Override
     public boolean isLockedByCurrentThread(K key) {
         Entry<K> entry = findEntry(key);
-        return entry != null && entry.lock.isHeldByCurrentThread();
+        return entry != null && entry.isHeldBy(getTransaction());
+    }
+
+    @Override
+    public boolean isSharedLockedByCurrentThread(K key) {
+        Entry<K> entry = findEntry(key);
+        return entry != null && entry.isHeldSharedBy(getTransaction());
     }
 
     @Override
     public <R> R forLock(K key, Supplier<R> protectedMethod) {
-        return doForLock(key, protectedMethod, 0, TimeUnit.MILLISECONDS);
+        return doForLock(key, false, protectedMethod, NO_TIMEOUT);
     }
 
     @Override
@@ -70,7 +173,7 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
 
     @Override
     public <R> R forLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
-        return doForLock(key, protectedMethod, timeout, unit);
+        return doForLock(key, false, protectedMethod, toTimeoutNanos(timeout, unit));
     }
 
     @Override
@@ -81,6 +184,302 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
         }, timeout, unit);
     }
 
+    @Override
+    public <R> R forSharedLock(K key, Supplier<R> protectedMethod) {
+        return doForLock(key, true, protectedMethod, NO_TIMEOUT);
+    }
+
+    @Override
+    public void forSharedLock(K key, Procedure protectedMethod) {
+        forSharedLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public <R> R forSharedLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+        return doForLock(key, true, protectedMethod, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void forSharedLock(K key, Procedure protectedMethod, long timeout, TimeUnit unit) {
+        forSharedLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        }, timeout, unit);
+    }
+
+    @Override
+    public <R> R forLockCombining(K key, Supplier<R> protectedMethod) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        final Transaction<K> tx = getTransaction();
+        final Entry<K> entry = acquireEntry(key, tx, false, NO_TIMEOUT);
+        try {
+            if (entry.isHeldBy(tx) || entry.isUpgradableHeldBy(tx)) {
+                //Method delegated to itself would never be executed.
+                lockEntry(tx, key, entry, false, NO_TIMEOUT);
+                try {
+                    return protectedMethod.get();
+                } finally {
+                    unlockEntry(tx, entry, false);
+                }
+            }
+            try {
+                return tx.combine(entry, protectedMethod);
+            } catch (DeadlockException e) {
+                throw new DeadlockException(String.format("Deadlock detected for key '%s'", key), e);
+            }
+        } finally {
+            releaseEntry(key, tx, false);
+        }
+    }
+
+    @Override
+    public void forLockCombining(K key, Procedure protectedMethod) {
+        forLockCombining(key, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public void lockUpgradable(K key) {
+        doLockUpgradable(getTransaction(), key, NO_TIMEOUT);
+    }
+
+    @Override
+    public boolean tryLockUpgradable(K key, long timeout, TimeUnit unit) {
+        return doLockUpgradable(getTransaction(), key, toTimeoutNanos(timeout, unit)) != null;
+    }
+
+    @Override
+    public void unlockUpgradable(K key) {
+        Objects.requireNonNull(key, "key");
+        final Entry<K> entry = findEntry(key);
+        if (entry == null) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked", key));
+        }
+        final Transaction<K> tx = getTransaction();
+        if (!tx.isHoldingUpgradableEntry(entry)) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked upgradable by thread '%s'", key, tx.threadId));
+        }
+        doUnlockUpgradable(tx, key, entry);
+    }
+
+    @Override
+    public boolean isUpgradableLockedByCurrentThread(K key) {
+        Entry<K> entry = findEntry(key);
+        return entry != null && entry.isUpgradableHeldBy(getTransaction());
+    }
+
+    @Override
+    public <R> R forUpgradableLock(K key, Supplier<R> protectedMethod) {
+        return doForUpgradableLock(key, protectedMethod, NO_TIMEOUT);
+    }
+
+    @Override
+    public void forUpgradableLock(K key, Procedure protectedMethod) {
+        forUpgradableLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public <R> R forUpgradableLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+        return doForUpgradableLock(key, protectedMethod, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void lockAll(Collection<K> keys) {
+        doLockAll(getTransaction(), keys, NO_TIMEOUT);
+    }
+
+    @Override
+    public boolean tryLockAll(Collection<K> keys, long timeout, TimeUnit unit) {
+        return doLockAll(getTransaction(), keys, toTimeoutNanos(timeout, unit)) != null;
+    }
+
+    @Override
+    public void unlockAll(Collection<K> keys) {
+        Objects.requireNonNull(keys, "keys");
+        final Transaction<K> tx = getTransaction();
+        final List<KeyEntry<K>> keyEntries = new ArrayList<>(keys.size());
+        for (K key : new LinkedHashSet<>(keys)) {
+            Objects.requireNonNull(key, "key");
+            final Entry<K> entry = findEntry(key);
+            if (entry == null) {
+                throw new EntityLockerException(String.format("Key '%s' doesn't locked", key));
+            }
+            if (!tx.isHoldingEntry(entry)) {
+                throw new EntityLockerException(String.format("Key '%s' doesn't locked by thread '%s'", key, tx.threadId));
+            }
+            keyEntries.add(new KeyEntry<>(key, entry));
+        }
+        doUnlockAll(tx, keyEntries);
+    }
+
+    @Override
+    public <R> R forLockAll(Collection<K> keys, Supplier<R> protectedMethod) {
+        return doForLockAll(keys, protectedMethod, NO_TIMEOUT);
+    }
+
+    @Override
+    public void forLockAll(Collection<K> keys, Procedure protectedMethod) {
+        forLockAll(keys, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public <R> R forLockAll(Collection<K> keys, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+        return doForLockAll(keys, protectedMethod, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void forLockAll(Collection<K> keys, Procedure protectedMethod, long timeout, TimeUnit unit) {
+        forLockAll(keys, () -> {
+            protectedMethod.exec();
+            return null;
+        }, timeout, unit);
+    }
+
+    @Override
+    public CompletableFuture<LockHandle<K>> lockAsync(K key) {
+        return lockAsync(key, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public CompletableFuture<LockHandle<K>> lockAsync(K key, Executor executor) {
+        return doLockAsync(key, executor, 0, null, null);
+    }
+
+    @Override
+    public LockHandle<K> lockLease(K key, long leaseTime, TimeUnit unit, Consumer<? super LockHandle<K>> revocationListener) {
+        return doLockLease(key, -1, leaseTime, unit, revocationListener);
+    }
+
+    @Override
+    public LockHandle<K> tryLockLease(K key, long timeout, long leaseTime, TimeUnit unit,
+                                      Consumer<? super LockHandle<K>> revocationListener) {
+        return doLockLease(key, Math.max(0, unit.toNanos(timeout)), leaseTime, unit, revocationListener);
+    }
+
+    @Override
+    public CompletableFuture<LockHandle<K>> lockLeaseAsync(K key, long leaseTime, TimeUnit unit,
+                                                           Consumer<? super LockHandle<K>> revocationListener) {
+        return doLockLeaseAsync(key, leaseTime, unit, revocationListener, null);
+    }
+
+    /**
+     * @param parent Transaction of thread, which will own the handle, or null.
+     */
+    private CompletableFuture<LockHandle<K>> doLockLeaseAsync(K key, long leaseTime, TimeUnit unit,
+                                                              Consumer<? super LockHandle<K>> revocationListener,
+                                                              Transaction<K> parent) {
+        return doLockAsync(key, ForkJoinPool.commonPool(), LockLeases.toLeaseNanos(leaseTime, unit),
+                revocationListener, parent);
+    }
+
+    /**
+     * Method perform lease lock of key, waiting for the handle. Handle is returned to the current thread,
+     * so its transaction is linked to transaction of the thread for deadlock detection.
+     *
+     * @param timeoutNanos Timeout in nanoseconds or negative value to wait infinitely.
+     * @return Lock handle or null, if timeout occurs.
+     */
+    private LockHandle<K> doLockLease(K key, long timeoutNanos, long leaseTime, TimeUnit unit,
+                                      Consumer<? super LockHandle<K>> revocationListener) {
+        //Handle is not the current thread, so waiting for the key held by the thread never ends.
+        if (isLockedByCurrentThread(key) || isSharedLockedByCurrentThread(key) || isLeasedByCurrentThread(key)) {
+            throw new DeadlockException(String.format("Key '%s' is locked by current thread '%s'",
+                    key, Thread.currentThread().getId()));
+        }
+        final CompletableFuture<LockHandle<K>> future = doLockLeaseAsync(key, leaseTime, unit, revocationListener,
+                getTransaction());
+        final HashedWheelTimer.Timeout timeout = LockLeases.scheduleTimeout(future, timeoutNanos);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new EntityLockerException(String.format("Lease lock of key '%s' has been interrupted", key), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return null;
+            }
+            throw new EntityLockerException(e.getCause());
+        } finally {
+            LockLeases.cancel(timeout);
+        }
+    }
+
+    /**
+     * Check is key held by lease lock handle taken by {@link #lockLease} of the current thread.
+     */
+    private boolean isLeasedByCurrentThread(K key) {
+        final Entry<K> entry = findEntry(key);
+        final Transaction<K> holdTx = entry != null ? entry.holdTx_ : null;
+        return holdTx != null && holdTx.parent_ == getTransaction();
+    }
+
+    /**
+     * @param leaseNanos Lease time in nanoseconds or zero, if the lock is not revoked.
+     * @param parent     Transaction of thread, which will own the handle, or null.
+     */
+    private CompletableFuture<LockHandle<K>> doLockAsync(K key, Executor executor, long leaseNanos,
+                                                         Consumer<? super LockHandle<K>> revocationListener,
+                                                         Transaction<K> parent) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(executor, "executor");
+        final Transaction<K> tx = new Transaction<>(parent);
+        threadTxMap_.put(tx.id, tx);
+        final Entry<K> entry;
+        try {
+            entry = acquireEntry(key, tx, NO_TIMEOUT);
+        } catch (RuntimeException e) {
+            threadTxMap_.remove(tx.id);
+            throw e;
+        }
+        final AsyncLockHandle handle = new AsyncLockHandle(key, entry, tx, executor, leaseNanos, revocationListener);
+        if (entry.tryAcquire(tx.id)) {
+            handle.hold();
+            handle.future_.complete(handle);
+        } else {
+            handle.future_.whenComplete((h, e) -> {
+                if (e != null) {
+                    handle.cancel();
+                }
+            });
+            entry.addAsyncWaiter(handle);
+        }
+        return handle.future_;
+    }
+
+    @Override
+    public <R> CompletableFuture<R> forLockAsync(K key, Supplier<? extends CompletionStage<R>> protectedMethod) {
+        return forLockAsync(key, protectedMethod, ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public <R> CompletableFuture<R> forLockAsync(K key, Supplier<? extends CompletionStage<R>> protectedMethod,
+                                                 Executor executor) {
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        return lockAsync(key, executor).thenCompose(handle -> {
+            final CompletionStage<R> stage;
+            try {
+                stage = Objects.requireNonNull(protectedMethod.get(), "protectedMethod result");
+            } catch (Throwable e) {
+                handle.unlock();
+                throw e;
+            }
+            return stage.whenComplete((r, e) -> handle.unlock());
+        });
+    }
+
     /**
      * Little faster than
      * <pre>
@@ -93,137 +492,1550 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
      * </pre>
      * because does not contain additional checks and accesses to synchronized resources.
      */
-    private <R> R doForLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+    private <R> R doForLock(K key, boolean shared, Supplier<R> protectedMethod, long timeoutNanos) {
         Objects.requireNonNull(protectedMethod, "protectedMethod");
-        final Entry<K> entry = doLock(key, timeout, unit);
+        final Transaction<K> tx = getTransaction();
+        final Entry<K> entry = doLock(tx, key, shared, timeoutNanos);
+        if (entry == null) {
+            throw new TimeoutException();
+        }
         try {
             return protectedMethod.get();
         } finally {
-            doUnlock(entry.getHoldTx(), key, entry);
+            doUnlock(tx, key, entry, shared);
         }
     }
 
-    private Entry<K> doLock(K key, long timeout, TimeUnit unit) {
+    private Entry<K> doLock(K key, boolean shared, long timeoutNanos) {
+        return doLock(getTransaction(), key, shared, timeoutNanos);
+    }
+
+    /**
+     * Method locks the key. Timeout is shared by taking of key entry and locking of it.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return Entry of key, or null, if timeout has elapsed.
+     */
+    private Entry<K> doLock(Transaction<K> tx, K key, boolean shared, long timeoutNanos) {
         Objects.requireNonNull(key, "key");
-        final Transaction<K> tx = getTransaction();
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final Entry<K> entry = acquireEntry(key, tx, shared, timeoutNanos);
+        if (entry == null) {
+            return null;
+        }
+        boolean locked = false;
         try {
-            final Entry<K> entry = acquireEntry(key, tx, unit.toMillis(timeout));
-            try {
-                try {
-                    tx.lock(entry, timeout, unit);
-                    return entry;
-                } catch (DeadlockException e) {
-                    throw new DeadlockException(String.format("Deadlock detected for key '%s'", key), e);
-                }
-            } catch (Exception e) {
-                releaseEntry(key);
-                throw e;
+            locked = lockEntry(tx, key, entry, shared, remainingNanos(timeoutNanos, deadline));
+        } finally {
+            if (!locked) {
+                releaseEntry(key, tx, shared);
             }
-        } catch (Exception e) {
-            removeEmptyTransaction(tx);
-            throw e;
         }
+        return locked ? entry : null;
+    }
+
+    private void doUnlock(Transaction<K> tx, K key, Entry<K> entry, boolean shared) {
+        unlockEntry(tx, entry, shared);
+        releaseEntry(key, tx, shared);
     }
 
-    private void doUnlock(Transaction<K> tx, K key, Entry<K> entry) {
+    private <R> R doForUpgradableLock(K key, Supplier<R> protectedMethod, long timeoutNanos) {
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        final Transaction<K> tx = getTransaction();
+        final Entry<K> entry = doLockUpgradable(tx, key, timeoutNanos);
+        if (entry == null) {
+            throw new TimeoutException();
+        }
         try {
-            tx.unlock(entry);
-            releaseEntry(key);
+            return protectedMethod.get();
         } finally {
-            removeEmptyTransaction(tx);
+            doUnlockUpgradable(tx, key, entry);
         }
     }
 
-    protected final Transaction<K> getTransaction() {
-        return threadTxMap_.computeIfAbsent(Thread.currentThread().getId(), Transaction::new);
+    /**
+     * Upgradable lock takes key entry in the same mode as exclusive lock, because it is going to be promoted.
+     *
+     * @return Entry of key, or null, if timeout has elapsed.
+     */
+    private Entry<K> doLockUpgradable(Transaction<K> tx, K key, long timeoutNanos) {
+        Objects.requireNonNull(key, "key");
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final Entry<K> entry = acquireEntry(key, tx, false, timeoutNanos);
+        if (entry == null) {
+            return null;
+        }
+        boolean locked = false;
+        try {
+            locked = lockEntry(tx, key, entry, false, true, remainingNanos(timeoutNanos, deadline));
+        } finally {
+            if (!locked) {
+                releaseEntry(key, tx, false);
+            }
+        }
+        return locked ? entry : null;
     }
 
-    protected final void removeEmptyTransaction(Transaction<K> tx) {
-        if (tx.getHoldingEntryCount() == 0) {
-            threadTxMap_.remove(tx.threadId);
-        }
+    private void doUnlockUpgradable(Transaction<K> tx, K key, Entry<K> entry) {
+        tx.unlockUpgradable(entry);
+        releaseEntry(key, tx, false);
     }
 
-    protected abstract Entry<K> acquireEntry(K key, Transaction<K> tx, long timeout);
+    /**
+     * Method locks key entry by transaction, counts metrics and records JFR events, if they are enabled.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return true, if the entry has been locked, false - if timeout has elapsed.
+     */
+    protected final boolean lockEntry(Transaction<K> tx, K key, Entry<K> entry, boolean shared, long timeoutNanos) {
+        return lockEntry(tx, key, entry, shared, false, timeoutNanos);
+    }
 
-    protected abstract Entry<K> findEntry(K key);
+    private boolean lockEntry(Transaction<K> tx, K key, Entry<K> entry, boolean shared, boolean upgradable,
+                              long timeoutNanos) {
+        final LockMetrics<K> metrics = metrics_;
+        //Wait event is begun by transaction, when the key can't be locked at once.
+        final boolean eventsEnabled = LockEvents.isEntityLockEnabled();
+        final long beginNanos = metrics != null || eventsEnabled ? System.nanoTime() : 0;
+        final int result;
+        try {
+            result = upgradable ? tx.lockUpgradable(entry, timeoutNanos) : tx.lock(entry, shared, timeoutNanos);
+        } catch (DeadlockException e) {
+            tx.waitEvent_ = null;
+            if (metrics != null) {
+                metrics.recordFailure(key, System.nanoTime() - beginNanos, true);
+            }
+            if (eventsEnabled) {
+                LockEvents.commitDeadlock(key, shared, upgradable, System.nanoTime() - beginNanos, e.getMessage());
+            }
+            throw new DeadlockException(String.format("Deadlock detected for key '%s'", key), e);
+        }
+        if (result == Transaction.TIMED_OUT) {
+            tx.waitEvent_ = null;
+            if (metrics != null) {
+                metrics.recordFailure(key, System.nanoTime() - beginNanos, false);
+            }
+            if (eventsEnabled) {
+                LockEvents.commitTimeout(key, shared, upgradable, System.nanoTime() - beginNanos);
+            }
+            return false;
+        }
+        final boolean waited = result == Transaction.LOCKED_AFTER_WAIT;
+        if (waited) {
+            final LockEvents.EntityLockWait waitEvent = tx.waitEvent_;
+            if (waitEvent != null) {
+                tx.waitEvent_ = null;
+                LockEvents.commitWait(waitEvent, key, shared, upgradable);
+            }
+        }
+        if (metrics != null) {
+            final long endNanos = System.nanoTime();
+            if (waited) {
+                metrics.recordContendedAcquisition(key, endNanos - beginNanos);
+            } else {
+                metrics.recordAcquisition();
+            }
+            if (!shared && !upgradable && entry.getExclusiveCount() == 1) {
+                entry.holdStartNanos_ = endNanos;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method unlocks key entry by transaction and counts hold time, if the key has been locked with metrics enabled.
+     */
+    protected final void unlockEntry(Transaction<K> tx, Entry<K> entry, boolean shared) {
+        if (shared) {
+            tx.unlockShared(entry);
+            return;
+        }
+        if (entry.holdStartNanos_ != 0 && entry.getExclusiveCount() == 1) {
+            final LockMetrics<K> metrics = metrics_;
+            if (metrics != null) {
+                metrics.recordHold(System.nanoTime() - entry.holdStartNanos_);
+            }
+            entry.holdStartNanos_ = 0;
+        }
+        tx.unlock(entry);
+    }
+
+    /**
+     * Method enables or disables contention metrics. Enabling starts counting from zero.
+     * Disabled metrics cost one volatile read per lock.
+     *
+     * @param enabled true, if metrics should be counted.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics_ = enabled ? new LockMetrics<>() : null;
+    }
+
+    /**
+     * Check is contention metrics are enabled.
+     *
+     * @return true, if metrics are counted.
+     */
+    public boolean isMetricsEnabled() {
+        return metrics_ != null;
+    }
+
+    /**
+     * Method return snapshot of contention metrics with 10 hottest keys.
+     *
+     * @return Snapshot of metrics
+     * @throws EntityLockerException if metrics are disabled
+     */
+    public LockMetricsSnapshot<K> getMetricsSnapshot() {
+        return getMetricsSnapshot(10);
+    }
+
+    /**
+     * Method return snapshot of contention metrics.
+     *
+     * @param hotKeyCount Max number of hot keys in snapshot.
+     * @return Snapshot of metrics
+     * @throws EntityLockerException if metrics are disabled
+     */
+    public LockMetricsSnapshot<K> getMetricsSnapshot(int hotKeyCount) {
+        final LockMetrics<K> metrics = metrics_;
+        if (metrics == null) {
+            throw new EntityLockerException("Metrics are disabled.");
+        }
+        return metrics.snapshot(hotKeyCount);
+    }
+
+    /**
+     * Method return snapshot of lock table: held keys with their owners and hold counts, and waiting threads.
+     * Snapshot does not block locks, so it can be taken under load, but it is not atomic, see {@link LockTableSnapshot}.
+     *
+     * @return Snapshot of lock table
+     */
+    public LockTableSnapshot<K> getLockTableSnapshot() {
+        return newLockTableSnapshot(-1);
+    }
+
+    /**
+     * Method makes snapshot of lock table. Waiting transactions are read first, then key entries,
+     * so the key locked by waiting transaction meanwhile is reported with the waiter.
+     *
+     * @param globalLockThreadId Identifier of thread, which holds global lock, -1 - no global lock.
+     * @return Snapshot of lock table
+     */
+    protected final LockTableSnapshot<K> newLockTableSnapshot(long globalLockThreadId) {
+        final Map<Entry<K>, List<LockTableSnapshot.Waiter>> entryWaiters = new IdentityHashMap<>();
+        final List<Long> globalLockWaiters = new ArrayList<>();
+        final List<Long> globalUnlockWaiters = new ArrayList<>();
+        for (Transaction<K> tx : threadTxMap_.values()) {
+            final Entry<K> waitingEntry = tx.waitingEntry;
+            if (waitingEntry != null) {
+                final LockTableSnapshot.Mode mode = tx.waitingShared ? LockTableSnapshot.Mode.SHARED
+                        : tx.waitingUpgradable ? LockTableSnapshot.Mode.UPGRADABLE : LockTableSnapshot.Mode.EXCLUSIVE;
+                entryWaiters.computeIfAbsent(waitingEntry, e -> new ArrayList<>())
+                        .add(new LockTableSnapshot.Waiter(tx.threadId, mode));
+            }
+            if (tx.waitingGlobalLock) {
+                globalLockWaiters.add(tx.threadId);
+            }
+            if (tx.waitingGlobalUnlock) {
+                globalUnlockWaiters.add(tx.threadId);
+            }
+        }
+        final List<LockTableSnapshot.KeyLock<K>> keys = new ArrayList<>();
+        forEachEntry((key, entry) -> {
+            final List<LockTableSnapshot.Waiter> waiters = entryWaiters.getOrDefault(entry, Collections.emptyList());
+            final LockTableSnapshot.KeyLock<K> keyLock = entry.toKeyLock(key, waiters, threadTxMap_);
+            if (keyLock != null) {
+                keys.add(keyLock);
+            }
+        });
+        return new LockTableSnapshot<>(keys, globalLockThreadId, globalLockWaiters, globalUnlockWaiters);
+    }
+
+    private <R> R doForLockAll(Collection<K> keys, Supplier<R> protectedMethod, long timeoutNanos) {
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        final Transaction<K> tx = getTransaction();
+        final List<KeyEntry<K>> keyEntries = doLockAll(tx, keys, timeoutNanos);
+        if (keyEntries == null) {
+            throw new TimeoutException();
+        }
+        try {
+            return protectedMethod.get();
+        } finally {
+            doUnlockAll(tx, keyEntries);
+        }
+    }
+
+    /**
+     * Method takes entries of all keys at once and then locks them in order of entries.
+     * Two calls can't lock the same keys in different order: keys with the same entry are locked one after another
+     * and entry of key can't be changed while the key is used by any call. The order of keys with equal identity
+     * hash codes of entries is not defined, deadlock detection covers this rare case.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return Locked keys with their entries in order of locking, or null, if timeout has elapsed.
+     */
+    private List<KeyEntry<K>> doLockAll(Transaction<K> tx, Collection<K> keys, long timeoutNanos) {
+        Objects.requireNonNull(keys, "keys");
+        final List<K> distinctKeys = new ArrayList<>(new LinkedHashSet<>(keys));
+        for (K key : distinctKeys) {
+            Objects.requireNonNull(key, "key");
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final List<Entry<K>> entries = acquireEntries(distinctKeys, tx, timeoutNanos);
+        if (entries == null) {
+            return null;
+        }
+        final List<KeyEntry<K>> keyEntries = new ArrayList<>(distinctKeys.size());
+        for (int i = 0; i < distinctKeys.size(); i++) {
+            keyEntries.add(new KeyEntry<>(distinctKeys.get(i), entries.get(i)));
+        }
+        keyEntries.sort(KeyEntry::compareTo);
+        int lockedCount = 0;
+        try {
+            for (KeyEntry<K> keyEntry : keyEntries) {
+                if (!lockEntry(tx, keyEntry.key, keyEntry.entry, false, remainingNanos(timeoutNanos, deadline))) {
+                    break;
+                }
+                lockedCount++;
+            }
+        } finally {
+            if (lockedCount < keyEntries.size()) {
+                for (int i = 0; i < keyEntries.size(); i++) {
+                    final KeyEntry<K> keyEntry = keyEntries.get(i);
+                    if (i < lockedCount) {
+                        unlockEntry(tx, keyEntry.entry, false);
+                    }
+                    releaseEntry(keyEntry.key, tx);
+                }
+            }
+        }
+        return lockedCount == keyEntries.size() ? keyEntries : null;
+    }
+
+    private void doUnlockAll(Transaction<K> tx, List<KeyEntry<K>> keyEntries) {
+        for (int i = keyEntries.size() - 1; i >= 0; i--) {
+            final KeyEntry<K> keyEntry = keyEntries.get(i);
+            doUnlock(tx, keyEntry.key, keyEntry.entry, false);
+        }
+    }
+
+    protected final Transaction<K> getTransaction() {
+        return threadTx_.get();
+    }
+
+    /**
+     * Method return transactions of all alive threads, which have used the locker.
+     *
+     * @return Weakly consistent view of transactions.
+     */
+    protected final Collection<Transaction<K>> getTransactions() {
+        return threadTxMap_.values();
+    }
+
+    private Transaction<K> newTransaction() {
+        final Transaction<K> tx = new Transaction<>(Thread.currentThread());
+        threadTxMap_.put(tx.id, tx);
+        final int purgeThreshold = purgeThreshold_.get();
+        if (threadTxMap_.size() >= purgeThreshold && purgeThreshold_.compareAndSet(purgeThreshold, Integer.MAX_VALUE)) {
+            int size = purgeThreshold;
+            try {
+                threadTxMap_.values().removeIf(Transaction::isAbandoned);
+                size = threadTxMap_.size();
+            } finally {
+                purgeThreshold_.set(Math.max(MIN_PURGE_THRESHOLD, 2 * size));
+            }
+        }
+        return tx;
+    }
+
+    /**
+     * Method converts timeout of public methods, where zero timeout means no timeout, to timeout of internal methods.
+     *
+     * @return Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     */
+    protected static long toTimeoutNanos(long timeout, TimeUnit unit) {
+        return timeout == 0 ? NO_TIMEOUT : Math.max(0, unit.toNanos(timeout));
+    }
+
+    /**
+     * Method return the rest of timeout, which has been started with given deadline.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @param deadline     {@link System#nanoTime()} at the start of timeout plus timeout.
+     * @return Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     */
+    protected static long remainingNanos(long timeoutNanos, long deadline) {
+        return timeoutNanos < 0 ? NO_TIMEOUT : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Method takes entry of key.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return Entry of key, or null, if timeout has elapsed.
+     */
+    protected abstract Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos);
+
+    /**
+     * Method takes entry of key, which will be locked in given mode. Entry is returned by
+     * {@link #releaseEntry(Object, Transaction, boolean)} with the same mode.
+     * Default implementation does not depend on mode.
+     *
+     * @param shared       Key will be locked in shared mode.
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return Entry of key, or null, if timeout has elapsed. Timeout is not thrown, because it is expected result
+     * of tryLock.
+     */
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, boolean shared, long timeoutNanos) {
+        return acquireEntry(key, tx, timeoutNanos);
+    }
+
+    /**
+     * Method takes entries of several keys. Each entry is returned by {@link #releaseEntry(Object, Transaction)}.
+     * If any entry can't be taken, the entries taken before are returned.
+     *
+     * @param timeoutNanos Timeout in nanoseconds for all keys, {@link #NO_TIMEOUT} - no timeout.
+     * @return Entries in order of keys, or null, if timeout has elapsed.
+     */
+    protected List<Entry<K>> acquireEntries(List<K> keys, Transaction<K> tx, long timeoutNanos) {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final List<Entry<K>> entries = new ArrayList<>(keys.size());
+        try {
+            for (K key : keys) {
+                final Entry<K> entry = acquireEntry(key, tx, remainingNanos(timeoutNanos, deadline));
+                if (entry == null) {
+                    break;
+                }
+                entries.add(entry);
+            }
+        } finally {
+            if (entries.size() < keys.size()) {
+                for (int i = 0; i < entries.size(); i++) {
+                    releaseEntry(keys.get(i), tx);
+                }
+            }
+        }
+        return entries.size() == keys.size() ? entries : null;
+    }
+
+    protected abstract Entry<K> findEntry(K key);
+
+    protected abstract void releaseEntry(K key, Transaction<K> tx);
+
+    /**
+     * Method returns entry taken by {@link #acquireEntry(Object, Transaction, boolean, long)}.
+     *
+     * @param shared Key has been locked in shared mode.
+     */
+    protected void releaseEntry(K key, Transaction<K> tx, boolean shared) {
+        releaseEntry(key, tx);
+    }
+
+    protected abstract int getEntryCount();
+
+    /**
+     * Method passes key entries, which are used by any transaction, to the action. Iteration must not block locks
+     * for long, it is weakly consistent. Default implementation passes nothing, for lockers which entries are
+     * shared by keys.
+     *
+     * @param action Action accepting key and its entry.
+     */
+    protected void forEachEntry(BiConsumer<? super K, ? super Entry<K>> action) {
+    }
+
+    /**
+     * Key and its entry, locked by {@link #lockAll(Collection)}. Ordered by identity hash code of entry and by unique
+     * order number of entry for equal hash codes, so all threads lock the same keys in the same order.
+     * Keys sharing one entry are equal, their order does not matter.
+     */
+    private static final class KeyEntry<K> implements Comparable<KeyEntry<K>> {
+        private final K key;
+        private final Entry<K> entry;
+        private final int entryHash;
+
+        private KeyEntry(K key, Entry<K> entry) {
+            this.key = key;
+            this.entry = entry;
+            this.entryHash = System.identityHashCode(entry);
+        }
+
+        @Override
+        public int compareTo(KeyEntry<K> o) {
+            if (entry == o.entry) {
+                return 0;
+            }
+            final int result = Integer.compare(entryHash, o.entryHash);
+            return result != 0 ? result : Long.compare(entry.getOrder(), o.entry.getOrder());
+        }
+    }
+
+    /**
+     * Lock other than key entry, e.g. lock of namespace, which transaction can wait for.
+     * It is a part of wait-for graph used by deadlock detection, see {@link Transaction#waitingTarget}.
+     */
+    protected interface WaitTarget<K> {
+        /**
+         * Method return the transactions which prevent waiting transaction from taking the lock.
+         *
+         * @param waitingTx Transaction, which is waiting for the lock.
+         * @return Blocking transactions. Weakly consistent, as wait-for graph is rechecked while transaction waits.
+         */
+        List<Transaction<K>> getBlockingTx(Transaction<K> waitingTx);
+    }
+
+    /**
+     * Handle of the lock of thread. Created by {@link #acquire(Object)}. Keeps key entry and transaction,
+     * so unlock does not look the key up, as {@link #forLock(Object, Supplier)} does.
+     */
+    private final class ThreadLockHandle implements LockHandle<K> {
+        private final K key_;
+        private final Entry<K> entry_;
+        private final Transaction<K> tx_;
+        /**
+         * Field not volatile because used only by the thread of transaction.
+         */
+        private boolean locked_ = true;
+
+        private ThreadLockHandle(K key, Entry<K> entry, Transaction<K> tx) {
+            this.key_ = key;
+            this.entry_ = entry;
+            this.tx_ = tx;
+        }
+
+        @Override
+        public K getKey() {
+            return key_;
+        }
+
+        @Override
+        public boolean isLocked() {
+            return locked_;
+        }
+
+        @Override
+        public void unlock() {
+            if (tx_.thread_ != Thread.currentThread()) {
+                throw new EntityLockerException(String.format("Key '%s' doesn't locked by thread '%s'",
+                        key_, Thread.currentThread().getId()));
+            }
+            if (!locked_) {
+                throw new EntityLockerException(String.format("Key '%s' doesn't locked by handle", key_));
+            }
+            locked_ = false;
+            doUnlock(tx_, key_, entry_, false);
+        }
+
+        @Override
+        public void close() {
+            if (locked_) {
+                unlock();
+            }
+        }
+    }
+
+    /**
+     * Handle of asynchronous lock. Created by {@link #lockAsync(Object, Executor)} and by lease lock methods.
+     * Lease of handle starts when the key is locked, after the lease has expired the lock is revoked by timer thread.
+     */
+    private final class AsyncLockHandle extends AsyncWaiters.Waiter<K> implements LockHandle<K> {
+        private final K key_;
+        private final Entry<K> entry_;
+        private final Executor executor_;
+        private final CompletableFuture<LockHandle<K>> future_ = new CompletableFuture<>();
+        private final AtomicInteger state_ = new AtomicInteger(HANDLE_WAITING);
+        private final long leaseNanos_;
+        private final Consumer<? super LockHandle<K>> revocationListener_;
+        private volatile HashedWheelTimer.Timeout lease_ = null;
+
+        private AsyncLockHandle(K key, Entry<K> entry, Transaction<K> tx, Executor executor,
+                                long leaseNanos, Consumer<? super LockHandle<K>> revocationListener) {
+            super(tx);
+            this.key_ = key;
+            this.entry_ = entry;
+            this.executor_ = executor;
+            this.leaseNanos_ = leaseNanos;
+            this.revocationListener_ = revocationListener;
+        }
+
+        @Override
+        public K getKey() {
+            return key_;
+        }
+
+        @Override
+        public boolean isLocked() {
+            return state_.get() == HANDLE_LOCKED;
+        }
+
+        @Override
+        public void unlock() {
+            if (!tryUnlock()) {
+                if (state_.get() == HANDLE_REVOKED) {
+                    throw new EntityLockerException(String.format("Lease of key '%s' has expired", key_));
+                }
+                throw new EntityLockerException(String.format("Key '%s' doesn't locked by handle", key_));
+            }
+        }
+
+        @Override
+        public void close() {
+            tryUnlock();
+        }
+
+        private boolean tryUnlock() {
+            if (!state_.compareAndSet(HANDLE_LOCKED, HANDLE_UNLOCKED)) {
+                return false;
+            }
+            LockLeases.cancel(lease_);
+            release();
+            return true;
+        }
+
+        /**
+         * Key has been locked without waiting.
+         */
+        private void hold() {
+            state_.set(HANDLE_LOCKED);
+            entry_.holdTx_ = tx;
+            tx.holdingEntryCount_++;
+            startLease();
+        }
+
+        private void startLease() {
+            lease_ = LockLeases.startLease(this::revoke, leaseNanos_);
+        }
+
+        /**
+         * Lease has expired. Called by timer thread.
+         */
+        private void revoke() {
+            if (!state_.compareAndSet(HANDLE_LOCKED, HANDLE_REVOKED)) {
+                return;
+            }
+            release();
+            LockLeases.notifyRevoked(this, revocationListener_, executor_);
+        }
+
+        private void release() {
+            tx.unlock(entry_);
+            releaseEntry(key_, tx);
+            threadTxMap_.remove(tx.id);
+        }
+
+        /**
+         * Future has been cancelled or completed exceptionally while the handle is waiting for the key.
+         */
+        private void cancel() {
+            if (state_.compareAndSet(HANDLE_WAITING, HANDLE_CANCELLED)) {
+                entry_.removeAsyncWaiter(this);
+                releaseEntry(key_, tx);
+                threadTxMap_.remove(tx.id);
+            }
+        }
+
+        @Override
+        protected boolean grant() {
+            if (!state_.compareAndSet(HANDLE_WAITING, HANDLE_LOCKED)) {
+                return false;
+            }
+            entry_.holdTx_ = tx;
+            tx.holdingEntryCount_++;
+            startLease();
+            final Runnable complete = () -> {
+                //Future can be cancelled after the key has been locked.
+                if (!future_.complete(this)) {
+                    tryUnlock();
+                }
+            };
+            try {
+                executor_.execute(complete);
+            } catch (RejectedExecutionException e) {
+                complete.run();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Transactions, which hold the key in shared mode, and the number of shared locks of each one.
+     * Transactions are kept in blocks of fixed size linked into list. Transaction takes free slot with CAS and frees
+     * it, when its last shared lock is released. Block is appended, when all slots are taken, and is never removed,
+     * so shared lock/unlock cycle does not create garbage, once the list has grown to the number of holders.
+     * <p>
+     * Slot and count of transaction are changed only by the thread of transaction, other threads read them for
+     * deadlock detection and lock table snapshot.
+     * <p>
+     * {@link HierarchicalEntityLockerImpl} counts shared and intention locks of namespaces the same way.
+     */
+    static final class SharedHolders<K> {
+        private static final int BLOCK_SIZE = 4;
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<SharedHolders, SharedHolders> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(SharedHolders.class, SharedHolders.class, "next_");
+
+        private final AtomicReferenceArray<Transaction<K>> txs_ = new AtomicReferenceArray<>(BLOCK_SIZE);
+        private final AtomicLongArray counts_ = new AtomicLongArray(BLOCK_SIZE);
+        private volatile SharedHolders<K> next_ = null;
+
+        /**
+         * Method increments shared lock count of transaction. Free slot is taken for transaction, which has not held
+         * the key in shared mode.
+         *
+         * @param tx Transaction
+         */
+        void hold(Transaction<K> tx) {
+            for (SharedHolders<K> block = this; block != null; block = block.next_) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (block.txs_.get(i) == tx) {
+                        block.counts_.set(i, block.counts_.get(i) + 1);
+                        return;
+                    }
+                }
+            }
+            SharedHolders<K> block = this;
+            while (true) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (block.txs_.get(i) == null && block.txs_.compareAndSet(i, null, tx)) {
+                        block.counts_.set(i, 1);
+                        return;
+                    }
+                }
+                SharedHolders<K> next = block.next_;
+                if (next == null) {
+                    NEXT.compareAndSet(block, null, new SharedHolders<K>());
+                    next = block.next_;
+                }
+                block = next;
+            }
+        }
+
+        /**
+         * Method decrements shared lock count of transaction and frees its slot, if the count has become zero.
+         *
+         * @param tx Transaction
+         * @return true, if transaction does not hold the key in shared mode anymore.
+         */
+        boolean unhold(Transaction<K> tx) {
+            for (SharedHolders<K> block = this; block != null; block = block.next_) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (block.txs_.get(i) == tx) {
+                        final long count = block.counts_.get(i) - 1;
+                        block.counts_.set(i, count);
+                        if (count > 0) {
+                            return false;
+                        }
+                        block.txs_.set(i, null);
+                        return true;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Method return shared lock count of transaction, 0 if transaction does not hold the key in shared mode.
+         */
+        long getCount(Transaction<K> tx) {
+            for (SharedHolders<K> block = this; block != null; block = block.next_) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (block.txs_.get(i) == tx) {
+                        return block.counts_.get(i);
+                    }
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Check is key held in shared mode by transaction.
+         */
+        boolean isHeldBy(Transaction<K> tx) {
+            for (SharedHolders<K> block = this; block != null; block = block.next_) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    if (block.txs_.get(i) == tx) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Method passes each transaction holding the key and its shared lock count to consumer. Weakly consistent.
+         */
+        void forEach(ObjLongConsumer<Transaction<K>> consumer) {
+            for (SharedHolders<K> block = this; block != null; block = block.next_) {
+                for (int i = 0; i < BLOCK_SIZE; i++) {
+                    final Transaction<K> tx = block.txs_.get(i);
+                    final long count = block.counts_.get(i);
+                    if (tx != null && count > 0) {
+                        consumer.accept(tx, count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Key entry. Lock of the key, which keeps reentrancy count and shared lock count in single state field,
+     * updated with CAS. Uncontended lock and unlock are one or two atomic operations, waiting threads are
+     * parked only under contention by {@link AbstractQueuedLongSynchronizer}.
+     * <p>
+     * State layout:<br>
+     * bit 63 - upgradable lock is held, {@link #UPGRADABLE_HELD};<br>
+     * bit 62 - upgradable lock is being promoted to exclusive, new shared locks wait, {@link #UPGRADE_PENDING};<br>
+     * bits 31..61 - exclusive lock count, up to {@link #MAX_COUNT};<br>
+     * bits 0..30 - shared lock count of all transactions, up to {@link #MAX_SHARED_COUNT}.
+     * <p>
+     * Holder of upgradable lock has zero exclusive count, until it promotes the lock. Promoted lock has both
+     * bit 63 and exclusive count set, so unlock of exclusive lock demotes it back to upgradable.
+     * <p>
+     * Transaction, which holds exclusive or upgradable lock, is kept in {@link #ownerId_}. Owner writes its identifier
+     * after it has locked the key and clears it before it releases the key, so transaction sees its own identifier
+     * there only while it holds the key. Identifiers are 64-bit and never reused, so a new transaction can't be taken
+     * for the owner.
+     * <p>
+     * Argument of synchronizer methods is transaction identifier. Upgradable lock is acquired and released by
+     * exclusive methods with identifier tagged by {@link #upgradableArg(long)}. Upgradable lock count is kept by owner
+     * in {@link #upgradableCount_}. Promotion is not queued, promoting thread is unparked by the last shared unlock.
+     * <p>
+     * Fair entry grants the key to waiting threads and asynchronous locks in FIFO order. Threads waiting for fair entry
+     * are queued in {@link #fairWaiters_} instead of the queue of synchronizer, so they can recheck wait-for graph
+     * without losing their place. Released key can be taken only by the first waiter, newcomers are queued after it
+     * instead of barging, see {@link #hasFairPredecessors(long)}. The thread releasing the key unparks the first
+     * queued thread, which takes the key itself, or grants the key to the first asynchronous lock. Threads and
+     * asynchronous locks are ordered by tickets taken when they are queued.
+     */
+    protected static final class Entry<K> extends AbstractQueuedLongSynchronizer {
+        private static final int EXCLUSIVE_SHIFT = 31;
+        private static final long EXCLUSIVE_UNIT = 1L << EXCLUSIVE_SHIFT;
+        /**
+         * Max count of exclusive, upgradable and shared locks, the same as of {@link java.util.concurrent.locks.ReentrantLock}.
+         */
+        private static final long MAX_COUNT = (1L << EXCLUSIVE_SHIFT) - 1;
+        private static final long SHARED_MASK = MAX_COUNT;
+        private static final long MAX_SHARED_COUNT = SHARED_MASK;
+        private static final long UPGRADE_PENDING = 1L << 62;
+        private static final long UPGRADABLE_HELD = 1L << 63;
+        /**
+         * State bits, which are set while the key has owner.
+         */
+        private static final long OWNED_MASK = UPGRADABLE_HELD | (MAX_COUNT << EXCLUSIVE_SHIFT);
+        /**
+         * Argument of {@link #releaseShared(long)}, which wakes up queued threads without releasing anything.
+         * Transaction identifiers are positive.
+         */
+        private static final long SIGNAL_ARG = 0;
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, SharedHolders> SHARED_HOLDERS =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, SharedHolders.class, "sharedHolders_");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, AsyncWaiters> ASYNC_WAITERS =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, AsyncWaiters.class, "asyncWaiters_");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, CombiningQueue> COMBINING_QUEUE =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, CombiningQueue.class, "combiningQueue_");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, Queue> FAIR_WAITERS =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, Queue.class, "fairWaiters_");
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<Entry> ORDER = AtomicLongFieldUpdater.newUpdater(Entry.class, "order_");
+        /**
+         * Source of {@link #order_}.
+         */
+        private static final AtomicLong orderSequence_ = new AtomicLong();
+        /**
+         * Source of tickets, which order threads and asynchronous locks queued for fair entries.
+         */
+        private static final AtomicLong ticketSequence_ = new AtomicLong();
+
+        private static long exclusiveCount(long state) {
+            return (state >>> EXCLUSIVE_SHIFT) & MAX_COUNT;
+        }
+
+        private static long sharedCount(long state) {
+            return state & SHARED_MASK;
+        }
+
+        /**
+         * Method return synchronizer argument of upgradable lock.
+         *
+         * @param txId Transaction identifier
+         * @return Tagged transaction identifier, negative number.
+         */
+        private static long upgradableArg(long txId) {
+            return ~txId;
+        }
+
+        private static boolean isUpgradableArg(long arg) {
+            return arg < 0;
+        }
+
+        /**
+         * Max number of spins of thread waiting for the key before it parks. Zero disables spinning.
+         * Can be set by system property {@code com.ivvlev.util.concurrent.lock.maxSpins}.
+         * Thread never spins on single CPU, because the holder of the key can't run while it spins.
+         */
+        static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() > 1
+                ? Math.max(0, Integer.getInteger("com.ivvlev.util.concurrent.lock.maxSpins", 1024)) : 0;
+        private static final int MIN_SPINS = Math.min(16, MAX_SPINS);
+        /**
+         * Wait after spinning, which is shorter than this, means that the key would be taken by spinning a bit longer,
+         * without the cost of park and unpark.
+         */
+        private static final long SHORT_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+        /**
+         * Counts a number of taking Entry-instance from key-map.
+         * Field not volatile because changed only in {@link Map#compute(Object, BiFunction)} synchronized method.
+         */
+        private long usageCounter_ = 0;
+        /**
+         * Identifier of transaction, which holds exclusive or upgradable lock, or zero.
+         * Valid only while state has owner, see {@link #isOwner(long, long)}.
+         */
+        private volatile long ownerId_ = 0;
+        /**
+         * Only one transaction can lock {@link Entry} exclusively.
+         * Field is written by owner after the lock is set and before the lock is released, so other threads
+         * can see null for a short time while the key is locked. Need for deadlock detection.
+         */
+        private volatile Transaction<K> holdTx_ = null;
+        /**
+         * Transactions which lock {@link Entry} in shared mode and the number of locks of each one.
+         * Created on first shared lock and kept while the entry is reused.
+         */
+        private volatile SharedHolders<K> sharedHolders_ = null;
+        /**
+         * Asynchronous locks waiting for the key. Created on first asynchronous lock, which has to wait.
+         */
+        private volatile AsyncWaiters<K> asyncWaiters_ = null;
+        /**
+         * Transactions of threads waiting for fair entry in FIFO order. Created on first thread, which has to wait.
+         */
+        private volatile Queue<Transaction<K>> fairWaiters_ = null;
+        /**
+         * Methods delegated by {@link CombiningEntityLocker#forLockCombining(Object, Supplier)}.
+         * Created on first method, which has been delegated.
+         */
+        private volatile CombiningQueue combiningQueue_ = null;
+        /**
+         * Transaction which holds upgradable lock. Need for deadlock detection.
+         */
+        private volatile Transaction<K> upgradableHoldTx_ = null;
+        /**
+         * Number of upgradable locks of owner. Field not volatile because used only by the owner of upgradable lock.
+         */
+        private long upgradableCount_ = 0;
+        /**
+         * Thread waiting for promotion of upgradable lock, unparked when shared locks are released.
+         */
+        private volatile Thread upgradeWaiter_ = null;
+
+        /**
+         * Is entry granted to waiting threads in FIFO order.
+         */
+        private final boolean fair_;
+        /**
+         * Time when the key has been locked exclusively, if metrics are enabled, else zero.
+         * Field not volatile because used only by the holder of the key.
+         */
+        private long holdStartNanos_ = 0;
+        /**
+         * Unique number, which orders entries with equal identity hash codes in
+         * {@link EntityLockerAbst#lockAll(Collection)}, or zero. Assigned on first use, as hash codes of entries
+         * are rarely equal, so creation of entry does not touch shared sequence.
+         */
+        private volatile long order_ = 0;
+        /**
+         * Number of spins of thread waiting for the key before it parks. Adapted to the time the key is held:
+         * grows when spinning takes the key or when the key is released soon after the thread has parked,
+         * shrinks when the thread has parked for long. Field not volatile, because it is a hint only,
+         * lost updates do not matter.
+         */
+        private int spinBudget_ = MIN_SPINS;
+
+        public Entry() {
+            this(false);
+        }
+
+        public Entry(boolean fair) {
+            this.fair_ = fair;
+        }
+
+        /**
+         * Method return unique order number of entry, assigning it on first call.
+         */
+        private long getOrder() {
+            final long order = order_;
+            if (order != 0) {
+                return order;
+            }
+            ORDER.compareAndSet(this, 0, orderSequence_.incrementAndGet());
+            return order_;
+        }
+
+        /**
+         * Method return new array of entries, all elements are null.
+         *
+         * @param length Length of array
+         */
+        @SuppressWarnings("unchecked")
+        static <K> Entry<K>[] newArray(int length) {
+            return (Entry<K>[]) new Entry<?>[length];
+        }
+
+        /**
+         * Increment a usage counter.
+         */
+        public Entry<K> acquire() {
+            usageCounter_++;
+            return this;
+        }
+
+        /**
+         * Decrement a usage counter.
+         *
+         * @return this, if counter great then zero. null, if counter equal zero.
+         * This made for optimization of using in {@link Map#compute(Object, BiFunction)} method.
+         */
+        public Entry<K> release() {
+            return --usageCounter_ > 0 ? this : null;
+        }
+
+        /**
+         * Check is key held exclusively or upgradable by transaction.
+         *
+         * @param state Synchronizer state
+         * @param txId  Transaction identifier
+         * @return true, if transaction is owner of the key.
+         */
+        private boolean isOwner(long state, long txId) {
+            return (state & OWNED_MASK) != 0 && ownerId_ == txId;
+        }
+
+        @Override
+        protected boolean tryAcquire(long txId) {
+            if (isUpgradableArg(txId)) {
+                return tryAcquireUpgradable(~txId);
+            }
+            final long state = getState();
+            if (state == 0) {
+                if (fair_ && hasFairPredecessors(txId) || !compareAndSetState(0, EXCLUSIVE_UNIT)) {
+                    return false;
+                }
+                ownerId_ = txId;
+                return true;
+            }
+            if (isOwner(state, txId)) {
+                final long exclusiveCount = exclusiveCount(state);
+                if (exclusiveCount == 0) {
+                    //Promotion of upgradable lock. Shared lock count can be changed concurrently.
+                    return sharedCount(state) == 0
+                            && compareAndSetState(state, (state & ~UPGRADE_PENDING) + EXCLUSIVE_UNIT);
+                }
+                if (exclusiveCount == MAX_COUNT) {
+                    throw new EntityLockerException("Maximum lock count exceeded");
+                }
+                setState(state + EXCLUSIVE_UNIT);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Upgradable lock of transaction, which does not hold the key exclusively or upgradable yet.
+         * Compatible with shared locks.
+         */
+        private boolean tryAcquireUpgradable(long txId) {
+            while (true) {
+                final long state = getState();
+                if ((state & OWNED_MASK) != 0 || fair_ && hasFairPredecessors(txId)) {
+                    return false;
+                }
+                if (compareAndSetState(state, state | UPGRADABLE_HELD)) {
+                    ownerId_ = txId;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Method spins while the key is held by another transaction, expecting the key to be released soon.
+         *
+         * @param txId     Transaction identifier
+         * @param shared   Lock the key in shared mode.
+         * @param timeoutNanos Timeout in nanoseconds, negative - no timeout.
+         * @param deadline     Time when spinning must be stopped, if there is timeout.
+         * @return true, if the key has been locked.
+         */
+        private boolean spinAcquire(long txId, boolean shared, long timeoutNanos, long deadline) {
+            final int budget = spinBudget_;
+            for (int i = 1; i <= budget; i++) {
+                Thread.onSpinWait();
+                if (shared ? tryAcquireShared(txId) >= 0 : tryAcquire(txId)) {
+                    spinBudget_ = Math.min(MAX_SPINS, budget + (budget >> 1) + 1);
+                    return true;
+                }
+                if (timeoutNanos >= 0 && (i & 63) == 0 && deadline - System.nanoTime() <= 0) {
+                    break;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Method adapts spin budget to the time, which thread has been parked after spinning.
+         *
+         * @param parkNanos Time from the end of spinning to the lock of the key.
+         */
+        private void adaptSpins(long parkNanos) {
+            final int budget = spinBudget_;
+            spinBudget_ = parkNanos < SHORT_WAIT_NANOS ? Math.min(MAX_SPINS, (budget << 1) + 1) : Math.max(MIN_SPINS, budget >> 1);
+        }
+
+        @Override
+        protected boolean tryRelease(long txId) {
+            if (isUpgradableArg(txId)) {
+                return tryReleaseUpgradable(~txId);
+            }
+            final long state = getState();
+            if (exclusiveCount(state) == 0 || !isOwner(state, txId)) {
+                throw new IllegalMonitorStateException();
+            }
+            final long nextState = state - EXCLUSIVE_UNIT;
+            final boolean free = exclusiveCount(nextState) == 0;
+            if (!free) {
+                setState(nextState);
+            } else if (upgradableCount_ != 0) {
+                //Owner keeps the key, while it holds upgradable lock.
+                setState(nextState | UPGRADABLE_HELD);
+            } else {
+                ownerId_ = 0;
+                setState(sharedCount(nextState));
+            }
+            return free;
+        }
+
+        /**
+         * Release of upgradable lock. Key stays locked, if owner holds it exclusively.
+         */
+        private boolean tryReleaseUpgradable(long txId) {
+            long state = getState();
+            if (!isOwner(state, txId)) {
+                throw new IllegalMonitorStateException();
+            }
+            if (exclusiveCount(state) != 0) {
+                return false;
+            }
+            ownerId_ = 0;
+            //Shared lock count can be changed concurrently.
+            while (!compareAndSetState(state, sharedCount(state))) {
+                state = getState();
+            }
+            return true;
+        }
+
+        /**
+         * Shared lock of transaction, which does not hold the key yet.
+         * Transaction waits if the key is locked exclusively by another transaction or if another transaction is
+         * queued before. The last prevents exclusive locks from starvation.
+         */
+        @Override
+        protected long tryAcquireShared(long txId) {
+            while (true) {
+                final long state = getState();
+                if (!isOwner(state, txId)) {
+                    //Upgradable lock of another transaction blocks shared locks only while it is being promoted.
+                    if ((state & OWNED_MASK) != 0 && (exclusiveCount(state) != 0 || (state & UPGRADE_PENDING) != 0)) {
+                        return -1;
+                    }
+                    if (fair_ ? hasFairPredecessors(txId) : hasQueuedPredecessors()) {
+                        return -1;
+                    }
+                }
+                if (sharedCount(state) == MAX_SHARED_COUNT) {
+                    throw new EntityLockerException("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(state, state + 1)) {
+                    return 1;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(long txId) {
+            if (txId == SIGNAL_ARG) {
+                return true;
+            }
+            while (true) {
+                final long state = getState();
+                if (sharedCount(state) == 0) {
+                    throw new IllegalMonitorStateException();
+                }
+                final long nextState = state - 1;
+                if (compareAndSetState(state, nextState)) {
+                    if (sharedCount(nextState) != 0) {
+                        return false;
+                    }
+                    if ((nextState & UPGRADE_PENDING) != 0) {
+                        LockSupport.unpark(upgradeWaiter_);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Method marks upgradable lock as being promoted, so new shared locks of other transactions wait.
+         */
+        private void setUpgradePending() {
+            while (true) {
+                final long state = getState();
+                if (compareAndSetState(state, state | UPGRADE_PENDING)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Method clears promotion mark after promotion has failed and wakes up shared locks queued meanwhile.
+         */
+        private void clearUpgradePending() {
+            while (true) {
+                final long state = getState();
+                if ((state & UPGRADE_PENDING) == 0) {
+                    return;
+                }
+                if (compareAndSetState(state, state & ~UPGRADE_PENDING)) {
+                    releaseShared(SIGNAL_ARG);
+                    signalFairWaiters();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Shared lock of transaction, which already holds the key in any mode. It can't be blocked, because
+         * no other transaction can hold the key exclusively.
+         */
+        private void reacquireShared() {
+            while (true) {
+                final long state = getState();
+                if (sharedCount(state) == MAX_SHARED_COUNT) {
+                    throw new EntityLockerException("Maximum lock count exceeded");
+                }
+                if (compareAndSetState(state, state + 1)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Method return the number of exclusive locks of the key.
+         *
+         * @return exclusive lock count
+         */
+        private long getExclusiveCount() {
+            return exclusiveCount(getState());
+        }
+
+        /**
+         * Check is key locked in any mode.
+         *
+         * @return true, if key locked.
+         */
+        public boolean isLocked() {
+            return getState() != 0;
+        }
+
+        /**
+         * Check is key locked exclusively by transaction.
+         *
+         * @param tx Transaction
+         * @return true, if key locked exclusively by transaction.
+         */
+        public boolean isHeldBy(Transaction<K> tx) {
+            return exclusiveCount(getState()) != 0 && ownerId_ == tx.id;
+        }
+
+        /**
+         * Check is key locked upgradable by transaction.
+         *
+         * @param tx Transaction
+         * @return true, if key locked upgradable by transaction.
+         */
+        public boolean isUpgradableHeldBy(Transaction<K> tx) {
+            return upgradableHoldTx_ == tx;
+        }
+
+        /**
+         * Check is key locked in shared mode by transaction.
+         *
+         * @param tx Transaction
+         * @return true, if key locked in shared mode by transaction.
+         */
+        public boolean isHeldSharedBy(Transaction<K> tx) {
+            if (sharedCount(getState()) == 0) {
+                return false;
+            }
+            final SharedHolders<K> sharedHolders = sharedHolders_;
+            return sharedHolders != null && sharedHolders.isHeldBy(tx);
+        }
+
+        /**
+         * Method return state of key for lock table snapshot. Synchronizer state is read once, so counts of key
+         * are consistent.
+         *
+         * @param key     Entity key
+         * @param waiters Transactions waiting for the key
+         * @param txMap   Transactions by identifiers
+         * @return State of key, or null, if key is not locked nor waited.
+         */
+        private LockTableSnapshot.KeyLock<K> toKeyLock(K key, List<LockTableSnapshot.Waiter> waiters,
+                                                        Map<Long, Transaction<K>> txMap) {
+            final long state = getState();
+            if (state == 0 && waiters.isEmpty()) {
+                return null;
+            }
+            final long holdCount = exclusiveCount(state);
+            final Transaction<K> ownerTx = holdCount != 0 ? txMap.get(ownerId_) : null;
+            final Transaction<K> upgradableHoldTx = upgradableHoldTx_;
+            final Map<Long, Long> sharedHoldCounts = new LinkedHashMap<>();
+            final SharedHolders<K> sharedHolders = sharedHolders_;
+            if (sharedCount(state) != 0 && sharedHolders != null) {
+                sharedHolders.forEach((tx, count) -> sharedHoldCounts.merge(tx.threadId, count, Long::sum));
+            }
+            return new LockTableSnapshot.KeyLock<>(key, ownerTx != null ? ownerTx.threadId : -1, holdCount,
+                    upgradableHoldTx != null ? upgradableHoldTx.threadId : -1, sharedHoldCounts, waiters);
+        }
+
+        /**
+         * Method return the transaction witch has lock the key.
+         *
+         * @return Transaction, has locked the key.
+         */
+        public Transaction<K> getHoldTx() {
+            return holdTx_;
+        }
+
+        /**
+         * Method registers transaction which lock the key in shared mode.
+         *
+         * @param tx Transaction
+         */
+        private void holdShared(Transaction<K> tx) {
+            SharedHolders<K> sharedHolders = sharedHolders_;
+            if (sharedHolders == null) {
+                SHARED_HOLDERS.compareAndSet(this, null, new SharedHolders<K>());
+                sharedHolders = sharedHolders_;
+            }
+            sharedHolders.hold(tx);
+        }
+
+        /**
+         * Method unregisters transaction which lock the key in shared mode.
+         *
+         * @param tx Transaction
+         * @return true, if transaction does not hold the key in shared mode anymore.
+         */
+        private boolean unholdShared(Transaction<K> tx) {
+            final SharedHolders<K> sharedHolders = sharedHolders_;
+            return sharedHolders == null || sharedHolders.unhold(tx);
+        }
+
+        /**
+         * Method queues asynchronous lock and grants the key to it, if the key has been released meanwhile.
+         *
+         * @param waiter Asynchronous lock
+         */
+        private void addAsyncWaiter(AsyncWaiters.Waiter<K> waiter) {
+            AsyncWaiters<K> waiters = asyncWaiters_;
+            if (waiters == null) {
+                ASYNC_WAITERS.compareAndSet(this, null, new AsyncWaiters<>());
+                waiters = asyncWaiters_;
+            }
+            waiters.add(waiter, fair_ ? ticketSequence_.incrementAndGet() : 0);
+            signalAsyncWaiters();
+        }
 
-    protected abstract void releaseEntry(K key);
+        private void removeAsyncWaiter(AsyncWaiters.Waiter<K> waiter) {
+            asyncWaiters_.remove(waiter);
+            if (fair_) {
+                //Cancelled lock could be the first waiter of fair entry.
+                signalFairWaiters();
+                signalAsyncWaiters();
+            }
+        }
 
-    protected abstract int getEntryCount();
+        /**
+         * Method grants the key to the first asynchronous lock, if the key is free.
+         * Called after the key has been released.
+         */
+        private void signalAsyncWaiters() {
+            final AsyncWaiters<K> waiters = asyncWaiters_;
+            if (waiters != null) {
+                waiters.signal(this);
+            }
+        }
 
-    /**
-     * Key entry. Wraps ReentrantLock and
-     */
-    protected static final class Entry<K> {
         /**
-         * Counts a number of taking Entry-instance from key-map.
-         * Field not volatile because changed only in {@link Map#compute(Object, BiFunction)} synchronized method.
+         * Method locks the free key exclusively on behalf of asynchronous lock, regardless of queued threads.
+         *
+         * @param txId Transaction identifier of asynchronous lock
+         * @return false, if the key is held.
          */
-        private long usageCounter_ = 0;
+        boolean tryAcquireFree(long txId) {
+            if (!compareAndSetState(0, EXCLUSIVE_UNIT)) {
+                return false;
+            }
+            ownerId_ = txId;
+            return true;
+        }
+
         /**
-         * Only one transaction can lock {@link Entry}.
-         * One transaction can lock key multiple times.
+         * Check is thread queued for fair entry before the ticket of asynchronous lock.
          */
-        private Transaction<K> holdTx_ = null;
+        boolean hasFairThreadQueuedBefore(long fairTicket) {
+            if (!fair_) {
+                return false;
+            }
+            final Queue<Transaction<K>> fairWaiters = fairWaiters_;
+            final Transaction<K> head = fairWaiters != null ? fairWaiters.peek() : null;
+            return head != null && head.fairTicket_ < fairTicket;
+        }
+
         /**
-         * Counts the number of locks.
+         * Method return the queue of delegated methods, creating it on first call.
          */
-        private long holdCounter_ = 0;
+        private CombiningQueue getCombiningQueue() {
+            final CombiningQueue requests = combiningQueue_;
+            if (requests != null) {
+                return requests;
+            }
+            COMBINING_QUEUE.compareAndSet(this, null, new CombiningQueue());
+            return combiningQueue_;
+        }
+
         /**
-         * ReentrantLock object
+         * Method executes methods delegated by other threads. Called by the holder of exclusive lock before release.
          */
-        public final ReentrantLock lock = new ReentrantLock();
+        private void runCombiningRequests() {
+            final CombiningQueue requests = combiningQueue_;
+            if (requests != null) {
+                requests.runBatch();
+            }
+        }
 
         /**
-         * Increment a usage counter.
+         * Check is another thread or asynchronous lock queued for fair entry before transaction.
+         * Transaction, which is not queued, is treated as queued after all waiters.
+         *
+         * @param txId Transaction identifier
+         * @return true, if transaction must wait for its turn.
          */
-        public Entry<K> acquire() {
-            usageCounter_++;
-            return this;
+        private boolean hasFairPredecessors(long txId) {
+            final Queue<Transaction<K>> fairWaiters = fairWaiters_;
+            final Transaction<K> head = fairWaiters != null ? fairWaiters.peek() : null;
+            if (head != null && head.id != txId) {
+                return true;
+            }
+            final AsyncWaiters<K> asyncWaiters = asyncWaiters_;
+            return asyncWaiters != null
+                    && asyncWaiters.isFirstQueuedBefore(head != null ? head.fairTicket_ : Long.MAX_VALUE);
         }
 
         /**
-         * Decrement a usage counter.
+         * Method queues thread waiting for fair entry. Thread stays in the queue until it locks the key or stops waiting.
          *
-         * @return this, if counter great then zero. null, if counter equal zero.
-         * This made for optimization of using in {@link Map#compute(Object, BiFunction)} method.
+         * @param tx Transaction of waiting thread
          */
-        public Entry<K> release() {
-            return --usageCounter_ > 0 ? this : null;
+        private void addFairWaiter(Transaction<K> tx) {
+            Queue<Transaction<K>> waiters = fairWaiters_;
+            if (waiters == null) {
+                FAIR_WAITERS.compareAndSet(this, null, new ConcurrentLinkedQueue<>());
+                waiters = fairWaiters_;
+            }
+            tx.fairTicket_ = ticketSequence_.incrementAndGet();
+            waiters.offer(tx);
         }
 
         /**
-         * Method set reference to transaction which lock the key.
+         * Method removes thread from the queue of fair entry.
          *
-         * @param tx Transaction
+         * @param tx     Transaction of waiting thread
+         * @param signal Wake up the next waiter, because the thread has not locked the key or has locked it
+         *               in shared mode, which the next waiter can share.
          */
-        public synchronized void hold(Transaction<K> tx) {
-            if (holdTx_ != null && holdTx_ != tx) {
-                throw new EntityLockerException("Entry has locked by thread" + holdTx_.threadId);
+        private void removeFairWaiter(Transaction<K> tx, boolean signal) {
+            fairWaiters_.remove(tx);
+            if (signal) {
+                signalFairWaiters();
+                signalAsyncWaiters();
             }
-            holdTx_ = tx;
-            ++holdCounter_;
         }
 
         /**
-         * Method unset reference to transaction which lock the key.
+         * Method unparks the first thread queued for fair entry, which takes the key itself, if its turn has come.
          */
-        public synchronized boolean unhold() {
-            long n = --holdCounter_;
-            if (n == 0) {
-                holdTx_ = null;
+        private void signalFairWaiters() {
+            final Queue<Transaction<K>> waiters = fairWaiters_;
+            final Transaction<K> head = waiters != null ? waiters.peek() : null;
+            if (head != null) {
+                LockSupport.unpark(head.thread_);
             }
-            return n == 0;
         }
 
         /**
-         * Method return the transaction witch has lock the key.
+         * Method signals queued threads of fair entry, asynchronous locks and delegating threads after the key
+         * has been released.
+         */
+        private void signalWaiters() {
+            signalFairWaiters();
+            signalAsyncWaiters();
+            final CombiningQueue requests = combiningQueue_;
+            if (requests != null) {
+                requests.signal();
+            }
+        }
+
+        /**
+         * Method return the transactions witch prevent waiting transaction from locking the key.
+         * These are edges of wait-for graph used by deadlock detection.
          *
-         * @return Transaction, has locked the key.
+         * @param waitingTx  Transaction, which is waiting for the key.
+         * @param shared     Is waiting transaction locking the key in shared mode.
+         * @param upgradable Is waiting transaction locking the key upgradable.
+         * @return Transactions, have locked the key in conflicting mode. Weakly consistent, as wait-for graph is
+         * rechecked while transaction waits.
          */
-        public synchronized Transaction<K> getHoldTx() {
-            return holdTx_;
+        public List<Transaction<K>> getBlockingTx(Transaction<K> waitingTx, boolean shared, boolean upgradable) {
+            final Transaction<K> holdTx = holdTx_;
+            final boolean holdTxBlocking = holdTx != null && holdTx != waitingTx;
+            final Transaction<K> upgradableHoldTx = upgradableHoldTx_;
+            final boolean upgradableHoldTxBlocking = upgradableHoldTx != null && upgradableHoldTx != waitingTx
+                    && upgradableHoldTx != holdTx && (!shared || (getState() & UPGRADE_PENDING) != 0);
+            final SharedHolders<K> sharedHolders = sharedHolders_;
+            final boolean sharedHoldTxBlocking = !shared && !upgradable
+                    && sharedHolders != null && sharedCount(getState()) != 0;
+            if (!upgradableHoldTxBlocking && !sharedHoldTxBlocking) {
+                return holdTxBlocking ? Collections.singletonList(holdTx) : Collections.emptyList();
+            }
+            final List<Transaction<K>> blockingTx = new ArrayList<>();
+            if (holdTxBlocking) {
+                blockingTx.add(holdTx);
+            }
+            if (upgradableHoldTxBlocking) {
+                blockingTx.add(upgradableHoldTx);
+            }
+            if (sharedHoldTxBlocking) {
+                sharedHolders.forEach((sharedHoldTx, count) -> {
+                    if (sharedHoldTx != waitingTx && sharedHoldTx != holdTx && sharedHoldTx != upgradableHoldTx) {
+                        blockingTx.add(sharedHoldTx);
+                    }
+                });
+            }
+            return blockingTx;
         }
     }
 
@@ -232,37 +2044,319 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
      */
     protected static final class Transaction<K> {
         /**
-         * Map store keys and how many times key was locked by transaction.
+         * How often waiting transaction rechecks wait-for graph for cycles.
+         * Cycle can be closed while no one of its transactions sees it, e.g. when key has been locked, but holding
+         * transaction has not been registered in key entry yet.
+         */
+        static final long DEADLOCK_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        /**
+         * Result of lock: the key has been locked without waiting.
+         */
+        static final int LOCKED = 0;
+        /**
+         * Result of lock: the key has been locked after waiting for other transactions.
+         */
+        static final int LOCKED_AFTER_WAIT = 1;
+        /**
+         * Result of lock: the key has not been locked during timeout. Timeout is expected result of tryLock,
+         * so it is returned, not thrown.
+         */
+        static final int TIMED_OUT = 2;
+        /**
+         * Source of transaction identifiers. Identifiers start from one, zero means "no owner" in {@link Entry}.
+         * 64-bit sequence does not wrap, so identifier of transaction is never reused.
+         */
+        private static final AtomicLong idSequence_ = new AtomicLong();
+        /**
+         * Transaction identifier. Stored in {@link Entry} as owner of exclusive lock.
          */
-        private final Set<Entry<K>> lockedEntries_ = new HashSet<>();
+        public final long id;
         /**
-         * Thread identifier
+         * Thread of transaction, null for transaction of asynchronous lock handle.
+         */
+        private final Thread thread_;
+        /**
+         * Thread identifier, -1 for transaction of asynchronous lock handle.
          */
         public final long threadId;
+        /**
+         * Transaction of thread, which owns asynchronous lock handle of this transaction, or null.
+         * Keys held by the handle are treated as held by the thread in wait-for graph, so the thread locking the key
+         * of its own lease is reported as deadlock instead of waiting until the lease expires.
+         */
+        private final Transaction<K> parent_;
         /**
          * The key that the thread is waiting to lock. Need for deadlock detection.
          */
         public volatile Entry<K> waitingEntry = null;
+        /**
+         * Is {@link #waitingEntry} waited for shared lock. Need for deadlock detection.
+         */
+        public volatile boolean waitingShared = false;
+        /**
+         * Is {@link #waitingEntry} waited for upgradable lock. Need for deadlock detection.
+         */
+        public volatile boolean waitingUpgradable = false;
+        /**
+         * The lock other than key, which the thread is waiting for. Need for deadlock detection.
+         */
+        public volatile WaitTarget<K> waitingTarget = null;
+        /**
+         * JFR event of the last wait for key, begun after an optimistic attempt to lock has failed, if the event
+         * is enabled. Committed by {@link EntityLockerAbst#lockEntry}. Field not volatile because used only by
+         * the thread of transaction.
+         */
+        private LockEvents.EntityLockWait waitEvent_ = null;
+        /**
+         * Place of thread in the queue of fair entry, which it is waiting for. Written before the thread is queued.
+         */
+        private long fairTicket_ = 0;
+        /**
+         * Number of keys locked by transaction in any mode.
+         * Field not volatile because used only by the thread of transaction, or by the thread using asynchronous
+         * lock handle, which owns the transaction.
+         */
+        private int holdingEntryCount_ = 0;
+        /**
+         * Number of locks other than keys held by transaction, e.g. global lock and namespace locks.
+         * Changed only by the thread of transaction.
+         */
+        public int holdingOtherLockCount = 0;
+        /**
+         * Number of key entries taken by transaction from key map and not returned yet.
+         * Changed only by the thread of transaction. Used by {@link GlobalEntityLockerImpl}.
+         */
+        public volatile int usedEntryCount = 0;
+        /**
+         * Is transaction waiting to set global lock. Used by {@link GlobalEntityLockerImpl} for lock table snapshot.
+         */
+        public volatile boolean waitingGlobalLock = false;
+        /**
+         * Is transaction waiting to take key entries, while global lock is set by another thread.
+         * Used by {@link GlobalEntityLockerImpl} for lock table snapshot.
+         */
+        public volatile boolean waitingGlobalUnlock = false;
 
-        public Transaction(long threadId) {
-            this.threadId = threadId;
+        public Transaction(Thread thread) {
+            this.id = idSequence_.incrementAndGet();
+            this.thread_ = thread;
+            this.threadId = thread.getId();
+            this.parent_ = null;
+        }
+
+        /**
+         * Transaction of asynchronous lock handle, which does not belong to any thread.
+         *
+         * @param parent Transaction of thread, which owns the handle, or null.
+         */
+        public Transaction(Transaction<K> parent) {
+            this.id = idSequence_.incrementAndGet();
+            this.thread_ = null;
+            this.threadId = -1;
+            this.parent_ = parent;
+        }
+
+        /**
+         * Check is thread of transaction has terminated without holding any key.
+         *
+         * @return true, if transaction will be never used.
+         */
+        public boolean isAbandoned() {
+            //Transaction of asynchronous lock handle is removed by the handle.
+            return thread_ != null && !thread_.isAlive() && holdingEntryCount_ == 0;
         }
 
         /**
          * Method locks the key.
          *
+         * @param entry  Key entry.
+         * @param shared Lock the key in shared mode.
+         * @return {@link #LOCKED}, {@link #LOCKED_AFTER_WAIT} or {@link #TIMED_OUT}.
+         */
+        public int lock(Entry<K> entry, boolean shared, long timeoutNanos) {
+            if (shared) {
+                return lockShared(entry, timeoutNanos);
+            }
+            int result = LOCKED;
+            final boolean reentrant = entry.isHeldBy(this);
+            if (!reentrant) {
+                if (entry.isHeldSharedBy(this)) {
+                    //Transaction would wait for itself forever.
+                    throw new DeadlockException(String.format("Thread %s try to lock exclusively key which locked by it in shared mode",
+                            threadId));
+                }
+                if (!entry.tryAcquire(id)) {
+                    final boolean locked = entry.isUpgradableHeldBy(this) ? promote(entry, timeoutNanos)
+                            : doLock(entry, false, false, timeoutNanos);
+                    if (!locked) {
+                        return TIMED_OUT;
+                    }
+                    result = LOCKED_AFTER_WAIT;
+                }
+                entry.holdTx_ = this;
+                if (!entry.isUpgradableHeldBy(this)) {
+                    holdingEntryCount_++;
+                }
+            } else {
+                entry.tryAcquire(id);
+            }
+            return result;
+        }
+
+        private int lockShared(Entry<K> entry, long timeoutNanos) {
+            int result = LOCKED;
+            final boolean holding = entry.isHeldBy(this) || entry.isUpgradableHeldBy(this);
+            final boolean reentrant = entry.isHeldSharedBy(this);
+            if (holding || reentrant) {
+                entry.reacquireShared();
+            } else if (entry.tryAcquireShared(id) < 0) {
+                if (!doLock(entry, true, false, timeoutNanos)) {
+                    return TIMED_OUT;
+                }
+                result = LOCKED_AFTER_WAIT;
+            }
+            entry.holdShared(this);
+            if (!holding && !reentrant) {
+                holdingEntryCount_++;
+            }
+            return result;
+        }
+
+        /**
+         * Method locks the key upgradable.
+         *
          * @param entry Key entry.
+         * @return {@link #LOCKED}, {@link #LOCKED_AFTER_WAIT} or {@link #TIMED_OUT}.
+         */
+        public int lockUpgradable(Entry<K> entry, long timeoutNanos) {
+            if (entry.isUpgradableHeldBy(this)) {
+                if (entry.upgradableCount_ == Entry.MAX_COUNT) {
+                    throw new EntityLockerException("Maximum lock count exceeded");
+                }
+                entry.upgradableCount_++;
+                return LOCKED;
+            }
+            int result = LOCKED;
+            //Exclusive owner holds the key already, upgradable lock is only counted.
+            if (!entry.isHeldBy(this)) {
+                if (entry.isHeldSharedBy(this)) {
+                    //Transaction would wait for itself forever on promotion.
+                    throw new DeadlockException(String.format("Thread %s try to lock upgradable key which locked by it in shared mode",
+                            threadId));
+                }
+                if (!entry.tryAcquire(Entry.upgradableArg(id))) {
+                    if (!doLock(entry, false, true, timeoutNanos)) {
+                        return TIMED_OUT;
+                    }
+                    result = LOCKED_AFTER_WAIT;
+                }
+                holdingEntryCount_++;
+            }
+            entry.upgradableCount_ = 1;
+            entry.upgradableHoldTx_ = this;
+            return result;
+        }
+
+        /**
+         * Method executes the method under exclusive lock of the key, which is not held by transaction.
+         * If the key is locked by another transaction, the method is delegated to it, and transaction waits until
+         * the method has been executed, or until the key has been released, then it locks the key itself
+         * and executes the method and the methods delegated to it.
+         *
+         * @param entry  Key entry
+         * @param method Protected method
+         * @return The result of method
          */
-        public void lock(Entry<K> entry, long timeout, TimeUnit unit) {
+        public <R> R combine(Entry<K> entry, Supplier<R> method) {
+            if (entry.isHeldSharedBy(this)) {
+                throw new DeadlockException(String.format("Thread %s try to lock exclusively key which locked by it in shared mode",
+                        threadId));
+            }
+            if (tryLockNow(entry)) {
+                return combineHeld(entry, method);
+            }
+            final CombiningQueue requests = entry.getCombiningQueue();
+            final CombiningQueue.Request<R> request = requests.add(method, thread_);
+            this.waitingShared = false;
+            this.waitingUpgradable = false;
             this.waitingEntry = entry;
+            boolean interrupted = false;
             try {
-                this.doLock(entry, timeout, unit);
-                synchronized (lockedEntries_) {
-                    entry.hold(this);
-                    lockedEntries_.add(entry);
+                boolean cycleChecked = false;
+                long recheckTime = 0;
+                while (!request.isDone()) {
+                    //Key can be taken only while the request is waiting, the holder executes it under the lock.
+                    if (request.isWaiting() && tryLockNow(entry)) {
+                        this.waitingEntry = null;
+                        if (request.cancel()) {
+                            requests.remove(request);
+                            return combineHeld(entry, method);
+                        }
+                        //Request has been executed by the previous holder.
+                        unlock(entry);
+                        break;
+                    }
+                    if (request.isWaiting()) {
+                        final long now = System.nanoTime();
+                        if (!cycleChecked || now - recheckTime >= 0) {
+                            final List<Transaction<K>> cycle = findWaitCycle(this, entry, false, false, new HashSet<>());
+                            //As in doLock, the first check breaks the cycle closed by transaction, rechecks choose one victim.
+                            if (cycle != null && (!cycleChecked || isVictim(cycle)) && request.cancel()) {
+                                requests.remove(request);
+                                throw newDeadlockException(cycle);
+                            }
+                            cycleChecked = true;
+                            recheckTime = now + DEADLOCK_RECHECK_NANOS;
+                        }
+                    }
+                    LockSupport.parkNanos(entry, DEADLOCK_RECHECK_NANOS);
+                    if (Thread.interrupted()) {
+                        if (request.cancel()) {
+                            requests.remove(request);
+                            throw new EntityLockerException(new InterruptedException());
+                        }
+                        //Request is being executed, it is waited for uninterruptibly.
+                        interrupted = true;
+                    }
                 }
             } finally {
                 this.waitingEntry = null;
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return request.getResult();
+        }
+
+        /**
+         * Method locks the key, if it is free, without waiting.
+         */
+        private boolean tryLockNow(Entry<K> entry) {
+            if (!entry.tryAcquire(id)) {
+                return false;
+            }
+            entry.holdTx_ = this;
+            holdingEntryCount_++;
+            return true;
+        }
+
+        /**
+         * Method executes the method of holder, then methods delegated by other threads, and unlocks the key.
+         * Delegated methods are executed under this transaction, so they are executed only while it holds nothing
+         * but the key, otherwise locks of the transaction would be granted to them as reentrant ones. Delegating
+         * threads are woken up after unlock and execute their methods themselves then.
+         */
+        private <R> R combineHeld(Entry<K> entry, Supplier<R> method) {
+            try {
+                return method.get();
+            } finally {
+                try {
+                    if (holdingEntryCount_ == 1 && holdingOtherLockCount == 0) {
+                        entry.runCombiningRequests();
+                    }
+                } finally {
+                    unlock(entry);
+                }
             }
         }
 
@@ -272,41 +2366,275 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
          * @param entry Key entry
          */
         public void unlock(Entry<K> entry) {
-            synchronized (lockedEntries_) {
-                if (entry.unhold()) {
-                    lockedEntries_.remove(entry);
+            final boolean released = entry.getExclusiveCount() == 1;
+            if (released) {
+                entry.holdTx_ = null;
+            }
+            entry.release(id);
+            if (released) {
+                entry.signalWaiters();
+                if (!entry.isHeldSharedBy(this) && !entry.isUpgradableHeldBy(this)) {
+                    holdingEntryCount_--;
                 }
             }
-            entry.lock.unlock();
         }
 
         /**
-         * Blocking method with waiting timeout.
+         * Method unlocks the key locked upgradable.
          *
-         * @param entry   Locking entry
-         * @param timeout the time to wait for the lock
-         * @param unit    the time unit of the timeout argument
+         * @param entry Key entry
+         */
+        public void unlockUpgradable(Entry<K> entry) {
+            if (--entry.upgradableCount_ > 0) {
+                return;
+            }
+            entry.upgradableHoldTx_ = null;
+            if (entry.release(Entry.upgradableArg(id))) {
+                entry.signalWaiters();
+            }
+            if (!entry.isHeldBy(this) && !entry.isHeldSharedBy(this)) {
+                holdingEntryCount_--;
+            }
+        }
+
+        /**
+         * Method unlocks the key locked in shared mode.
+         *
+         * @param entry Key entry
+         */
+        public void unlockShared(Entry<K> entry) {
+            final boolean released = entry.unholdShared(this);
+            if (entry.releaseShared(id)) {
+                entry.signalWaiters();
+            }
+            if (released && !entry.isHeldBy(this) && !entry.isUpgradableHeldBy(this)) {
+                holdingEntryCount_--;
+            }
+        }
+
+        /**
+         * Blocking method with waiting timeout. Called after an optimistic attempt to lock has failed.
+         *
+         * @param entry      Locking entry
+         * @param shared     Is entry locking in shared mode
+         * @param upgradable Is entry locking upgradable
+         * @param timeoutNanos Timeout in nanoseconds, {@link EntityLockerAbst#NO_TIMEOUT} - no timeout.
+         * @return true, if the entry has been locked, false - if timeout has elapsed.
          */
-        private void doLock(Entry<K> entry, long timeout, TimeUnit unit) {
-            //Are sticking an optimistic strategy of locking
+        private boolean doLock(Entry<K> entry, boolean shared, boolean upgradable, long timeoutNanos) {
+            this.waitEvent_ = LockEvents.beginEntityLockWait();
+            this.waitingShared = shared;
+            this.waitingUpgradable = upgradable;
+            this.waitingEntry = entry;
+            final long arg = upgradable ? Entry.upgradableArg(id) : id;
             try {
-                if (!entry.lock.tryLock()) {
-                    //Trying to detect deadlock if lock is not success.
-                    detectDeadlock(this, entry);
-                    if (timeout == 0) {
-                        entry.lock.lock();
-                    } else if (!entry.lock.tryLock(timeout, unit)) {
-                        throw new TimeoutException();
+                final long deadline = System.nanoTime() + timeoutNanos;
+                //Critical sections are usually short, so the key is likely to be released before parked thread
+                //could be woken up. Deadlock is detected after spinning, spinning is bounded.
+                if (Entry.MAX_SPINS > 0 && entry.spinAcquire(arg, shared, timeoutNanos, deadline)) {
+                    return true;
+                }
+                //Transaction which is not going to wait can't close wait cycle, so short tryLock, which has timed out
+                //while spinning, skips deadlock detection.
+                if (timeoutNanos >= 0 && deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                //Trying to detect deadlock if lock is not success.
+                final List<Transaction<K>> cycle = findWaitCycle(this, entry, shared, upgradable, new HashSet<>());
+                if (cycle != null) {
+                    throw newDeadlockException(cycle);
+                }
+                final long parkStartNanos = System.nanoTime();
+                if (entry.fair_) {
+                    if (!waitFair(entry, shared, upgradable, arg, timeoutNanos, deadline)) {
+                        return false;
+                    }
+                    if (Entry.MAX_SPINS > 0) {
+                        entry.adaptSpins(System.nanoTime() - parkStartNanos);
+                    }
+                    return true;
+                }
+                while (true) {
+                    long waitNanos = DEADLOCK_RECHECK_NANOS;
+                    if (timeoutNanos >= 0) {
+                        final long remainingNanos = deadline - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            return false;
+                        }
+                        waitNanos = Math.min(waitNanos, remainingNanos);
+                    }
+                    if (shared ? entry.tryAcquireSharedNanos(id, waitNanos) : entry.tryAcquireNanos(arg, waitNanos)) {
+                        if (Entry.MAX_SPINS > 0) {
+                            entry.adaptSpins(System.nanoTime() - parkStartNanos);
+                        }
+                        return true;
                     }
+                    recheckDeadlock(entry, shared, upgradable);
                 }
             } catch (InterruptedException e) {
                 throw new EntityLockerException(e);
+            } finally {
+                this.waitingEntry = null;
+            }
+        }
+
+        /**
+         * Method waits for fair entry in the queue of the entry. Thread is unparked by the thread releasing the key,
+         * when it is the first in the queue. Wait-for graph is rechecked every {@link #DEADLOCK_RECHECK_NANOS}
+         * without leaving the queue, so the thread keeps its place.
+         *
+         * @param timeoutNanos Timeout in nanoseconds, {@link EntityLockerAbst#NO_TIMEOUT} - no timeout.
+         * @param deadline     Time when waiting must be stopped, if there is timeout.
+         * @return true, if the entry has been locked, false - if timeout has elapsed.
+         */
+        private boolean waitFair(Entry<K> entry, boolean shared, boolean upgradable, long arg, long timeoutNanos,
+                                 long deadline) {
+            entry.addFairWaiter(this);
+            boolean locked = false;
+            try {
+                long recheckTime = System.nanoTime() + DEADLOCK_RECHECK_NANOS;
+                while (!(shared ? entry.tryAcquireShared(id) >= 0 : entry.tryAcquire(arg))) {
+                    final long now = System.nanoTime();
+                    long waitNanos = recheckTime - now;
+                    if (waitNanos <= 0) {
+                        recheckDeadlock(entry, shared, upgradable);
+                        recheckTime = now + DEADLOCK_RECHECK_NANOS;
+                        waitNanos = DEADLOCK_RECHECK_NANOS;
+                    }
+                    if (timeoutNanos >= 0) {
+                        final long remainingNanos = deadline - now;
+                        if (remainingNanos <= 0) {
+                            return false;
+                        }
+                        waitNanos = Math.min(waitNanos, remainingNanos);
+                    }
+                    LockSupport.parkNanos(entry, waitNanos);
+                    if (Thread.interrupted()) {
+                        throw new EntityLockerException(new InterruptedException());
+                    }
+                }
+                locked = true;
+                return true;
+            } finally {
+                entry.removeFairWaiter(this, !locked || shared);
+            }
+        }
+
+        /**
+         * Blocking promotion of upgradable lock to exclusive. Called after an optimistic attempt has failed.
+         * Promoting transaction is not queued by synchronizer, because threads queued before it wait for its
+         * upgradable lock. It marks the key as being promoted, so new shared locks wait, and parks until
+         * the last shared lock is released.
+         *
+         * @param entry   Locking entry
+         * @param timeoutNanos Timeout in nanoseconds, {@link EntityLockerAbst#NO_TIMEOUT} - no timeout.
+         * @return true, if the lock has been promoted, false - if timeout has elapsed.
+         */
+        private boolean promote(Entry<K> entry, long timeoutNanos) {
+            this.waitEvent_ = LockEvents.beginEntityLockWait();
+            this.waitingShared = false;
+            this.waitingUpgradable = false;
+            this.waitingEntry = entry;
+            boolean promoted = false;
+            entry.setUpgradePending();
+            try {
+                final long deadline = System.nanoTime() + timeoutNanos;
+                if (Entry.MAX_SPINS > 0 && entry.spinAcquire(id, false, timeoutNanos, deadline)) {
+                    promoted = true;
+                    return true;
+                }
+                if (timeoutNanos >= 0 && deadline - System.nanoTime() <= 0) {
+                    return false;
+                }
+                final List<Transaction<K>> cycle = findWaitCycle(this, entry, false, false, new HashSet<>());
+                if (cycle != null) {
+                    throw newDeadlockException(cycle);
+                }
+                entry.upgradeWaiter_ = thread_;
+                long recheckTime = System.nanoTime() + DEADLOCK_RECHECK_NANOS;
+                while (!entry.tryAcquire(id)) {
+                    final long now = System.nanoTime();
+                    long waitNanos = recheckTime - now;
+                    if (waitNanos <= 0) {
+                        recheckDeadlock(entry, false, false);
+                        recheckTime = now + DEADLOCK_RECHECK_NANOS;
+                        waitNanos = DEADLOCK_RECHECK_NANOS;
+                    }
+                    if (timeoutNanos >= 0) {
+                        final long remainingNanos = deadline - now;
+                        if (remainingNanos <= 0) {
+                            return false;
+                        }
+                        waitNanos = Math.min(waitNanos, remainingNanos);
+                    }
+                    LockSupport.parkNanos(entry, waitNanos);
+                    if (Thread.interrupted()) {
+                        throw new EntityLockerException(new InterruptedException());
+                    }
+                }
+                promoted = true;
+                return true;
+            } finally {
+                entry.upgradeWaiter_ = null;
+                if (!promoted) {
+                    entry.clearUpgradePending();
+                }
+                this.waitingEntry = null;
+            }
+        }
+
+        /**
+         * Method repeats deadlock detection for transaction, which is already waiting for key entry.
+         * Every transaction of the cycle can find it here, so only one of them, with the greatest thread identifier,
+         * is chosen as a victim and throws exception. Others keep waiting.
+         *
+         * @param entry      Key entry which is waited.
+         * @param shared     Is key entry locking in shared mode.
+         * @param upgradable Is key entry locking upgradable.
+         */
+        private void recheckDeadlock(Entry<K> entry, boolean shared, boolean upgradable) {
+            final List<Transaction<K>> cycle = findWaitCycle(this, entry, shared, upgradable, new HashSet<>());
+            if (cycle != null && isVictim(cycle)) {
+                throw newDeadlockException(cycle);
+            }
+        }
+
+        /**
+         * Method detects deadlock of transaction waiting for {@link #waitingTarget}. Called before waiting and then
+         * every {@link #DEADLOCK_RECHECK_NANOS} while transaction waits, the same way as for key entries.
+         *
+         * @param recheck Transaction is already waiting, so exception is thrown only by the victim of the cycle.
+         * @throws DeadlockException if transaction closes a cycle of wait-for graph.
+         */
+        public void checkDeadlock(boolean recheck) {
+            final WaitTarget<K> target = waitingTarget;
+            if (target == null) {
+                return;
+            }
+            final List<Transaction<K>> cycle = findWaitCycle(this, target.getBlockingTx(this), new HashSet<>());
+            if (cycle != null && (!recheck || isVictim(cycle))) {
+                throw newDeadlockException(cycle);
+            }
+        }
+
+        /**
+         * Check is transaction chosen to break the cycle found by its recheck.
+         *
+         * @param cycle Transactions of the cycle
+         * @return true, if transaction has the greatest thread identifier in the cycle.
+         */
+        private boolean isVictim(List<Transaction<K>> cycle) {
+            for (Transaction<K> cycleTx : cycle) {
+                if (cycleTx.threadId > threadId) {
+                    return false;
+                }
             }
+            return true;
         }
 
         /**
-         * Method detect possible deadlock of two threads.
-         * Deadlock it is:<br>
+         * Method search cycle in wait-for graph, which is closed by this transaction.
+         * Deadlock of two threads it is:<br>
          * T1: K1 -> K2(wait)<br>
          * T2: K2 -> K1(deadlock)<br>
          * Transaction T1 lock key K1.<br>
@@ -314,16 +2642,70 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
          * Transaction T1 try lock key K2 and enter to wait.<br>
          * If transaction T2 try lock key K1, it will enter to wait also.<br>
          * This state of two threads named deadlock.
+         * <p>
+         * Deadlock of N threads is detected the same way: T1 waits for T2, T2 waits for T3, ..., TN waits for T1.
+         * The graph is walked from the key entry which transaction is going to wait for, through transactions holding
+         * the entry ({@link Entry#getBlockingTx(Transaction, boolean, boolean)}) and entries they are waiting for
+         * ({@link #waitingEntry}). Each transaction is visited once, so for exclusive locks the time is proportional
+         * to the length of the chain. Shared locks make the chain branch: exclusive lock waits for all transactions
+         * holding the key in shared mode.
+         *
+         * @param waitingTx  Transaction, which will wait for key entry.
+         * @param entry      Key entry which will locked.
+         * @param shared     Is key entry locking in shared mode.
+         * @param upgradable Is key entry locking upgradable.
+         * @param visited    Transactions visited before.
+         * @return Transactions of the cycle, beginning from the last one, or null if there is no cycle.
+         */
+        private List<Transaction<K>> findWaitCycle(Transaction<K> waitingTx, Entry<K> entry, boolean shared,
+                                                   boolean upgradable, Set<Transaction<K>> visited) {
+            return findWaitCycle(waitingTx, entry.getBlockingTx(waitingTx, shared, upgradable), visited);
+        }
+
+        /**
+         * Method search cycle in wait-for graph, which is closed by this transaction, through transactions blocking
+         * waiting transaction.
          *
-         * @param tx    Transaction, which will try to lock key entry.
-         * @param entry Key entry which will locked.
+         * @param waitingTx  Transaction, which will wait.
+         * @param blockingTx Transactions blocking waiting transaction.
+         * @param visited    Transactions visited before.
+         * @return Transactions of the cycle, beginning from the last one, or null if there is no cycle.
          */
-        private void detectDeadlock(Transaction<K> tx, Entry<K> entry) {
-            final Transaction<K> holdTx = entry.getHoldTx();
-            if (holdTx != null && holdTx != tx && holdTx.isHoldingEntry(entry) && tx.isHoldingEntry(holdTx.waitingEntry)) {
-                throw new DeadlockException(String.format("Thread %s try to lock key which locked by thread %s",
-                        tx.threadId, holdTx.threadId));
+        private List<Transaction<K>> findWaitCycle(Transaction<K> waitingTx, List<Transaction<K>> blockingTx,
+                                                   Set<Transaction<K>> visited) {
+            for (Transaction<K> blockTx : blockingTx) {
+                //Keys held by lease lock handle are held by the thread, which owns the handle.
+                final Transaction<K> holdTx = blockTx.parent_ != null ? blockTx.parent_ : blockTx;
+                List<Transaction<K>> cycle = null;
+                if (holdTx == this) {
+                    cycle = new ArrayList<>();
+                } else if (visited.add(holdTx)) {
+                    final boolean holdTxWaitingShared = holdTx.waitingShared;
+                    final boolean holdTxWaitingUpgradable = holdTx.waitingUpgradable;
+                    final Entry<K> holdTxWaitingEntry = holdTx.waitingEntry;
+                    final WaitTarget<K> holdTxWaitingTarget = holdTx.waitingTarget;
+                    if (holdTxWaitingEntry != null) {
+                        cycle = findWaitCycle(holdTx, holdTxWaitingEntry, holdTxWaitingShared, holdTxWaitingUpgradable, visited);
+                    } else if (holdTxWaitingTarget != null) {
+                        cycle = findWaitCycle(holdTx, holdTxWaitingTarget.getBlockingTx(holdTx), visited);
+                    }
+                }
+                if (cycle != null) {
+                    cycle.add(waitingTx);
+                    return cycle;
+                }
+            }
+            return null;
+        }
+
+        private DeadlockException newDeadlockException(List<Transaction<K>> cycle) {
+            final StringBuilder threads = new StringBuilder();
+            for (int i = cycle.size() - 1; i >= 0; i--) {
+                threads.append(cycle.get(i).threadId).append(" -> ");
             }
+            threads.append(threadId);
+            return new DeadlockException(String.format("Thread %s try to lock key which closes wait cycle of threads %s",
+                    threadId, threads));
         }
 
         /**
@@ -333,23 +2715,36 @@ abstract class EntityLockerAbst<K> implements EntityLocker<K> {
          * @return true, if key was locked.
          */
         public boolean isHoldingEntry(Entry<K> entry) {
-            if (entry == null) {
-                return false;
-            }
-            synchronized (lockedEntries_) {
-                return lockedEntries_.contains(entry);
-            }
+            return entry != null && entry.isHeldBy(this);
+        }
+
+        /**
+         * Method check is key was locked by transaction/tread in shared mode.
+         *
+         * @param entry Key entry.
+         * @return true, if key was locked in shared mode.
+         */
+        public boolean isHoldingSharedEntry(Entry<K> entry) {
+            return entry != null && entry.isHeldSharedBy(this);
+        }
+
+        /**
+         * Method check is key was locked by transaction/tread upgradable.
+         *
+         * @param entry Key entry.
+         * @return true, if key was locked upgradable.
+         */
+        public boolean isHoldingUpgradableEntry(Entry<K> entry) {
+            return entry != null && entry.isUpgradableHeldBy(this);
         }
 
         /**
-         * Method return locked key count
+         * Method return locked key count. Key locked in both modes is counted once.
          *
          * @return locked key count
          */
         public int getHoldingEntryCount() {
-            synchronized (lockedEntries_) {
-                return lockedEntries_.size();
-            }
+            return holdingEntryCount_;
         }
     }
 }
\ No newline at end of file
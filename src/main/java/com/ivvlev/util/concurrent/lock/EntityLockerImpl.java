@@ -2,6 +2,7 @@ package com.ivvlev.util.concurrent.lock;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * The class is supposed to be used by the components that are responsible for managing storage and caching of different
@@ -24,20 +25,46 @@ import java.util.concurrent.ConcurrentHashMap;
  * 6. Allow the caller to specify timeout for locking an entity.
  * <p>
  * 7. Implement protection from deadlocks (but not taking into account possible locks outside EntityLocker).
+ * <p>
+ * Locker can be created in fair mode. Fair locker grants each key to waiting threads in FIFO order, so waiting time
+ * of thread is bounded by the work of threads queued before it. Non-fair locker lets a thread take a released key
+ * ahead of queued threads, which gives more throughput under contention, but some threads can wait much longer
+ * than others.
  */
 public class EntityLockerImpl<K> extends EntityLockerAbst<K> {
 
     private final Map<K, Entry<K>> keyEntryMap_ = new ConcurrentHashMap<>();
+    private final boolean fair_;
+
+    public EntityLockerImpl() {
+        this(false);
+    }
+
+    /**
+     * @param fair {@code true} if keys should be granted to waiting threads in FIFO order.
+     */
+    public EntityLockerImpl(boolean fair) {
+        this.fair_ = fair;
+    }
 
-    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeout) {
-        return keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>()).acquire());
+    /**
+     * Check is locker fair.
+     *
+     * @return {@code true} if keys are granted to waiting threads in FIFO order.
+     */
+    public boolean isFair() {
+        return fair_;
+    }
+
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos) {
+        return keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>(fair_)).acquire());
     }
 
     protected Entry<K> findEntry(K key) {
         return keyEntryMap_.get(key);
     }
 
-    protected void releaseEntry(K key) {
+    protected void releaseEntry(K key, Transaction<K> tx) {
         keyEntryMap_.computeIfPresent(key, (k, e) -> e.release());
     }
 
@@ -45,5 +72,10 @@ public class EntityLockerImpl<K> extends EntityLockerAbst<K> {
         return keyEntryMap_.size();
     }
 
+    @Override
+    protected void forEachEntry(BiConsumer<? super K, ? super Entry<K>> action) {
+        keyEntryMap_.forEach(action);
+    }
+
 
 }
\ No newline at end of file
@@ -1,11 +1,14 @@
 package com.ivvlev.util.concurrent.lock;
 
-import com.ivvlev.util.concurrent.TimeoutException;
-
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 /**
  * The class is supposed to be used by the components that are responsible for managing storage and caching of different
@@ -31,27 +34,90 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * 8. Implement global lock. Protected code that executes under a global lock must not execute concurrently with any other protected code.
  * <p>
- * Implementation of requirement #8 require different type of synchronisation. The result of this is low
- * performance of lock/unlock cycle compare to EntityLockerImpl.
+ * Locker can be created in fair mode, the same way as {@link EntityLockerImpl}.
+ * <p>
+ * Implementation of requirement #8 does not use any monitor shared by threads on lock/unlock of keys.
+ * Each transaction counts key entries it has taken ({@link Transaction#usedEntryCount}) and checks global lock flag
+ * after incrementing the counter. Thread setting global lock raises the flag first and then waits until counters of all
+ * other transactions become zero. Threads meet on {@link #globalLock_} only while global lock is set or is being set.
+ * It is {@link ReentrantLock}, not a monitor, so virtual threads waiting for global lock do not pin their carrier threads.
+ * <p>
+ * Waiting threads are split into three condition queues, so each change wakes up only threads, which can make progress:
+ * owner of pending global lock waits for {@link #entriesReturned_}, signalled only when other transaction returns its
+ * last key entry; threads taking keys wait for {@link #globalCleared_}, signalled when global lock is cleared;
+ * threads setting global lock wait for {@link #globalFree_}, one of them is signalled when global lock is cleared.
+ * Timeouts are measured by {@link System#nanoTime()} against the deadline computed once before waiting.
+ * <p>
+ * Waits for global lock and holds of it are recorded as JFR events {@code com.ivvlev.GlobalLockWait} and
+ * {@code com.ivvlev.GlobalLockHold}, see {@link LockEvents}.
+ * <p>
+ * Asynchronous lock holds its key entry until it is unlocked or cancelled, so global lock waits for asynchronous locks
+ * also. {@link #lockAsync(Object)} called by another thread while global lock is set blocks until the global lock is cleared.
  */
 public class GlobalEntityLockerImpl<K> extends EntityLockerAbst<K> implements GlobalEntityLocker<K> {
-    private final Map<K, Entry<K>> keyEntryMap_ = new HashMap<>();
-    private long globalLockThreadId_ = -1;
+    private final Map<K, Entry<K>> keyEntryMap_ = new ConcurrentHashMap<>();
+    /**
+     * Lock used for waiting while global lock is set or is being set.
+     */
+    private final ReentrantLock globalLock_ = new ReentrantLock();
+    /**
+     * Signalled when other transaction returns its last key entry while global lock is set.
+     * Only owner of global lock waits for it.
+     */
+    private final Condition entriesReturned_ = globalLock_.newCondition();
+    /**
+     * Signalled when global lock is cleared. Threads taking key entries wait for it.
+     */
+    private final Condition globalCleared_ = globalLock_.newCondition();
+    /**
+     * Signalled when global lock is cleared. Threads setting global lock wait for it.
+     */
+    private final Condition globalFree_ = globalLock_.newCondition();
+    /**
+     * Identifier of thread which holds global lock or waits for other threads to release their keys.
+     * -1, if global lock is not set. Changed only under {@link #globalLock_}.
+     */
+    private volatile long globalLockThreadId_ = -1;
+    /**
+     * Number of global locks set by owner thread. Guarded by {@link #globalLock_}.
+     */
     private long globalLockCount_ = 0;
+    /**
+     * JFR event of global lock hold, begun when global lock is set, if the event is enabled.
+     * Guarded by {@link #globalLock_}.
+     */
+    private LockEvents.GlobalLockHold holdEvent_ = null;
+    private final boolean fair_;
+
+    public GlobalEntityLockerImpl() {
+        this(false);
+    }
+
+    /**
+     * @param fair {@code true} if keys should be granted to waiting threads in FIFO order.
+     *             Fairness concerns keys only, not global lock.
+     */
+    public GlobalEntityLockerImpl(boolean fair) {
+        this.fair_ = fair;
+    }
+
+    /**
+     * Check is locker fair.
+     *
+     * @return {@code true} if keys are granted to waiting threads in FIFO order.
+     */
+    public boolean isFair() {
+        return fair_;
+    }
 
     @Override
     public boolean isGlobalLockedByCurrentThread() {
-        final long currentThreadId = Thread.currentThread().getId();
-        synchronized (keyEntryMap_) {
-            return globalLockThreadId_ == currentThreadId;
-        }
+        return globalLockThreadId_ == Thread.currentThread().getId();
     }
 
     @Override
     public boolean isGlobalLocked() {
-        synchronized (keyEntryMap_) {
-            return globalLockThreadId_ >= 0;
-        }
+        return globalLockThreadId_ >= 0;
     }
 
     @Override
@@ -63,30 +129,72 @@ public class GlobalEntityLockerImpl<K> extends EntityLockerAbst<K> implements Gl
     public boolean tryLockGlobal(final long timeout, final TimeUnit unit) {
         Objects.requireNonNull(unit, "unit");
         final Transaction<K> tx = getTransaction();
+        final LockEvents.GlobalLockWait waitEvent = beginWait();
         try {
-            final long timeoutMills = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + unit.toMillis(timeout);
-            synchronized (keyEntryMap_) {
-                //Set a global lock immediately, if no lock set by another thread before.
-                //This is necessary to prevent other threads from blocking keys after lockGlobal call.
-                if (globalLockThreadId_ < 0) {
-                    globalLockThreadId_ = tx.threadId;
+            final long timeoutNanos = toTimeoutNanos(timeout, unit);
+            final long deadline = System.nanoTime() + timeoutNanos;
+            boolean waited = false;
+            globalLock_.lock();
+            try {
+                if (globalLockThreadId_ == tx.threadId && globalLockCount_ > 0) {
+                    globalLockCount_++;
+                    tx.holdingOtherLockCount++;
+                    return true;
                 }
                 //Iterating until other thread:
-                // 1. will unlock keys
-                // 2. will clear global lock
-                while ((globalLockThreadId_ == tx.threadId && getEntryCount() > tx.getHoldingEntryCount())
-                        || (globalLockThreadId_ != tx.threadId && globalLockCount_ > 0)) {
-                    if (System.currentTimeMillis() < timeoutMills) {
-                        keyEntryMap_.wait(timeout);
-                    } else {
+                // 1. will clear global lock
+                // 2. will unlock keys
+                while (true) {
+                    //Set a global lock immediately, if no lock set by another thread before.
+                    //This is necessary to prevent other threads from blocking keys after lockGlobal call.
+                    if (globalLockThreadId_ < 0) {
+                        globalLockThreadId_ = tx.threadId;
+                    }
+                    final boolean owner = globalLockThreadId_ == tx.threadId;
+                    if (owner && !isEntryUsedByOthers(tx)) {
+                        break;
+                    }
+                    final Condition condition = owner ? entriesReturned_ : globalFree_;
+                    waited = true;
+                    tx.waitingGlobalLock = true;
+                    if (timeoutNanos < 0) {
+                        condition.await();
+                        continue;
+                    }
+                    final long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        if (owner) {
+                            //Give up pending global lock and wake up threads, which are waiting for it.
+                            clearGlobalLock();
+                        }
+                        commitWait(waitEvent, true, true);
                         return false;
                     }
+                    condition.awaitNanos(waitNanos);
                 }
-                globalLockThreadId_ = tx.threadId;
-                globalLockCount_++;
+                if (globalLockCount_++ == 0) {
+                    beginHold();
+                }
+                tx.holdingOtherLockCount++;
+            } finally {
+                tx.waitingGlobalLock = false;
+                globalLock_.unlock();
+            }
+            if (waited) {
+                commitWait(waitEvent, true, false);
             }
         } catch (InterruptedException e) {
-            removeEmptyTransaction(tx);
+            globalLock_.lock();
+            try {
+                if (globalLockThreadId_ == tx.threadId && globalLockCount_ == 0) {
+                    clearGlobalLock();
+                } else if (globalLockThreadId_ < 0) {
+                    //Signal to this thread could be consumed by interruption, pass it to the next one.
+                    globalFree_.signal();
+                }
+            } finally {
+                globalLock_.unlock();
+            }
             throw new EntityLockerException(e);
         }
         return true;
@@ -94,58 +202,210 @@ public class GlobalEntityLockerImpl<K> extends EntityLockerAbst<K> implements Gl
 
     @Override
     public void unlockGlobal() {
-        synchronized (keyEntryMap_) {
-            if (globalLockThreadId_ < 0) {
+        globalLock_.lock();
+        try {
+            if (globalLockThreadId_ < 0 || globalLockCount_ == 0) {
                 throw new EntityLockerException("The global lock not set before.");
             }
             if (globalLockThreadId_ != Thread.currentThread().getId()) {
                 throw new EntityLockerException("The global lock was set by another thread.");
             }
+            getTransaction().holdingOtherLockCount--;
             if (--globalLockCount_ == 0) {
-                globalLockThreadId_ = -1;
+                commitHold();
+                clearGlobalLock();
             }
-            keyEntryMap_.notifyAll();
+        } finally {
+            globalLock_.unlock();
+        }
+    }
+
+    @Override
+    public LockTableSnapshot<K> getLockTableSnapshot() {
+        return newLockTableSnapshot(globalLockThreadId_);
+    }
+
+    private void beginHold() {
+        if (LockEvents.isGlobalLockHoldEnabled()) {
+            final LockEvents.GlobalLockHold event = new LockEvents.GlobalLockHold();
+            event.begin();
+            holdEvent_ = event;
+        }
+    }
+
+    private void commitHold() {
+        final LockEvents.GlobalLockHold event = holdEvent_;
+        if (event != null) {
+            holdEvent_ = null;
+            event.commit();
+        }
+    }
+
+    /**
+     * Method return begun JFR event of global lock wait, or null, if the event is not enabled.
+     */
+    private static LockEvents.GlobalLockWait beginWait() {
+        if (!LockEvents.isGlobalLockWaitEnabled()) {
+            return null;
+        }
+        final LockEvents.GlobalLockWait event = new LockEvents.GlobalLockWait();
+        event.begin();
+        return event;
+    }
+
+    private static void commitWait(LockEvents.GlobalLockWait event, boolean global, boolean timedOut) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.global = global;
+            event.timedOut = timedOut;
+            event.commit();
+        }
+    }
+
+    /**
+     * Method clears global lock and wakes up all threads waiting to take key entries and one thread waiting
+     * to set global lock. Must be called under {@link #globalLock_}.
+     */
+    private void clearGlobalLock() {
+        globalLockThreadId_ = -1;
+        globalCleared_.signalAll();
+        globalFree_.signal();
+    }
+
+    @Override
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos) {
+        if (!useEntries(tx, 1, timeoutNanos)) {
+            return null;
         }
+        return keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>(fair_)).acquire());
     }
 
+    /**
+     * Global lock is checked once for all keys, so it can't be set between keys, while some of them are taken.
+     */
     @Override
-    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeout) {
+    protected List<Entry<K>> acquireEntries(List<K> keys, Transaction<K> tx, long timeoutNanos) {
+        if (!useEntries(tx, keys.size(), timeoutNanos)) {
+            return null;
+        }
+        final List<Entry<K>> entries = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            entries.add(keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>(fair_)).acquire()));
+        }
+        return entries;
+    }
+
+    /**
+     * Method increments entry counter of transaction, waiting while global lock is set by another thread.
+     *
+     * @param tx           Transaction
+     * @param entryCount   Number of entries to be taken
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return false, if timeout has elapsed.
+     */
+    private boolean useEntries(Transaction<K> tx, int entryCount, long timeoutNanos) {
+        //Counter is incremented before the flag is checked, and thread setting global lock checks counters after
+        //the flag is set. Both fields are volatile, so at least one of threads sees the change made by another.
+        //Transaction of asynchronous lock has no thread, so global lock owner is compared with calling thread.
+        tx.usedEntryCount += entryCount;
+        final long globalLockThreadId = globalLockThreadId_;
+        if (globalLockThreadId >= 0 && globalLockThreadId != Thread.currentThread().getId()) {
+            tx.usedEntryCount -= entryCount;
+            return waitGlobalUnlock(tx, entryCount, timeoutNanos);
+        }
+        return true;
+    }
+
+    /**
+     * Method waits until global lock set by another thread is cleared and increments the entry counter.
+     *
+     * @param tx           Transaction
+     * @param entryCount   Number of entries to be taken
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return false, if timeout has elapsed.
+     */
+    private boolean waitGlobalUnlock(Transaction<K> tx, int entryCount, long timeoutNanos) {
+        final LockEvents.GlobalLockWait waitEvent = beginWait();
         try {
-            final long timeoutMills = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
-            synchronized (keyEntryMap_) {
-                while (globalLockThreadId_ >= 0 && globalLockThreadId_ != tx.threadId) {
-                    if (System.currentTimeMillis() >= timeoutMills) {
-                        throw new TimeoutException();
+            final long deadline = System.nanoTime() + timeoutNanos;
+            globalLock_.lock();
+            try {
+                if (tx.usedEntryCount == 0) {
+                    //Thread setting global lock can wait for this counter.
+                    entriesReturned_.signal();
+                }
+                final long threadId = Thread.currentThread().getId();
+                tx.waitingGlobalUnlock = true;
+                while (globalLockThreadId_ >= 0 && globalLockThreadId_ != threadId) {
+                    if (timeoutNanos < 0) {
+                        globalCleared_.await();
+                        continue;
                     }
-                    keyEntryMap_.wait(timeout);
+                    final long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        commitWait(waitEvent, false, true);
+                        return false;
+                    }
+                    globalCleared_.awaitNanos(waitNanos);
                 }
-                return keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>()).acquire());
+                //Global lock can't be set while globalLock_ is held.
+                tx.usedEntryCount += entryCount;
+            } finally {
+                tx.waitingGlobalUnlock = false;
+                globalLock_.unlock();
             }
+            commitWait(waitEvent, false, false);
+            return true;
         } catch (InterruptedException e) {
             throw new EntityLockerException(e);
         }
     }
 
+    /**
+     * Check is any other transaction using key entries.
+     *
+     * @param tx Transaction
+     * @return true, if any other transaction has taken key entry and has not returned it yet.
+     */
+    private boolean isEntryUsedByOthers(Transaction<K> tx) {
+        for (Transaction<K> otherTx : getTransactions()) {
+            if (otherTx != tx && otherTx.usedEntryCount > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected Entry<K> findEntry(K key) {
-        synchronized (keyEntryMap_) {
-            return keyEntryMap_.get(key);
-        }
+        return keyEntryMap_.get(key);
     }
 
     @Override
-    protected void releaseEntry(K key) {
-        synchronized (keyEntryMap_) {
-            keyEntryMap_.computeIfPresent(key, (k, e) -> e.release());
-            keyEntryMap_.notifyAll();
+    protected void releaseEntry(K key, Transaction<K> tx) {
+        keyEntryMap_.computeIfPresent(key, (k, e) -> e.release());
+        //Owner of global lock waits only for transactions returning their last entry.
+        if (--tx.usedEntryCount == 0 && globalLockThreadId_ >= 0) {
+            globalLock_.lock();
+            try {
+                entriesReturned_.signal();
+            } finally {
+                globalLock_.unlock();
+            }
         }
     }
 
     @Override
     protected int getEntryCount() {
-        synchronized (keyEntryMap_) {
-            return keyEntryMap_.size();
-        }
+        return keyEntryMap_.size();
+    }
+
+    @Override
+    protected void forEachEntry(BiConsumer<? super K, ? super Entry<K>> action) {
+        keyEntryMap_.forEach(action);
     }
 
-}
\ No newline at end of file
+}
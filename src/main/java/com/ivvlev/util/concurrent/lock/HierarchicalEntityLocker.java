@@ -0,0 +1,143 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.Procedure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends ReadWriteEntityLocker, adding namespace locks.
+ * <p>
+ * Each key belongs to one namespace, e.g. entity type or tenant. Namespace can be locked exclusively or in shared mode,
+ * like a table in DB. Lock of key takes intention lock of its namespace: exclusive lock of key takes
+ * intention-exclusive (IX) lock, shared lock of key takes intention-shared (IS) lock. Modes are compatible as follows:
+ * <pre>
+ *          IS   IX   S    X
+ *     IS   +    +    +    -
+ *     IX   +    +    -    -
+ *     S    +    -    +    -
+ *     X    -    -    -    -
+ * </pre>
+ * So exclusive lock of namespace waits for all keys of the namespace to be unlocked and excludes locks of its keys
+ * by other threads, shared lock of namespace allows only shared locks of its keys. Keys of other namespaces are not
+ * affected.
+ * <p>
+ * Namespace must be locked before its keys: thread holding a key of namespace can't lock the namespace.
+ * Waiting for namespace does not take part in deadlock detection, use timeouts, if locks can be taken in different order.
+ *
+ * @param <K> Type of key
+ * @param <N> Type of namespace
+ */
+public interface HierarchicalEntityLocker<K, N> extends ReadWriteEntityLocker<K> {
+
+    /**
+     * Method return the namespace of key.
+     *
+     * @param key Entity key.
+     * @return Namespace
+     */
+    N getNamespace(K key);
+
+    /**
+     * Method perform exclusive lock of namespace. Lock will be set after all keys of the namespace locked by other
+     * threads have been unlocked. Lock is reentrant.
+     *
+     * @param namespace Namespace
+     * @throws DeadlockException     if any key of the namespace is locked by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockNamespace(N namespace);
+
+    /**
+     * Method perform exclusive lock of namespace with timeout.
+     *
+     * @param namespace Namespace
+     * @param timeout   the time to wait for the lock
+     * @param unit      the time unit of the timeout argument
+     * @return {@code true} if success else {@code false}.
+     * @throws DeadlockException     if any key of the namespace is locked by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockNamespace(N namespace, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform exclusive unlock of namespace.
+     *
+     * @param namespace Namespace
+     * @throws EntityLockerException if namespace is not locked by current thread
+     */
+    void unlockNamespace(N namespace);
+
+    /**
+     * Method perform shared lock of namespace. Lock will be set after all keys of the namespace locked exclusively by
+     * other threads have been unlocked. Lock is reentrant.
+     *
+     * @param namespace Namespace
+     * @throws DeadlockException     if any key of the namespace is locked exclusively by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockNamespaceShared(N namespace);
+
+    /**
+     * Method perform shared lock of namespace with timeout.
+     *
+     * @param namespace Namespace
+     * @param timeout   the time to wait for the lock
+     * @param unit      the time unit of the timeout argument
+     * @return {@code true} if success else {@code false}.
+     * @throws DeadlockException     if any key of the namespace is locked exclusively by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockNamespaceShared(N namespace, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform shared unlock of namespace.
+     *
+     * @param namespace Namespace
+     * @throws EntityLockerException if namespace is not locked in shared mode by current thread
+     */
+    void unlockNamespaceShared(N namespace);
+
+    /**
+     * Check is namespace locked exclusively by current thread.
+     *
+     * @param namespace Namespace
+     * @return {@code true} if namespace locked by current thread, else {@code false}.
+     */
+    boolean isNamespaceLockedByCurrentThread(N namespace);
+
+    /**
+     * Check is namespace locked in shared mode by current thread.
+     *
+     * @param namespace Namespace
+     * @return {@code true} if namespace locked in shared mode by current thread, else {@code false}.
+     */
+    boolean isNamespaceSharedLockedByCurrentThread(N namespace);
+
+    /**
+     * Little faster than
+     * <pre>
+     *     entityLocker.lockNamespace("namespace");
+     *     try {
+     *         return protectedMethod.get();
+     *     } finally {
+     *         entityLocker.unlockNamespace("namespace");
+     *     }
+     * </pre>
+     *
+     * @param namespace       Namespace
+     * @param protectedMethod Protected code.
+     * @return Result of protectedMethod
+     */
+    <R> R forNamespaceLock(N namespace, Supplier<R> protectedMethod);
+
+    /**
+     * Method executes protected code under exclusive lock of namespace.
+     *
+     * @param namespace       Namespace
+     * @param protectedMethod Protected code.
+     */
+    void forNamespaceLock(N namespace, Procedure protectedMethod);
+
+}
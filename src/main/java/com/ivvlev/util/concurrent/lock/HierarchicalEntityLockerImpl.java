@@ -0,0 +1,663 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.Procedure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of EntityLocker with namespace locks, see {@link HierarchicalEntityLocker}.
+ * <p>
+ * Namespace lock replaces global lock of {@link GlobalEntityLockerImpl}, when one locker serves many entity types
+ * or tenants: maintenance of one namespace stalls only keys of this namespace.
+ * <p>
+ * All locks of namespace are counted in single state field, updated with CAS, and in slots of holding transactions.
+ * Namespace is kept in the map by CAS-updated usage counter, so lock of key does not take any lock of namespace while
+ * namespace is not locked, unless the namespace is added to the map. Threads wait on {@link ReentrantLock} of namespace only
+ * while namespace lock is set or is being set. Thread waiting for exclusive or shared lock of namespace blocks
+ * new conflicting intention locks of transactions, which do not hold intention locks of the namespace yet, so it is
+ * not starved by key traffic, and transactions holding keys of the namespace can finish their work.
+ * <p>
+ * Waits for namespace locks are a part of wait-for graph, so deadlock of keys and namespaces is detected.
+ * <p>
+ * Asynchronous lock takes intention-exclusive lock of namespace and holds it until it is unlocked.
+ * {@link #lockAsync(Object)} called by another thread while namespace is locked blocks until the namespace is unlocked.
+ *
+ * @param <K> Type of key
+ * @param <N> Type of namespace
+ */
+public class HierarchicalEntityLockerImpl<K, N> extends EntityLockerAbst<K> implements HierarchicalEntityLocker<K, N> {
+    private final Map<K, Entry<K>> keyEntryMap_ = new ConcurrentHashMap<>();
+    private final Map<N, Namespace<K>> namespaceMap_ = new ConcurrentHashMap<>();
+    private final Function<? super K, ? extends N> namespaceFunction_;
+    private final boolean fair_;
+
+    /**
+     * @param namespaceFunction Function returning namespace of key. Must return the same non-null namespace for equal keys.
+     */
+    public HierarchicalEntityLockerImpl(Function<? super K, ? extends N> namespaceFunction) {
+        this(namespaceFunction, false);
+    }
+
+    /**
+     * @param namespaceFunction Function returning namespace of key. Must return the same non-null namespace for equal keys.
+     * @param fair              {@code true} if keys should be granted to waiting threads in FIFO order.
+     *                          Fairness concerns keys only, not namespaces.
+     */
+    public HierarchicalEntityLockerImpl(Function<? super K, ? extends N> namespaceFunction, boolean fair) {
+        this.namespaceFunction_ = Objects.requireNonNull(namespaceFunction, "namespaceFunction");
+        this.fair_ = fair;
+    }
+
+    /**
+     * Check is locker fair.
+     *
+     * @return {@code true} if keys are granted to waiting threads in FIFO order.
+     */
+    public boolean isFair() {
+        return fair_;
+    }
+
+    @Override
+    public N getNamespace(K key) {
+        return Objects.requireNonNull(namespaceFunction_.apply(key), "namespace");
+    }
+
+    @Override
+    public void lockNamespace(N namespace) {
+        tryLockNamespace(namespace, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean tryLockNamespace(N namespace, long timeout, TimeUnit unit) {
+        return doLockNamespace(namespace, false, timeout, unit);
+    }
+
+    @Override
+    public void unlockNamespace(N namespace) {
+        doUnlockNamespace(namespace, false);
+    }
+
+    @Override
+    public void lockNamespaceShared(N namespace) {
+        tryLockNamespaceShared(namespace, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean tryLockNamespaceShared(N namespace, long timeout, TimeUnit unit) {
+        return doLockNamespace(namespace, true, timeout, unit);
+    }
+
+    @Override
+    public void unlockNamespaceShared(N namespace) {
+        doUnlockNamespace(namespace, true);
+    }
+
+    @Override
+    public boolean isNamespaceLockedByCurrentThread(N namespace) {
+        final Namespace<K> ns = namespaceMap_.get(Objects.requireNonNull(namespace, "namespace"));
+        return ns != null && ns.isHeldBy(getTransaction());
+    }
+
+    @Override
+    public boolean isNamespaceSharedLockedByCurrentThread(N namespace) {
+        final Namespace<K> ns = namespaceMap_.get(Objects.requireNonNull(namespace, "namespace"));
+        return ns != null && ns.isHeldSharedBy(getTransaction());
+    }
+
+    @Override
+    public <R> R forNamespaceLock(N namespace, Supplier<R> protectedMethod) {
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        lockNamespace(namespace);
+        try {
+            return protectedMethod.get();
+        } finally {
+            unlockNamespace(namespace);
+        }
+    }
+
+    @Override
+    public void forNamespaceLock(N namespace, Procedure protectedMethod) {
+        forNamespaceLock(namespace, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    private boolean doLockNamespace(N namespace, boolean shared, long timeout, TimeUnit unit) {
+        Objects.requireNonNull(namespace, "namespace");
+        Objects.requireNonNull(unit, "unit");
+        final Transaction<K> tx = getTransaction();
+        final Namespace<K> ns = acquireNamespace(namespace);
+        boolean locked = false;
+        try {
+            locked = shared ? ns.tryLockShared(tx, false) : ns.tryLockExclusive(tx);
+            if (!locked) {
+                final boolean keysHeld = checkKeysHeld(namespace, tx, shared);
+                locked = ns.lock(tx, shared, keysHeld, toTimeoutNanos(timeout, unit));
+            }
+            if (locked) {
+                tx.holdingOtherLockCount++;
+            }
+            return locked;
+        } finally {
+            if (!locked) {
+                releaseNamespace(namespace, ns);
+            }
+        }
+    }
+
+    private void doUnlockNamespace(N namespace, boolean shared) {
+        Objects.requireNonNull(namespace, "namespace");
+        final Namespace<K> ns = namespaceMap_.get(namespace);
+        final Transaction<K> tx = getTransaction();
+        if (ns == null || !(shared ? ns.isHeldSharedBy(tx) : ns.isHeldBy(tx))) {
+            throw new EntityLockerException(String.format("Namespace '%s' doesn't locked%s by thread '%s'", namespace,
+                    shared ? " in shared mode" : "", tx.threadId));
+        }
+        if (shared) {
+            ns.unlockShared(tx);
+        } else {
+            ns.unlockExclusive();
+        }
+        tx.holdingOtherLockCount--;
+        releaseNamespace(namespace, ns);
+    }
+
+    /**
+     * Method checks keys of namespace held by transaction. Namespace lock can't be set until the keys of namespace
+     * locked in conflicting mode by the thread itself are unlocked.
+     *
+     * @return true, if transaction holds keys of namespace in compatible mode.
+     * @throws DeadlockException if transaction holds key of namespace in mode conflicting with namespace lock.
+     */
+    private boolean checkKeysHeld(N namespace, Transaction<K> tx, boolean shared) {
+        boolean keysHeld = false;
+        for (Map.Entry<K, Entry<K>> keyEntry : keyEntryMap_.entrySet()) {
+            final Entry<K> entry = keyEntry.getValue();
+            final boolean held = entry.isHeldBy(tx) || entry.isUpgradableHeldBy(tx);
+            final boolean heldShared = !held && entry.isHeldSharedBy(tx);
+            if ((held || heldShared) && namespace.equals(getNamespace(keyEntry.getKey()))) {
+                if (held || !shared) {
+                    throw new DeadlockException(String.format("Thread %s try to lock namespace '%s', which key '%s' is locked by it",
+                            tx.threadId, namespace, keyEntry.getKey()));
+                }
+                keysHeld = true;
+            }
+        }
+        return keysHeld;
+    }
+
+    private Namespace<K> acquireNamespace(N namespace) {
+        while (true) {
+            Namespace<K> ns = namespaceMap_.get(namespace);
+            if (ns == null) {
+                ns = namespaceMap_.computeIfAbsent(namespace, n -> new Namespace<K>());
+            }
+            if (ns.tryAcquire()) {
+                return ns;
+            }
+            //Namespace is not used anymore and is being removed by the thread, which released it.
+            namespaceMap_.remove(namespace, ns);
+        }
+    }
+
+    private void releaseNamespace(N namespace, Namespace<K> ns) {
+        if (ns.release()) {
+            namespaceMap_.remove(namespace, ns);
+        }
+    }
+
+    @Override
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos) {
+        return acquireEntry(key, tx, false, timeoutNanos);
+    }
+
+    @Override
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, boolean shared, long timeoutNanos) {
+        final N namespace = getNamespace(key);
+        final Namespace<K> ns = acquireNamespace(namespace);
+        boolean locked = false;
+        try {
+            //Transaction of asynchronous lock has no thread, so namespace lock owner is compared with calling thread.
+            locked = ns.lockIntention(tx, tx.threadId < 0 ? getTransaction() : tx, shared, timeoutNanos);
+        } finally {
+            if (!locked) {
+                releaseNamespace(namespace, ns);
+            }
+        }
+        if (!locked) {
+            return null;
+        }
+        return keyEntryMap_.compute(key, (k, e) -> (e != null ? e : new Entry<K>(fair_)).acquire());
+    }
+
+    @Override
+    protected Entry<K> findEntry(K key) {
+        return keyEntryMap_.get(key);
+    }
+
+    @Override
+    protected void releaseEntry(K key, Transaction<K> tx) {
+        releaseEntry(key, tx, false);
+    }
+
+    @Override
+    protected void releaseEntry(K key, Transaction<K> tx, boolean shared) {
+        keyEntryMap_.computeIfPresent(key, (k, e) -> e.release());
+        final N namespace = getNamespace(key);
+        final Namespace<K> ns = namespaceMap_.get(namespace);
+        ns.unlockIntention(tx, shared);
+        releaseNamespace(namespace, ns);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return keyEntryMap_.size();
+    }
+
+    @Override
+    protected void forEachEntry(BiConsumer<? super K, ? super Entry<K>> action) {
+        keyEntryMap_.forEach(action);
+    }
+
+    /**
+     * Method return the number of namespaces, which are locked or have locked keys.
+     */
+    int getNamespaceCount() {
+        return namespaceMap_.size();
+    }
+
+    /**
+     * Lock of namespace. Counts of locks in all modes are kept in single state field.
+     * Shared and intention locks are also counted by transaction in {@link SharedHolders} slots, so transactions
+     * blocking the waiting one are known to deadlock detection.
+     * <p>
+     * State layout:<br>
+     * bit 63 - thread waits for shared lock;<br>
+     * bit 62 - thread waits for exclusive lock;<br>
+     * bits 52..61 - exclusive (X) lock count;<br>
+     * bits 40..51 - shared (S) lock count of all transactions;<br>
+     * bits 20..39 - intention-exclusive (IX) lock count;<br>
+     * bits 0..19 - intention-shared (IS) lock count.
+     */
+    private static final class Namespace<K> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicLongFieldUpdater<Namespace> USAGE_COUNTER =
+                AtomicLongFieldUpdater.newUpdater(Namespace.class, "usageCounter_");
+        private static final int IS_SHIFT = 0;
+        private static final int IX_SHIFT = 20;
+        private static final int S_SHIFT = 40;
+        private static final int X_SHIFT = 52;
+        private static final long IS_MASK = (1L << 20) - 1;
+        private static final long IX_MASK = (1L << 20) - 1;
+        private static final long S_MASK = (1L << 12) - 1;
+        private static final long X_MASK = (1L << 10) - 1;
+        private static final long X_PENDING = 1L << 62;
+        private static final long S_PENDING = 1L << 63;
+
+        private static long count(long state, int shift, long mask) {
+            return (state >>> shift) & mask;
+        }
+
+        private final AtomicLong state_ = new AtomicLong();
+        /**
+         * Lock used for waiting while conflicting lock of namespace is set.
+         */
+        private final ReentrantLock waitLock_ = new ReentrantLock();
+        /**
+         * Signalled when lock of namespace is released, while any thread waits.
+         */
+        private final Condition changed_ = waitLock_.newCondition();
+        /**
+         * Transaction, which holds exclusive lock, or null.
+         */
+        private volatile Transaction<K> ownerTx_ = null;
+        /**
+         * Shared lock count by transaction.
+         */
+        private final SharedHolders<K> sharedHolders_ = new SharedHolders<>();
+        /**
+         * Intention-shared lock count by transaction.
+         */
+        private final SharedHolders<K> intentionSharedHolders_ = new SharedHolders<>();
+        /**
+         * Intention-exclusive lock count by transaction.
+         */
+        private final SharedHolders<K> intentionExclusiveHolders_ = new SharedHolders<>();
+        /**
+         * Transactions waiting for exclusive or shared lock of namespace, with the mode: true - shared.
+         */
+        private final Map<Transaction<K>, Boolean> lockWaiters_ = new ConcurrentHashMap<>();
+        /**
+         * Number of waiting threads. Changed under {@link #waitLock_}.
+         */
+        private volatile int waiterCount_ = 0;
+        private int exclusiveWaiterCount_ = 0;
+        private int sharedWaiterCount_ = 0;
+        /**
+         * Number of key entries and namespace locks using this namespace, -1 - namespace is removed from the map
+         * and can't be used anymore.
+         */
+        private volatile long usageCounter_ = 0;
+
+        /**
+         * Method increments usage counter, unless namespace is removed from the map.
+         *
+         * @return false, if namespace is removed from the map, and new namespace must be taken.
+         */
+        private boolean tryAcquire() {
+            long usageCounter;
+            do {
+                usageCounter = usageCounter_;
+                if (usageCounter < 0) {
+                    return false;
+                }
+            } while (!USAGE_COUNTER.compareAndSet(this, usageCounter, usageCounter + 1));
+            return true;
+        }
+
+        /**
+         * Method decrements usage counter and marks the namespace removed, when it is not used anymore.
+         *
+         * @return true, if namespace must be removed from the map.
+         */
+        private boolean release() {
+            return USAGE_COUNTER.decrementAndGet(this) == 0 && USAGE_COUNTER.compareAndSet(this, 0, -1);
+        }
+
+        private boolean isHeldBy(Transaction<K> tx) {
+            return ownerTx_ == tx && count(state_.get(), X_SHIFT, X_MASK) > 0;
+        }
+
+        private boolean isHeldSharedBy(Transaction<K> tx) {
+            return sharedHolders_.isHeldBy(tx);
+        }
+
+        /**
+         * Method takes intention lock, waiting while it conflicts with exclusive or shared lock of other transaction.
+         *
+         * @param tx           Transaction, which will hold intention lock.
+         * @param owner        Transaction of thread, which is compared with owners of namespace locks.
+         * @param shared       Take intention-shared lock, else intention-exclusive lock.
+         * @param timeoutNanos Timeout in nanoseconds, {@link EntityLockerAbst#NO_TIMEOUT} - no timeout.
+         * @return false, if timeout has elapsed.
+         */
+        private boolean lockIntention(Transaction<K> tx, Transaction<K> owner, boolean shared, long timeoutNanos) {
+            if (!tryLockIntention(owner, shared)) {
+                if (!waitIntention(owner, shared, timeoutNanos)) {
+                    return false;
+                }
+            }
+            (shared ? intentionSharedHolders_ : intentionExclusiveHolders_).hold(tx);
+            return true;
+        }
+
+        private boolean waitIntention(Transaction<K> owner, boolean shared, long timeoutNanos) {
+            owner.waitingTarget = waitingTx -> getIntentionBlockingTx(waitingTx, shared);
+            try {
+                owner.checkDeadlock(false);
+                final long deadline = System.nanoTime() + timeoutNanos;
+                waitLock_.lock();
+                try {
+                    waiterCount_++;
+                    try {
+                        while (!tryLockIntention(owner, shared)) {
+                            if (!await(owner, timeoutNanos, deadline)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    } finally {
+                        waiterCount_--;
+                    }
+                } finally {
+                    waitLock_.unlock();
+                }
+            } catch (InterruptedException e) {
+                throw new EntityLockerException(e);
+            } finally {
+                owner.waitingTarget = null;
+            }
+        }
+
+        /**
+         * Method waits for signal of {@link #changed_}, rechecking deadlock of waiting transaction periodically.
+         *
+         * @param deadline Time when waiting must be stopped, if timeout is not {@link EntityLockerAbst#NO_TIMEOUT}.
+         * @return false, if timeout has elapsed.
+         */
+        private boolean await(Transaction<K> tx, long timeoutNanos, long deadline) throws InterruptedException {
+            long waitNanos = Transaction.DEADLOCK_RECHECK_NANOS;
+            if (timeoutNanos >= 0) {
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                waitNanos = Math.min(waitNanos, remainingNanos);
+            }
+            if (changed_.awaitNanos(waitNanos) <= 0) {
+                tx.checkDeadlock(true);
+            }
+            return true;
+        }
+
+        private boolean tryLockIntention(Transaction<K> owner, boolean shared) {
+            while (true) {
+                final long state = state_.get();
+                if (count(state, X_SHIFT, X_MASK) > 0) {
+                    if (ownerTx_ != owner) {
+                        return false;
+                    }
+                } else {
+                    //Intention lock conflicts with shared lock of other transactions and with waiting threads,
+                    //unless the transaction holds intention or shared lock, which waiting threads wait for.
+                    final long sharedCount = count(state, S_SHIFT, S_MASK);
+                    final long ownSharedCount = sharedCount > 0 ? sharedHolders_.getCount(owner) : 0;
+                    if ((state & (shared ? X_PENDING : X_PENDING | S_PENDING)) != 0 && ownSharedCount == 0
+                            && !isHeldIntentionBy(owner)) {
+                        return false;
+                    }
+                    if (!shared && sharedCount != ownSharedCount) {
+                        return false;
+                    }
+                }
+                final int shift = shared ? IS_SHIFT : IX_SHIFT;
+                if (count(state, shift, IS_MASK) == IS_MASK) {
+                    throw new EntityLockerException("Maximum intention lock count exceeded");
+                }
+                if (state_.compareAndSet(state, state + (1L << shift))) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isHeldIntentionBy(Transaction<K> tx) {
+            return intentionExclusiveHolders_.isHeldBy(tx) || intentionSharedHolders_.isHeldBy(tx);
+        }
+
+        private void unlockIntention(Transaction<K> tx, boolean shared) {
+            (shared ? intentionSharedHolders_ : intentionExclusiveHolders_).unhold(tx);
+            state_.addAndGet(-(1L << (shared ? IS_SHIFT : IX_SHIFT)));
+            signalWaiters();
+        }
+
+        private boolean tryLockExclusive(Transaction<K> tx) {
+            while (true) {
+                final long state = state_.get();
+                final long exclusiveCount = count(state, X_SHIFT, X_MASK);
+                if (exclusiveCount > 0 && ownerTx_ == tx) {
+                    if (exclusiveCount == X_MASK) {
+                        throw new EntityLockerException("Maximum lock count exceeded");
+                    }
+                } else if ((state & ~(X_PENDING | S_PENDING)) != 0) {
+                    return false;
+                }
+                if (state_.compareAndSet(state, state + (1L << X_SHIFT))) {
+                    ownerTx_ = tx;
+                    return true;
+                }
+            }
+        }
+
+        private boolean tryLockShared(Transaction<K> tx, boolean ignorePending) {
+            final boolean held = sharedHolders_.isHeldBy(tx);
+            while (true) {
+                final long state = state_.get();
+                if (!held) {
+                    final boolean owner = count(state, X_SHIFT, X_MASK) > 0 && ownerTx_ == tx;
+                    if (!owner && (count(state, X_SHIFT, X_MASK) > 0 || count(state, IX_SHIFT, IX_MASK) > 0
+                            || !ignorePending && (state & X_PENDING) != 0)) {
+                        return false;
+                    }
+                }
+                if (count(state, S_SHIFT, S_MASK) == S_MASK) {
+                    throw new EntityLockerException("Maximum shared lock count exceeded");
+                }
+                if (state_.compareAndSet(state, state + (1L << S_SHIFT))) {
+                    sharedHolders_.hold(tx);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Method waits for exclusive or shared lock of namespace. While thread waits, new conflicting intention locks
+         * are not granted.
+         *
+         * @param ignorePending Take shared lock regardless of waiting threads, because the transaction holds
+         *                      intention-shared lock, which they wait for.
+         * @param timeoutNanos  Timeout in nanoseconds, {@link EntityLockerAbst#NO_TIMEOUT} - no timeout.
+         * @return true, if lock has been taken, false, if timeout occurs.
+         */
+        private boolean lock(Transaction<K> tx, boolean shared, boolean ignorePending, long timeoutNanos) {
+            final long pendingFlag = shared ? S_PENDING : X_PENDING;
+            tx.waitingTarget = waitingTx -> getLockBlockingTx(waitingTx, shared);
+            try {
+                tx.checkDeadlock(false);
+                final long deadline = System.nanoTime() + timeoutNanos;
+                waitLock_.lock();
+                try {
+                    waiterCount_++;
+                    if (shared) {
+                        sharedWaiterCount_++;
+                    } else {
+                        exclusiveWaiterCount_++;
+                    }
+                    lockWaiters_.put(tx, shared);
+                    state_.getAndUpdate(state -> state | pendingFlag);
+                    try {
+                        while (!(shared ? tryLockShared(tx, ignorePending) : tryLockExclusive(tx))) {
+                            if (!await(tx, timeoutNanos, deadline)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    } finally {
+                        waiterCount_--;
+                        lockWaiters_.remove(tx);
+                        if ((shared ? --sharedWaiterCount_ : --exclusiveWaiterCount_) == 0) {
+                            state_.getAndUpdate(state -> state & ~pendingFlag);
+                        }
+                        //Intention locks blocked by this thread can be granted now.
+                        changed_.signalAll();
+                    }
+                } finally {
+                    waitLock_.unlock();
+                }
+            } catch (InterruptedException e) {
+                throw new EntityLockerException(e);
+            } finally {
+                tx.waitingTarget = null;
+            }
+        }
+
+        /**
+         * Method return transactions blocking intention lock: owner of exclusive lock, owners of shared locks
+         * and, unless waiting transaction holds intention or shared lock, threads waiting for namespace lock.
+         */
+        private List<Transaction<K>> getIntentionBlockingTx(Transaction<K> waitingTx, boolean shared) {
+            final List<Transaction<K>> blockingTx = new ArrayList<>();
+            addBlockingTx(blockingTx, waitingTx, ownerTx_);
+            if (!shared) {
+                sharedHolders_.forEach((tx, count) -> addBlockingTx(blockingTx, waitingTx, tx));
+            }
+            if (!isHeldIntentionBy(waitingTx) && !sharedHolders_.isHeldBy(waitingTx)) {
+                lockWaiters_.forEach((tx, waitingShared) -> {
+                    if (!shared || !waitingShared) {
+                        addBlockingTx(blockingTx, waitingTx, tx);
+                    }
+                });
+            }
+            return blockingTx;
+        }
+
+        /**
+         * Method return transactions blocking exclusive or shared lock of namespace: owners of conflicting locks
+         * and threads waiting for exclusive lock, which shared lock is queued after.
+         */
+        private List<Transaction<K>> getLockBlockingTx(Transaction<K> waitingTx, boolean shared) {
+            final List<Transaction<K>> blockingTx = new ArrayList<>();
+            addBlockingTx(blockingTx, waitingTx, ownerTx_);
+            intentionExclusiveHolders_.forEach((tx, count) -> addBlockingTx(blockingTx, waitingTx, tx));
+            if (!shared) {
+                sharedHolders_.forEach((tx, count) -> addBlockingTx(blockingTx, waitingTx, tx));
+                intentionSharedHolders_.forEach((tx, count) -> addBlockingTx(blockingTx, waitingTx, tx));
+            } else if (!intentionSharedHolders_.isHeldBy(waitingTx)) {
+                //Shared lock of transaction holding intention-shared lock ignores waiting threads.
+                lockWaiters_.forEach((tx, waitingShared) -> {
+                    if (!waitingShared) {
+                        addBlockingTx(blockingTx, waitingTx, tx);
+                    }
+                });
+            }
+            return blockingTx;
+        }
+
+        private static <K> void addBlockingTx(List<Transaction<K>> blockingTx, Transaction<K> waitingTx, Transaction<K> tx) {
+            if (tx != null && tx != waitingTx) {
+                blockingTx.add(tx);
+            }
+        }
+
+        /**
+         * Method releases exclusive lock. Called by owner only.
+         */
+        private void unlockExclusive() {
+            if (count(state_.get(), X_SHIFT, X_MASK) == 1) {
+                ownerTx_ = null;
+            }
+            state_.addAndGet(-(1L << X_SHIFT));
+            signalWaiters();
+        }
+
+        private void unlockShared(Transaction<K> tx) {
+            sharedHolders_.unhold(tx);
+            state_.addAndGet(-(1L << S_SHIFT));
+            signalWaiters();
+        }
+
+        private void signalWaiters() {
+            //Waiter is counted before it checks the state, so it either sees released lock or is signalled.
+            if (waiterCount_ > 0) {
+                waitLock_.lock();
+                try {
+                    changed_.signalAll();
+                } finally {
+                    waitLock_.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends AsyncEntityLocker, adding lease locks.
+ * <p>
+ * Lease lock is a lock owned by {@link LockHandle}, which is revoked automatically when its lease expires,
+ * so the key locked by hung code is released in bounded time. After revocation the handle is not locked anymore,
+ * {@link LockHandle#unlock()} throws exception, and revocation listener is called.
+ * <p>
+ * Leases and waiting timeouts are tracked by {@link com.ivvlev.util.concurrent.HashedWheelTimer} with precision
+ * of {@link #LEASE_TICK_MILLIS} milliseconds.
+ */
+public interface LeaseEntityLocker<K> extends AsyncEntityLocker<K> {
+    /**
+     * Tick of timer, which tracks leases, in milliseconds.
+     */
+    long LEASE_TICK_MILLIS = 10;
+
+    /**
+     * Method perform lease lock of key.
+     *
+     * @param key                Entity key.
+     * @param leaseTime          the time after which the lock is revoked
+     * @param unit               the time unit of the leaseTime argument
+     * @param revocationListener Listener called after the lock has been revoked, can be null.
+     * @return Lock handle. Key held by the handle is treated as held by current thread by deadlock detection,
+     * so current thread can't wait for the key until the handle is unlocked.
+     * @throws DeadlockException     if the key is locked by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    LockHandle<K> lockLease(K key, long leaseTime, TimeUnit unit, Consumer<? super LockHandle<K>> revocationListener);
+
+    /**
+     * Method perform attempt to lease lock of key with timeout.
+     *
+     * @param key                Entity key.
+     * @param timeout            the time to wait for the lock
+     * @param leaseTime          the time after which the lock is revoked
+     * @param unit               the time unit of the timeout and leaseTime arguments
+     * @param revocationListener Listener called after the lock has been revoked, can be null.
+     * @return Lock handle or null, if timeout occurs. Key held by the handle is treated as held by current thread
+     * by deadlock detection, the same way as by {@link #lockLease(Object, long, TimeUnit, Consumer)}.
+     * @throws DeadlockException     if the key is locked by current thread
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    LockHandle<K> tryLockLease(K key, long timeout, long leaseTime, TimeUnit unit,
+                               Consumer<? super LockHandle<K>> revocationListener);
+
+    /**
+     * Method perform asynchronous lease lock of key. Lease starts when the key is locked.
+     *
+     * @param key                Entity key.
+     * @param leaseTime          the time after which the lock is revoked
+     * @param unit               the time unit of the leaseTime argument
+     * @param revocationListener Listener called after the lock has been revoked, can be null.
+     * @return Future of lock handle.
+     */
+    CompletableFuture<LockHandle<K>> lockLeaseAsync(K key, long leaseTime, TimeUnit unit,
+                                                    Consumer<? super LockHandle<K>> revocationListener);
+
+}
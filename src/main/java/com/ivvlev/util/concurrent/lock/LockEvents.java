@@ -0,0 +1,181 @@
+package com.ivvlev.util.concurrent.lock;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of lockers. Thread of event is recorded by JFR itself.
+ * <p>
+ * Lockers check whether an event is enabled on a shared probe instance and create the event only if it is,
+ * so no event is allocated on the lock path while no recording has enabled it. Wait event is created only after
+ * an optimistic attempt to lock the key has failed. Key is converted to string only for committed events.
+ * <p>
+ * Events cover threads locking keys and global lock of {@link GlobalEntityLockerImpl}. Asynchronous locks,
+ * which do not block threads, and namespace locks of {@link HierarchicalEntityLockerImpl} do not record events.
+ * Waits and holds are committed only if they are longer than threshold, 10 ms by default, which can be changed
+ * in recording settings by event name, e.g. {@code com.ivvlev.EntityLockWait#threshold=1 ms}.
+ */
+final class LockEvents {
+    private static final String CATEGORY = "Entity Locker";
+    /**
+     * Instances used only to check whether events are enabled, {@link Event#isEnabled()} does not depend on
+     * state of instance.
+     */
+    private static final EntityLockWait ENTITY_LOCK_WAIT_PROBE = new EntityLockWait();
+    private static final EntityLockTimeout ENTITY_LOCK_TIMEOUT_PROBE = new EntityLockTimeout();
+    private static final EntityLockDeadlock ENTITY_LOCK_DEADLOCK_PROBE = new EntityLockDeadlock();
+    private static final GlobalLockWait GLOBAL_LOCK_WAIT_PROBE = new GlobalLockWait();
+    private static final GlobalLockHold GLOBAL_LOCK_HOLD_PROBE = new GlobalLockHold();
+
+    private LockEvents() {
+    }
+
+    @Name("com.ivvlev.EntityLockWait")
+    @Label("Entity Lock Wait")
+    @Description("Thread has waited for the key locked by other thread")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(true)
+    static final class EntityLockWait extends Event {
+        @Label("Key")
+        String key;
+        @Label("Mode")
+        String mode;
+    }
+
+    @Name("com.ivvlev.EntityLockTimeout")
+    @Label("Entity Lock Timeout")
+    @Description("Thread has not locked the key during timeout")
+    @Category(CATEGORY)
+    @StackTrace(true)
+    static final class EntityLockTimeout extends Event {
+        @Label("Key")
+        String key;
+        @Label("Mode")
+        String mode;
+        @Label("Wait Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitDuration;
+    }
+
+    @Name("com.ivvlev.EntityLockDeadlock")
+    @Label("Entity Lock Deadlock")
+    @Description("Lock of the key would close wait cycle of threads")
+    @Category(CATEGORY)
+    @StackTrace(true)
+    static final class EntityLockDeadlock extends Event {
+        @Label("Key")
+        String key;
+        @Label("Mode")
+        String mode;
+        @Label("Wait Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitDuration;
+        @Label("Message")
+        String message;
+    }
+
+    @Name("com.ivvlev.GlobalLockWait")
+    @Label("Global Lock Wait")
+    @Description("Thread has waited to set global lock or to take keys while global lock is set by other thread")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(true)
+    static final class GlobalLockWait extends Event {
+        @Label("Lock Global")
+        @Description("true, if thread has waited to set global lock, false - to take keys")
+        boolean global;
+        @Label("Timed Out")
+        boolean timedOut;
+    }
+
+    @Name("com.ivvlev.GlobalLockHold")
+    @Label("Global Lock Hold")
+    @Description("Global lock has been held by thread")
+    @Category(CATEGORY)
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static final class GlobalLockHold extends Event {
+    }
+
+    /**
+     * Check is any event of entity lock enabled in running recording.
+     */
+    static boolean isEntityLockEnabled() {
+        return ENTITY_LOCK_WAIT_PROBE.isEnabled() || ENTITY_LOCK_TIMEOUT_PROBE.isEnabled()
+                || ENTITY_LOCK_DEADLOCK_PROBE.isEnabled();
+    }
+
+    /**
+     * Method creates and begins event of wait for the key.
+     *
+     * @return Begun event, or null, if the event is not enabled.
+     */
+    static EntityLockWait beginEntityLockWait() {
+        if (!ENTITY_LOCK_WAIT_PROBE.isEnabled()) {
+            return null;
+        }
+        final EntityLockWait event = new EntityLockWait();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Check is event of global lock wait enabled in running recording.
+     */
+    static boolean isGlobalLockWaitEnabled() {
+        return GLOBAL_LOCK_WAIT_PROBE.isEnabled();
+    }
+
+    /**
+     * Check is event of global lock hold enabled in running recording.
+     */
+    static boolean isGlobalLockHoldEnabled() {
+        return GLOBAL_LOCK_HOLD_PROBE.isEnabled();
+    }
+
+    /**
+     * Method commits contended wait for the key, if it is longer than threshold.
+     *
+     * @param event Event begun before waiting
+     */
+    static void commitWait(EntityLockWait event, Object key, boolean shared, boolean upgradable) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.key = String.valueOf(key);
+            event.mode = modeOf(shared, upgradable);
+            event.commit();
+        }
+    }
+
+    static void commitTimeout(Object key, boolean shared, boolean upgradable, long waitNanos) {
+        final EntityLockTimeout event = new EntityLockTimeout();
+        if (event.shouldCommit()) {
+            event.key = String.valueOf(key);
+            event.mode = modeOf(shared, upgradable);
+            event.waitDuration = waitNanos;
+            event.commit();
+        }
+    }
+
+    static void commitDeadlock(Object key, boolean shared, boolean upgradable, long waitNanos, String message) {
+        final EntityLockDeadlock event = new EntityLockDeadlock();
+        if (event.shouldCommit()) {
+            event.key = String.valueOf(key);
+            event.mode = modeOf(shared, upgradable);
+            event.waitDuration = waitNanos;
+            event.message = message;
+            event.commit();
+        }
+    }
+
+    private static String modeOf(boolean shared, boolean upgradable) {
+        return shared ? "shared" : upgradable ? "upgradable" : "exclusive";
+    }
+}
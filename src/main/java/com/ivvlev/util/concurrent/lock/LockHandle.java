@@ -0,0 +1,39 @@
+package com.ivvlev.util.concurrent.lock;
+
+/**
+ * Lock of entity key, which is unlocked by the handle without looking the key up.
+ * <p>
+ * Handle returned by {@link EntityLocker#acquire(Object)} holds the lock of current thread and must be unlocked
+ * by this thread. Handle of asynchronous or lease lock owns the lock instead of the thread, it can be unlocked
+ * by any thread, but must not be used by several threads concurrently.
+ */
+public interface LockHandle<K> extends AutoCloseable {
+
+    /**
+     * Method return locked key.
+     *
+     * @return Entity key.
+     */
+    K getKey();
+
+    /**
+     * Check is key still locked by the handle.
+     *
+     * @return {@code true} if the handle has not been unlocked yet.
+     */
+    boolean isLocked();
+
+    /**
+     * Method perform unlock of key.
+     *
+     * @throws EntityLockerException if the handle has been unlocked before or is unlocked by wrong thread
+     */
+    void unlock();
+
+    /**
+     * Method perform unlock of key, if it is still locked by the handle.
+     * Method is implemented for using of handle in try-with-resources statement.
+     */
+    @Override
+    void close();
+}
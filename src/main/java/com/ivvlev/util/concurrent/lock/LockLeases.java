@@ -0,0 +1,92 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.concurrent.HashedWheelTimer;
+import com.ivvlev.util.concurrent.TimeoutException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Lease scheduling of lockers. Leases of lock handles and waiting timeouts of lease locks are tracked by single
+ * {@link HashedWheelTimer} shared by all lockers, with precision of {@link LeaseEntityLocker#LEASE_TICK_MILLIS}
+ * milliseconds. Timer thread is created when the first lease lock is requested.
+ * <p>
+ * Timer thread only changes state of handle and releases the key, listeners are notified by executor of the handle.
+ */
+final class LockLeases {
+    private LockLeases() {
+    }
+
+    /**
+     * Method return lease time in nanoseconds.
+     *
+     * @throws IllegalArgumentException if lease time is not positive.
+     */
+    static long toLeaseNanos(long leaseTime, TimeUnit unit) {
+        final long leaseNanos = unit.toNanos(leaseTime);
+        if (leaseNanos <= 0) {
+            throw new IllegalArgumentException("Lease time must be positive");
+        }
+        return leaseNanos;
+    }
+
+    /**
+     * Method schedules revocation of the lock after lease time.
+     *
+     * @param leaseNanos Lease time in nanoseconds or zero, if the lock is not revoked.
+     * @return Lease, which must be cancelled when the lock is released, or null, if the lock is not revoked.
+     */
+    static HashedWheelTimer.Timeout startLease(Runnable revoke, long leaseNanos) {
+        return leaseNanos > 0 ? TimerHolder.TIMER.schedule(revoke, leaseNanos, TimeUnit.NANOSECONDS) : null;
+    }
+
+    /**
+     * Method schedules exceptional completion of the future with {@link TimeoutException}.
+     *
+     * @param timeoutNanos Timeout in nanoseconds or negative value to wait infinitely.
+     * @return Timeout, which must be cancelled when the future has been completed, or null, if nothing is scheduled.
+     */
+    static HashedWheelTimer.Timeout scheduleTimeout(CompletableFuture<?> future, long timeoutNanos) {
+        if (timeoutNanos < 0 || future.isDone()) {
+            return null;
+        }
+        return TimerHolder.TIMER.schedule(() -> future.completeExceptionally(new TimeoutException()),
+                timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Method cancels lease or timeout returned by this class. Null is ignored.
+     */
+    static void cancel(HashedWheelTimer.Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Method notifies listener, that lease of the handle has expired. Listener is executed by the executor,
+     * or by the current thread, if the executor rejects it.
+     */
+    static <H> void notifyRevoked(H handle, Consumer<? super H> revocationListener, Executor executor) {
+        if (revocationListener == null) {
+            return;
+        }
+        final Runnable notify = () -> revocationListener.accept(handle);
+        try {
+            executor.execute(notify);
+        } catch (RejectedExecutionException e) {
+            notify.run();
+        }
+    }
+
+    /**
+     * Timer of leases, shared by all lockers. Created when the first lease lock is requested.
+     */
+    private static final class TimerHolder {
+        private static final HashedWheelTimer TIMER = new HashedWheelTimer(LeaseEntityLocker.LEASE_TICK_MILLIS,
+                TimeUnit.MILLISECONDS, 512, "entity-locker-lease-timer");
+    }
+}
@@ -0,0 +1,117 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention counters of locker. Created when metrics are enabled, so disabled locker pays only for null check.
+ * Recording does not allocate memory, except of the cells of {@link LongAdder}, which are created once under contention.
+ * <p>
+ * Times are counted in histograms with power of two buckets: bucket i counts times in range [2^(i-1)..2^i) nanoseconds,
+ * bucket 0 counts zero times.
+ * <p>
+ * Hot keys are counted by contended acquisitions in small hash table. Key which collides with another key in the table
+ * decrements its counter and takes the slot, when the counter reaches zero, so keys contended often keep their slots.
+ */
+final class LockMetrics<K> {
+    static final int BUCKET_COUNT = 64;
+    private static final int HOT_KEY_SLOTS = 64;
+
+    private final LongAdder acquisitions_ = new LongAdder();
+    private final LongAdder contendedAcquisitions_ = new LongAdder();
+    private final LongAdder timeouts_ = new LongAdder();
+    private final LongAdder deadlocks_ = new LongAdder();
+    private final AtomicLongArray waitTimeHistogram_ = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLongArray holdTimeHistogram_ = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicReferenceArray<K> hotKeys_ = new AtomicReferenceArray<>(HOT_KEY_SLOTS);
+    private final AtomicLongArray hotKeyCounts_ = new AtomicLongArray(HOT_KEY_SLOTS);
+
+    /**
+     * Method counts acquisition, which has not waited.
+     */
+    void recordAcquisition() {
+        acquisitions_.increment();
+    }
+
+    /**
+     * Method counts acquisition, which has waited for the key.
+     *
+     * @param key       Entity key
+     * @param waitNanos Time of waiting
+     */
+    void recordContendedAcquisition(K key, long waitNanos) {
+        acquisitions_.increment();
+        contendedAcquisitions_.increment();
+        waitTimeHistogram_.incrementAndGet(bucketOf(waitNanos));
+        recordHotKey(key);
+    }
+
+    /**
+     * Method counts attempt to lock, which has waited for the key and has failed.
+     *
+     * @param key       Entity key
+     * @param waitNanos Time of waiting
+     * @param deadlock  true, if attempt has failed due to deadlock, false - due to timeout.
+     */
+    void recordFailure(K key, long waitNanos, boolean deadlock) {
+        (deadlock ? deadlocks_ : timeouts_).increment();
+        waitTimeHistogram_.incrementAndGet(bucketOf(waitNanos));
+        recordHotKey(key);
+    }
+
+    void recordHold(long holdNanos) {
+        holdTimeHistogram_.incrementAndGet(bucketOf(holdNanos));
+    }
+
+    private void recordHotKey(K key) {
+        final int h = key.hashCode();
+        final int slot = (h ^ (h >>> 16)) & (HOT_KEY_SLOTS - 1);
+        final K slotKey = hotKeys_.get(slot);
+        if (slotKey == null) {
+            if (hotKeys_.compareAndSet(slot, null, key)) {
+                hotKeyCounts_.set(slot, 1);
+            }
+        } else if (slotKey.equals(key)) {
+            hotKeyCounts_.incrementAndGet(slot);
+        } else if (hotKeyCounts_.decrementAndGet(slot) <= 0 && hotKeys_.compareAndSet(slot, slotKey, key)) {
+            hotKeyCounts_.set(slot, 1);
+        }
+    }
+
+    static int bucketOf(long nanos) {
+        return nanos <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Method makes snapshot of counters. Counters are read one by one, while they can be changed.
+     *
+     * @param hotKeyCount Max number of hot keys in snapshot.
+     * @return Snapshot
+     */
+    LockMetricsSnapshot<K> snapshot(int hotKeyCount) {
+        final List<LockMetricsSnapshot.HotKey<K>> hotKeys = new ArrayList<>();
+        for (int i = 0; i < HOT_KEY_SLOTS; i++) {
+            final K key = hotKeys_.get(i);
+            final long count = hotKeyCounts_.get(i);
+            if (key != null && count > 0) {
+                hotKeys.add(new LockMetricsSnapshot.HotKey<>(key, count));
+            }
+        }
+        hotKeys.sort(Comparator.comparingLong(LockMetricsSnapshot.HotKey<K>::getContentionCount).reversed());
+        return new LockMetricsSnapshot<>(acquisitions_.sum(), contendedAcquisitions_.sum(), timeouts_.sum(),
+                deadlocks_.sum(), toArray(waitTimeHistogram_), toArray(holdTimeHistogram_),
+                hotKeys.subList(0, Math.min(hotKeyCount, hotKeys.size())));
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        final long[] result = new long[histogram.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = histogram.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of contention metrics of locker.
+ * <p>
+ * Histograms have power of two buckets: bucket i counts times in range [2^(i-1)..2^i) nanoseconds,
+ * bucket 0 counts zero times. Wait time is counted for acquisitions and failed attempts, which have waited.
+ * Hold time is counted for exclusive locks only.
+ */
+public final class LockMetricsSnapshot<K> {
+    private final long acquisitions_;
+    private final long contendedAcquisitions_;
+    private final long timeouts_;
+    private final long deadlocks_;
+    private final long[] waitTimeHistogram_;
+    private final long[] holdTimeHistogram_;
+    private final List<HotKey<K>> hotKeys_;
+
+    LockMetricsSnapshot(long acquisitions, long contendedAcquisitions, long timeouts, long deadlocks,
+                        long[] waitTimeHistogram, long[] holdTimeHistogram, List<HotKey<K>> hotKeys) {
+        this.acquisitions_ = acquisitions;
+        this.contendedAcquisitions_ = contendedAcquisitions;
+        this.timeouts_ = timeouts;
+        this.deadlocks_ = deadlocks;
+        this.waitTimeHistogram_ = waitTimeHistogram;
+        this.holdTimeHistogram_ = holdTimeHistogram;
+        this.hotKeys_ = Collections.unmodifiableList(new ArrayList<>(hotKeys));
+    }
+
+    /**
+     * Method return the number of successful locks of keys in any mode, including reentrant locks.
+     *
+     * @return acquisition count
+     */
+    public long getAcquisitions() {
+        return acquisitions_;
+    }
+
+    /**
+     * Method return the number of successful locks, which have waited for the key.
+     *
+     * @return contended acquisition count
+     */
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions_;
+    }
+
+    /**
+     * Method return the number of attempts to lock, failed by timeout.
+     *
+     * @return timeout count
+     */
+    public long getTimeouts() {
+        return timeouts_;
+    }
+
+    /**
+     * Method return the number of attempts to lock, failed by deadlock.
+     *
+     * @return deadlock count
+     */
+    public long getDeadlocks() {
+        return deadlocks_;
+    }
+
+    /**
+     * Method return histogram of wait time.
+     *
+     * @return Counts by buckets
+     */
+    public long[] getWaitTimeHistogram() {
+        return waitTimeHistogram_.clone();
+    }
+
+    /**
+     * Method return histogram of hold time of exclusive locks.
+     *
+     * @return Counts by buckets
+     */
+    public long[] getHoldTimeHistogram() {
+        return holdTimeHistogram_.clone();
+    }
+
+    /**
+     * Method return approximate percentile of wait time.
+     *
+     * @param fraction Percentile in range [0..1], e.g. 0.99.
+     * @return Upper bound of bucket, containing the percentile, in nanoseconds. 0, if nothing has waited.
+     */
+    public long getWaitTimePercentileNanos(double fraction) {
+        return percentile(waitTimeHistogram_, fraction);
+    }
+
+    /**
+     * Method return approximate percentile of hold time.
+     *
+     * @param fraction Percentile in range [0..1], e.g. 0.99.
+     * @return Upper bound of bucket, containing the percentile, in nanoseconds. 0, if nothing has been held.
+     */
+    public long getHoldTimePercentileNanos(double fraction) {
+        return percentile(holdTimeHistogram_, fraction);
+    }
+
+    /**
+     * Method return the keys with the most contended acquisitions, in descending order of count.
+     * Counts are approximate.
+     *
+     * @return Hot keys
+     */
+    public List<HotKey<K>> getHotKeys() {
+        return hotKeys_;
+    }
+
+    /**
+     * Method return upper bound of histogram bucket.
+     *
+     * @param bucket Bucket index
+     * @return Exclusive upper bound of bucket in nanoseconds.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        return bucket >= LockMetrics.BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static long percentile(long[] histogram, double fraction) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(fraction * total);
+        long count = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            count += histogram[i];
+            if (count >= rank && count > 0) {
+                return getBucketUpperBoundNanos(i);
+            }
+        }
+        return getBucketUpperBoundNanos(histogram.length - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquisitions=%s, contended=%s, timeouts=%s, deadlocks=%s, wait p50/p99=%s/%s ns, " +
+                        "hold p50/p99=%s/%s ns, hotKeys=%s", acquisitions_, contendedAcquisitions_, timeouts_, deadlocks_,
+                getWaitTimePercentileNanos(0.5), getWaitTimePercentileNanos(0.99),
+                getHoldTimePercentileNanos(0.5), getHoldTimePercentileNanos(0.99), hotKeys_);
+    }
+
+    /**
+     * Key and the number of its contended locks.
+     */
+    public static final class HotKey<K> {
+        private final K key_;
+        private final long contentionCount_;
+
+        HotKey(K key, long contentionCount) {
+            this.key_ = key;
+            this.contentionCount_ = contentionCount;
+        }
+
+        public K getKey() {
+            return key_;
+        }
+
+        public long getContentionCount() {
+            return contentionCount_;
+        }
+
+        @Override
+        public String toString() {
+            return key_ + "=" + contentionCount_;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.ivvlev.util.concurrent.lock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of lock table of locker: which threads hold which keys, and which threads wait for them.
+ * <p>
+ * Snapshot is taken without blocking of locks, so it is not atomic. State of each key is read at once, but keys and
+ * waiting threads are read one by one, while they can be changed, e.g. thread can be seen waiting for the key, which
+ * it has already locked. Thread identifier -1 means asynchronous lock handle, which does not belong to any thread.
+ */
+public final class LockTableSnapshot<K> {
+    private final List<KeyLock<K>> keys_;
+    private final long globalLockThreadId_;
+    private final List<Long> globalLockWaiterThreadIds_;
+    private final List<Long> globalUnlockWaiterThreadIds_;
+
+    LockTableSnapshot(List<KeyLock<K>> keys, long globalLockThreadId, List<Long> globalLockWaiterThreadIds,
+                      List<Long> globalUnlockWaiterThreadIds) {
+        this.keys_ = Collections.unmodifiableList(new ArrayList<>(keys));
+        this.globalLockThreadId_ = globalLockThreadId;
+        this.globalLockWaiterThreadIds_ = Collections.unmodifiableList(new ArrayList<>(globalLockWaiterThreadIds));
+        this.globalUnlockWaiterThreadIds_ = Collections.unmodifiableList(new ArrayList<>(globalUnlockWaiterThreadIds));
+    }
+
+    /**
+     * Method return the keys, which are locked or waited by any thread.
+     * Striped lockers do not know keys of their stripes, so they do not report keys.
+     *
+     * @return Keys in any order
+     */
+    public List<KeyLock<K>> getKeys() {
+        return keys_;
+    }
+
+    /**
+     * Method return the key of snapshot.
+     *
+     * @param key Entity key
+     * @return State of key, or null, if key is not locked nor waited.
+     */
+    public KeyLock<K> getKey(K key) {
+        for (KeyLock<K> keyLock : keys_) {
+            if (keyLock.getKey().equals(key)) {
+                return keyLock;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method return identifier of thread, which holds global lock or waits for other threads to release their keys.
+     *
+     * @return Thread identifier, or -1, if global lock is not set or locker has no global lock.
+     */
+    public long getGlobalLockThreadId() {
+        return globalLockThreadId_;
+    }
+
+    /**
+     * Method return identifiers of threads waiting to set global lock. Owner of global lock, which waits for other
+     * threads to release their keys, is included also.
+     *
+     * @return Thread identifiers
+     */
+    public List<Long> getGlobalLockWaiterThreadIds() {
+        return globalLockWaiterThreadIds_;
+    }
+
+    /**
+     * Method return identifiers of threads waiting to lock keys, while global lock is set by another thread.
+     *
+     * @return Thread identifiers
+     */
+    public List<Long> getGlobalUnlockWaiterThreadIds() {
+        return globalUnlockWaiterThreadIds_;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("globalLockThread=%s, globalLockWaiters=%s, globalUnlockWaiters=%s, keys=%s",
+                globalLockThreadId_, globalLockWaiterThreadIds_, globalUnlockWaiterThreadIds_, keys_);
+    }
+
+    /**
+     * Lock mode of key.
+     */
+    public enum Mode {
+        EXCLUSIVE,
+        SHARED,
+        UPGRADABLE
+    }
+
+    /**
+     * State of key: holders of the key in each mode and threads waiting for it.
+     */
+    public static final class KeyLock<K> {
+        private final K key_;
+        private final long ownerThreadId_;
+        private final long holdCount_;
+        private final long upgradableOwnerThreadId_;
+        private final Map<Long, Long> sharedHoldCounts_;
+        private final List<Waiter> waiters_;
+
+        KeyLock(K key, long ownerThreadId, long holdCount, long upgradableOwnerThreadId,
+                Map<Long, Long> sharedHoldCounts, List<Waiter> waiters) {
+            this.key_ = key;
+            this.ownerThreadId_ = ownerThreadId;
+            this.holdCount_ = holdCount;
+            this.upgradableOwnerThreadId_ = upgradableOwnerThreadId;
+            this.sharedHoldCounts_ = Collections.unmodifiableMap(new LinkedHashMap<>(sharedHoldCounts));
+            this.waiters_ = Collections.unmodifiableList(new ArrayList<>(waiters));
+        }
+
+        public K getKey() {
+            return key_;
+        }
+
+        /**
+         * Method return identifier of thread, which holds the key exclusively.
+         *
+         * @return Thread identifier, or -1, if the key is not locked exclusively or locked by asynchronous handle.
+         */
+        public long getOwnerThreadId() {
+            return ownerThreadId_;
+        }
+
+        /**
+         * Method return the number of exclusive locks of the key, including reentrant locks.
+         *
+         * @return Hold count, 0 - the key is not locked exclusively.
+         */
+        public long getHoldCount() {
+            return holdCount_;
+        }
+
+        /**
+         * Method return identifier of thread, which holds upgradable lock of the key.
+         *
+         * @return Thread identifier, or -1, if the key is not locked upgradable.
+         */
+        public long getUpgradableOwnerThreadId() {
+            return upgradableOwnerThreadId_;
+        }
+
+        /**
+         * Method return the numbers of shared locks of the key by threads, including reentrant locks.
+         *
+         * @return Hold counts by thread identifiers
+         */
+        public Map<Long, Long> getSharedHoldCounts() {
+            return sharedHoldCounts_;
+        }
+
+        /**
+         * Method return the threads waiting for the key.
+         *
+         * @return Waiters in any order
+         */
+        public List<Waiter> getWaiters() {
+            return waiters_;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: owner=%s, holdCount=%s, upgradableOwner=%s, shared=%s, waiters=%s",
+                    key_, ownerThreadId_, holdCount_, upgradableOwnerThreadId_, sharedHoldCounts_, waiters_);
+        }
+    }
+
+    /**
+     * Thread waiting for the key.
+     */
+    public static final class Waiter {
+        private final long threadId_;
+        private final Mode mode_;
+
+        Waiter(long threadId, Mode mode) {
+            this.threadId_ = threadId;
+            this.mode_ = mode;
+        }
+
+        public long getThreadId() {
+            return threadId_;
+        }
+
+        /**
+         * Method return the mode, in which the key is waited. Promotion of upgradable lock is waited in exclusive mode.
+         *
+         * @return Lock mode
+         */
+        public Mode getMode() {
+            return mode_;
+        }
+
+        @Override
+        public String toString() {
+            return threadId_ + "=" + mode_;
+        }
+    }
+}
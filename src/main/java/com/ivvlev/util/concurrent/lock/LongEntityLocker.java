@@ -0,0 +1,187 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.concurrent.TimeoutException;
+import com.ivvlev.util.function.Procedure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends ReadWriteEntityLocker of {@code long} keys, adding methods which take primitive keys,
+ * so the key is not boxed. {@code int} keys are widened to {@code long} by these methods without boxing also.
+ * <p>
+ * Primitive and boxed methods lock the same keys: key locked by {@link #lock(long)} can be unlocked
+ * by {@link #unlock(Object)} and vice versa.
+ */
+public interface LongEntityLocker extends ReadWriteEntityLocker<Long> {
+
+    /**
+     * Method perform lock of key.
+     *
+     * @param key Entity key.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lock(long key);
+
+    /**
+     * Method perform attempt to lock of key with timeout.
+     *
+     * @param key     Entity key
+     * @param timeout the time to wait for the lock
+     * @param unit    the time unit of the timeout argument
+     * @return {@code true} if success, else {@code false}.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLock(long key, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform unlock of key.
+     *
+     * @param key Entity key.
+     */
+    void unlock(long key);
+
+    /**
+     * Check is key currently locked by current thread.
+     *
+     * @param key Entity key.
+     * @return {@code true} if key locked by current thread, else {@code false}.
+     */
+    boolean isLockedByCurrentThread(long key);
+
+    /**
+     * Method perform shared lock of key.
+     *
+     * @param key Entity key.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockShared(long key);
+
+    /**
+     * Method perform attempt to shared lock of key with timeout.
+     *
+     * @param key     Entity key
+     * @param timeout the time to wait for the lock
+     * @param unit    the time unit of the timeout argument
+     * @return {@code true} if success, else {@code false}.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockShared(long key, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform shared unlock of key.
+     *
+     * @param key Entity key.
+     */
+    void unlockShared(long key);
+
+    /**
+     * Check is key currently locked in shared mode by current thread.
+     *
+     * @param key Entity key.
+     * @return {@code true} if key locked in shared mode by current thread, else {@code false}.
+     */
+    boolean isSharedLockedByCurrentThread(long key);
+
+    /**
+     * The method locks the passed key for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forLock(long key, Supplier<R> protectedMethod);
+
+    /**
+     * The method locks the passed key for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forLock(long key, Procedure protectedMethod);
+
+    /**
+     * The method locks the passed key for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @return The result of anonymous method
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forLock(long key, Supplier<R> protectedMethod, long timeout, TimeUnit unit);
+
+    /**
+     * The method locks the passed key for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forLock(long key, Procedure protectedMethod, long timeout, TimeUnit unit);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forSharedLock(long key, Supplier<R> protectedMethod);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forSharedLock(long key, Procedure protectedMethod);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @return The result of anonymous method
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forSharedLock(long key, Supplier<R> protectedMethod, long timeout, TimeUnit unit);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forSharedLock(long key, Procedure protectedMethod, long timeout, TimeUnit unit);
+
+}
@@ -0,0 +1,423 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.concurrent.TimeoutException;
+import com.ivvlev.util.function.Procedure;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Implementation of EntityLocker for {@code long} keys.
+ * <p>
+ * Key entries are kept in hash table with open addressing, which stores keys in {@code long[]} array, so lock/unlock
+ * cycle of primitive key does not box the key. Table is divided into segments, each one is guarded by its own
+ * {@link ReentrantLock}. Entries of unlocked keys are removed from table and are kept in small pool of segment
+ * for reuse, so lock/unlock cycle does not create garbage, once the table has grown to the number of locked keys.
+ * <p>
+ * All guarantees of {@link EntityLockerImpl} are given, including reentrancy, shared locks and deadlock detection.
+ * <p>
+ * Keys are boxed only while contention metrics are enabled, for hot key statistics.
+ */
+public class LongEntityLockerImpl extends EntityLockerAbst<Long> implements LongEntityLocker {
+    /**
+     * Segment count used by default constructor.
+     */
+    public static final int DEFAULT_SEGMENT_COUNT = 64;
+    /**
+     * Max segment count.
+     */
+    public static final int MAX_SEGMENT_COUNT = 1 << 16;
+
+    private final Segment[] segments_;
+    private final int segmentShift_;
+
+    public LongEntityLockerImpl() {
+        this(DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * @param segmentCount Number of table segments, which can be used concurrently. Rounded up to the nearest power of two.
+     */
+    public LongEntityLockerImpl(int segmentCount) {
+        if (segmentCount <= 0 || segmentCount > MAX_SEGMENT_COUNT) {
+            throw new IllegalArgumentException(String.format("Segment count must be in range [1..%s]", MAX_SEGMENT_COUNT));
+        }
+        final int size = segmentCount == 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        segments_ = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments_[i] = new Segment();
+        }
+        segmentShift_ = 64 - Integer.numberOfTrailingZeros(size);
+    }
+
+    @Override
+    public void lock(long key) {
+        doLock(key, false, NO_TIMEOUT);
+    }
+
+    @Override
+    public boolean tryLock(long key, long timeout, TimeUnit unit) {
+        return doLock(key, false, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void unlock(long key) {
+        doUnlock(key, false);
+    }
+
+    @Override
+    public boolean isLockedByCurrentThread(long key) {
+        final Entry<Long> entry = segmentFor(key).find(key);
+        return entry != null && entry.isHeldBy(getTransaction());
+    }
+
+    @Override
+    public void lockShared(long key) {
+        doLock(key, true, NO_TIMEOUT);
+    }
+
+    @Override
+    public boolean tryLockShared(long key, long timeout, TimeUnit unit) {
+        return doLock(key, true, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void unlockShared(long key) {
+        doUnlock(key, true);
+    }
+
+    @Override
+    public boolean isSharedLockedByCurrentThread(long key) {
+        final Entry<Long> entry = segmentFor(key).find(key);
+        return entry != null && entry.isHeldSharedBy(getTransaction());
+    }
+
+    @Override
+    public <R> R forLock(long key, Supplier<R> protectedMethod) {
+        return doForLock(key, false, protectedMethod, NO_TIMEOUT);
+    }
+
+    @Override
+    public void forLock(long key, Procedure protectedMethod) {
+        forLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public <R> R forLock(long key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+        return doForLock(key, false, protectedMethod, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void forLock(long key, Procedure protectedMethod, long timeout, TimeUnit unit) {
+        forLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        }, timeout, unit);
+    }
+
+    @Override
+    public <R> R forSharedLock(long key, Supplier<R> protectedMethod) {
+        return doForLock(key, true, protectedMethod, NO_TIMEOUT);
+    }
+
+    @Override
+    public void forSharedLock(long key, Procedure protectedMethod) {
+        forSharedLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        });
+    }
+
+    @Override
+    public <R> R forSharedLock(long key, Supplier<R> protectedMethod, long timeout, TimeUnit unit) {
+        return doForLock(key, true, protectedMethod, toTimeoutNanos(timeout, unit));
+    }
+
+    @Override
+    public void forSharedLock(long key, Procedure protectedMethod, long timeout, TimeUnit unit) {
+        forSharedLock(key, () -> {
+            protectedMethod.exec();
+            return null;
+        }, timeout, unit);
+    }
+
+    private <R> R doForLock(long key, boolean shared, Supplier<R> protectedMethod, long timeoutNanos) {
+        Objects.requireNonNull(protectedMethod, "protectedMethod");
+        final Transaction<Long> tx = getTransaction();
+        final Segment segment = segmentFor(key);
+        final Entry<Long> entry = doLock(tx, segment, key, shared, timeoutNanos);
+        if (entry == null) {
+            throw new TimeoutException();
+        }
+        try {
+            return protectedMethod.get();
+        } finally {
+            doUnlock(tx, segment, key, entry, shared);
+        }
+    }
+
+    private boolean doLock(long key, boolean shared, long timeoutNanos) {
+        return doLock(getTransaction(), segmentFor(key), key, shared, timeoutNanos) != null;
+    }
+
+    /**
+     * Method locks the key.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return Entry of key, or null, if timeout has elapsed.
+     */
+    private Entry<Long> doLock(Transaction<Long> tx, Segment segment, long key, boolean shared, long timeoutNanos) {
+        final Entry<Long> entry = segment.acquire(key);
+        boolean locked = false;
+        try {
+            if (isMetricsEnabled() || LockEvents.isEntityLockEnabled()) {
+                //Key is boxed for hot key statistics and JFR events.
+                locked = lockEntry(tx, key, entry, shared, timeoutNanos);
+            } else {
+                try {
+                    locked = tx.lock(entry, shared, timeoutNanos) != Transaction.TIMED_OUT;
+                } catch (DeadlockException e) {
+                    throw new DeadlockException(String.format("Deadlock detected for key '%s'", key), e);
+                }
+            }
+        } finally {
+            if (!locked) {
+                segment.release(key);
+            }
+        }
+        return locked ? entry : null;
+    }
+
+    private void doUnlock(long key, boolean shared) {
+        final Segment segment = segmentFor(key);
+        final Entry<Long> entry = segment.find(key);
+        if (entry == null) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked", key));
+        }
+        final Transaction<Long> tx = getTransaction();
+        if (shared ? !tx.isHoldingSharedEntry(entry) : !tx.isHoldingEntry(entry)) {
+            throw new EntityLockerException(String.format("Key '%s' doesn't locked%s by thread '%s'", key,
+                    shared ? " in shared mode" : "", tx.threadId));
+        }
+        doUnlock(tx, segment, key, entry, shared);
+    }
+
+    private void doUnlock(Transaction<Long> tx, Segment segment, long key, Entry<Long> entry, boolean shared) {
+        unlockEntry(tx, entry, shared);
+        segment.release(key);
+    }
+
+    @Override
+    protected Entry<Long> acquireEntry(Long key, Transaction<Long> tx, long timeoutNanos) {
+        return segmentFor(key).acquire(key);
+    }
+
+    @Override
+    protected Entry<Long> findEntry(Long key) {
+        return segmentFor(key).find(key);
+    }
+
+    @Override
+    protected void releaseEntry(Long key, Transaction<Long> tx) {
+        segmentFor(key).release(key);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments_) {
+            count += segment.size();
+        }
+        return count;
+    }
+
+    @Override
+    protected void forEachEntry(BiConsumer<? super Long, ? super Entry<Long>> action) {
+        for (Segment segment : segments_) {
+            segment.forEach(action);
+        }
+    }
+
+    private Segment segmentFor(long key) {
+        return segments_[segmentShift_ == 64 ? 0 : (int) (hash(key) >>> segmentShift_)];
+    }
+
+    /**
+     * Finalization step of MurmurHash3. Spreads all bits of key to high bits, used for segment, and to low bits,
+     * used for slot of segment table.
+     */
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * Segment of key table. Hash table with open addressing and linear probing. Slot is empty, if its entry is null.
+     * Removed slots are filled by shifting following entries back, so the table does not need tombstones.
+     * All methods are called under the lock of segment.
+     */
+    private static final class Segment extends ReentrantLock {
+        private static final int INITIAL_CAPACITY = 16;
+        private static final int POOL_CAPACITY = 16;
+
+        private long[] keys_ = new long[INITIAL_CAPACITY];
+        private Entry<Long>[] entries_ = Entry.newArray(INITIAL_CAPACITY);
+        private int size_ = 0;
+        /**
+         * Entries of unlocked keys, which can be reused.
+         */
+        private final Entry<Long>[] pool_ = Entry.newArray(POOL_CAPACITY);
+        private int poolSize_ = 0;
+
+        /**
+         * Method takes entry of key, creating it if needed, and increments its usage counter.
+         *
+         * @param key Entity key
+         * @return Key entry
+         */
+        Entry<Long> acquire(long key) {
+            lock();
+            try {
+                int slot = slotOf(key);
+                if (entries_[slot] == null) {
+                    if (size_ >= (entries_.length >> 1) + (entries_.length >> 2)) {
+                        grow();
+                        slot = slotOf(key);
+                    }
+                    Entry<Long> entry;
+                    if (poolSize_ > 0) {
+                        entry = pool_[--poolSize_];
+                        pool_[poolSize_] = null;
+                    } else {
+                        entry = new Entry<>();
+                    }
+                    keys_[slot] = key;
+                    entries_[slot] = entry;
+                    size_++;
+                }
+                return entries_[slot].acquire();
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Method finds entry of key.
+         *
+         * @param key Entity key
+         * @return Key entry or null, if key is not used.
+         */
+        Entry<Long> find(long key) {
+            lock();
+            try {
+                return entries_[slotOf(key)];
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Method decrements usage counter of key entry and removes the entry, if it is not used anymore.
+         *
+         * @param key Entity key
+         */
+        void release(long key) {
+            lock();
+            try {
+                final int slot = slotOf(key);
+                final Entry<Long> entry = entries_[slot];
+                if (entry != null && entry.release() == null) {
+                    remove(slot);
+                    if (poolSize_ < POOL_CAPACITY) {
+                        pool_[poolSize_++] = entry;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Method copies keys and entries of segment under its lock, then passes them to the action without lock.
+         */
+        void forEach(BiConsumer<? super Long, ? super Entry<Long>> action) {
+            final long[] keys;
+            final Entry<Long>[] entries;
+            lock();
+            try {
+                keys = keys_.clone();
+                entries = entries_.clone();
+            } finally {
+                unlock();
+            }
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] != null) {
+                    action.accept(keys[i], entries[i]);
+                }
+            }
+        }
+
+        int size() {
+            lock();
+            try {
+                return size_;
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Method return the slot of key, or the empty slot where the key should be inserted.
+         */
+        private int slotOf(long key) {
+            final int mask = entries_.length - 1;
+            int slot = (int) hash(key) & mask;
+            while (entries_[slot] != null && keys_[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void remove(int slot) {
+            final int mask = entries_.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (entries_[next] != null) {
+                final int home = (int) hash(keys_[next]) & mask;
+                //Entry can fill the hole, if the hole is between its home slot and current slot cyclically.
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    keys_[hole] = keys_[next];
+                    entries_[hole] = entries_[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            entries_[hole] = null;
+            size_--;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys_;
+            final Entry<Long>[] oldEntries = entries_;
+            keys_ = new long[oldKeys.length << 1];
+            entries_ = Entry.newArray(oldEntries.length << 1);
+            for (int i = 0; i < oldEntries.length; i++) {
+                if (oldEntries[i] != null) {
+                    final int slot = slotOf(oldKeys[i]);
+                    keys_[slot] = oldKeys[i];
+                    entries_[slot] = oldEntries[i];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.concurrent.TimeoutException;
+import com.ivvlev.util.function.Procedure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Utility interface that provides synchronization mechanism similar to row-level DB locking.
+ * Interface extends EntityLocker, adding shared (read) locks.
+ * <p>
+ * Any number of threads can hold shared lock of the same key simultaneously.
+ * Exclusive lock, set by {@link #lock(Object)}, excludes both shared and exclusive locks of other threads.
+ * Thread which holds exclusive lock of key can also lock the key in shared mode.
+ * Thread which holds only shared lock of key can not lock the key in exclusive mode,
+ * such attempt is reported as {@link DeadlockException}.
+ */
+public interface ReadWriteEntityLocker<K> extends EntityLocker<K> {
+
+    /**
+     * Method perform shared lock of key.
+     *
+     * @param key Entity key.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockShared(K key);
+
+    /**
+     * Method perform attempt to shared lock of key with timeout.
+     *
+     * @param key     Entity key
+     * @param timeout the time to wait for the lock
+     * @param unit    the time unit of the timeout argument
+     * @return {@code true} if success, else {@code false}.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockShared(K key, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform shared unlock of key.
+     *
+     * @param key Entity key.
+     */
+    void unlockShared(K key);
+
+    /**
+     * Check is key currently locked in shared mode by current thread.
+     *
+     * @param key Entity key.
+     * @return {@code true} if key locked in shared mode by current thread, else {@code false}.
+     */
+    boolean isSharedLockedByCurrentThread(K key);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forSharedLock(K key, Supplier<R> protectedMethod);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forSharedLock(K key, Procedure protectedMethod);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @return The result of anonymous method
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forSharedLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit);
+
+    /**
+     * The method locks the passed key in shared mode for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forSharedLock(K key, Procedure protectedMethod, long timeout, TimeUnit unit);
+
+}
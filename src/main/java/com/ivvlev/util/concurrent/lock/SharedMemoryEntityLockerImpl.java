@@ -0,0 +1,515 @@
+package com.ivvlev.util.concurrent.lock;
+
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of EntityLocker, which excludes protected code of processes on the same host.
+ * <p>
+ * Processes share lock table in memory-mapped file, e.g. under /dev/shm. Keys are mapped onto fixed number of slots
+ * of the table the same way as onto stripes of {@link StripedEntityLockerImpl}, so all guarantees are given in terms
+ * of slots: keys with the same slot exclude each other. Hash code of key must be the same in all processes,
+ * e.g. hash code of String, Long or UUID.
+ * <p>
+ * Slot is owned by process as a whole while any thread of the process locks or waits for the key of the slot.
+ * Threads of the process are coordinated by stripes, as in {@link StripedEntityLockerImpl}, with reentrancy,
+ * shared locks and deadlock detection. Between processes:
+ * <p>
+ * 1. Ownership of slot is changed by CAS of single long word of the table through {@link VarHandle}.
+ * Owner word contains process id, start time of the process and locker instance, so the slot of dead process
+ * is recognized, even if its process id has been reused, and is taken over by waiting process.
+ * <p>
+ * 2. Process waiting for the slot polls the word with exponential backoff, because it can't be woken up by another
+ * process. Timeout and interruption are supported.
+ * <p>
+ * 3. Process waiting for the slot records itself in the second word of the slot. While another process waits,
+ * threads of the owner process, which do not hold keys of the slot yet, stop taking the slot for
+ * {@link #MAX_YIELD_NANOS}, so the slot is released and handed to the waiting process, even if threads of the owner
+ * lock keys of the slot one after another. Yield is limited, because threads holding the slot may wait for
+ * the yielding thread.
+ * <p>
+ * 4. Shared lock of key is shared by threads of one process only.
+ * <p>
+ * 5. {@link #lockAll(java.util.Collection)} takes slots in order of slot index, so processes locking the same keys
+ * in different order do not deadlock. Deadlock between processes is not detected otherwise, use timeouts,
+ * if processes can lock keys one by one in different order.
+ * <p>
+ * All processes must see each other's process ids, i.e. share PID namespace.
+ * Locker can't be used after {@link #close()}, lock table file is unmapped, when the locker is garbage collected.
+ */
+public class SharedMemoryEntityLockerImpl<K> extends StripedEntityLockerImpl<K> implements AutoCloseable {
+    private static final Logger logger_ = Logger.getLogger(SharedMemoryEntityLockerImpl.class.getCanonicalName());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    /**
+     * Table header: magic number and slot count.
+     */
+    private static final long MAGIC = 0x69766C6F636B3032L;
+    private static final int HEADER_SIZE = 64;
+    /**
+     * Slot: owner word and word of waiting process.
+     */
+    private static final int SLOT_SIZE = 2 * Long.BYTES;
+    private static final int WAITER_OFFSET = Long.BYTES;
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * How often waiting process checks, whether owner of the slot is alive.
+     */
+    private static final long OWNER_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    /**
+     * How long new threads of the owner process do not take the slot, which is waited by another process.
+     */
+    public static final long MAX_YIELD_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    /**
+     * User count of slot of closed locker.
+     */
+    private static final int CLOSED = Integer.MIN_VALUE;
+    /**
+     * Owner word layout: bits 42..63 - process id, bits 32..41 - locker instance, bits 0..31 - start time
+     * of process in seconds.
+     */
+    private static final int PID_SHIFT = 42;
+    private static final int INSTANCE_SHIFT = 32;
+    private static final long INSTANCE_MASK = (1L << (PID_SHIFT - INSTANCE_SHIFT)) - 1;
+    private static final long START_MASK = (1L << INSTANCE_SHIFT) - 1;
+    private static final AtomicInteger instanceSequence_ = new AtomicInteger();
+    /**
+     * Max slot count. Lock table must fit into one mapped buffer.
+     */
+    public static final int MAX_SLOT_COUNT = 1 << 24;
+
+    private final Path path_;
+    private final MappedByteBuffer table_;
+    /**
+     * Owner word of this locker.
+     */
+    private final long ownerId_;
+    /**
+     * Number of transactions of the process using the slot. Slot is owned by the process while the number is positive.
+     * Lock table is accessed only by transactions using the slot or under lock of the slot, so it is not accessed
+     * after the locker has been closed.
+     */
+    private final AtomicIntegerArray slotUsers_;
+    /**
+     * Locks guarding ownership changes of slots by the process.
+     */
+    private final ReentrantLock[] slotLocks_;
+
+    /**
+     * @param path Path of lock table file. File is created, if it does not exist.
+     */
+    public SharedMemoryEntityLockerImpl(Path path) {
+        this(path, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * @param path      Path of lock table file. File is created, if it does not exist.
+     * @param slotCount Number of slots. Rounded up to the nearest power of two.
+     *                  Must be the same in all processes using the file.
+     */
+    public SharedMemoryEntityLockerImpl(Path path, int slotCount) {
+        super(checkSlotCount(slotCount));
+        this.path_ = path;
+        final int size = getStripeCount();
+        this.table_ = mapTable(path, size);
+        this.ownerId_ = ownerId(ProcessHandle.current().pid(), instanceSequence_.incrementAndGet(),
+                startSeconds(ProcessHandle.current()));
+        this.slotUsers_ = new AtomicIntegerArray(size);
+        this.slotLocks_ = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            slotLocks_[i] = new ReentrantLock();
+        }
+    }
+
+    private static int checkSlotCount(int slotCount) {
+        if (slotCount <= 0 || slotCount > MAX_SLOT_COUNT) {
+            throw new IllegalArgumentException(String.format("Slot count must be in range [1..%s]", MAX_SLOT_COUNT));
+        }
+        return slotCount;
+    }
+
+    /**
+     * Method return path of lock table file.
+     *
+     * @return path
+     */
+    public Path getPath() {
+        return path_;
+    }
+
+    /**
+     * Method maps lock table file, initializing its header, if the file is new.
+     * Header is checked under file lock, so processes creating the file concurrently do not clash.
+     */
+    private static MappedByteBuffer mapTable(Path path, int slotCount) {
+        final long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final FileLock fileLock = channel.lock();
+            try {
+                //File is extended by mapping. Mapping stays valid after the channel has been closed.
+                final MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                final long magic = (long) LONG.getVolatile(table, 0);
+                if (magic == 0) {
+                    LONG.setVolatile(table, 8, (long) slotCount);
+                    LONG.setVolatile(table, 0, MAGIC);
+                } else if (magic != MAGIC) {
+                    throw new IllegalArgumentException(String.format("File '%s' is not a lock table", path));
+                } else if ((long) LONG.getVolatile(table, 8) != slotCount) {
+                    throw new IllegalArgumentException(String.format("Lock table '%s' has %s slots, but %s requested",
+                            path, LONG.getVolatile(table, 8), slotCount));
+                }
+                return table;
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            throw new EntityLockerException(String.format("Can't map lock table '%s'", path), e);
+        }
+    }
+
+    private static long ownerId(long pid, int instance, long startSeconds) {
+        return (pid << PID_SHIFT) | ((instance & INSTANCE_MASK) << INSTANCE_SHIFT) | (startSeconds & START_MASK);
+    }
+
+    private static long startSeconds(ProcessHandle process) {
+        return process.info().startInstant().map(Instant::getEpochSecond).orElse(0L);
+    }
+
+    /**
+     * Check is process, which owns the slot, dead.
+     *
+     * @param owner Owner word
+     * @return true, if process has terminated or its process id has been reused.
+     */
+    private static boolean isOwnerDead(long owner) {
+        final Optional<ProcessHandle> process = ProcessHandle.of(owner >>> PID_SHIFT);
+        if (process.isEmpty() || !process.get().isAlive()) {
+            return true;
+        }
+        final long startSeconds = startSeconds(process.get());
+        return startSeconds != 0 && (owner & START_MASK) != 0 && (startSeconds & START_MASK) != (owner & START_MASK);
+    }
+
+    @Override
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos) {
+        final Entry<K> entry = super.acquireEntry(key, tx, timeoutNanos);
+        if (!useSlot(stripeIndex(key), isUsing(tx, entry), timeoutNanos)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Method takes slots of keys in order of slot index, so processes can't take the same slots in different order.
+     */
+    @Override
+    protected List<Entry<K>> acquireEntries(List<K> keys, Transaction<K> tx, long timeoutNanos) {
+        final int[] slots = new int[keys.size()];
+        final Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            slots[i] = stripeIndex(keys.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> slots[i]));
+        final long deadline = System.nanoTime() + timeoutNanos;
+        int usedCount = 0;
+        try {
+            for (; usedCount < order.length; usedCount++) {
+                final int i = order[usedCount];
+                //Transaction already uses the slot of previous key, it must not yield the slot to itself.
+                final boolean using = usedCount > 0 && slots[order[usedCount - 1]] == slots[i]
+                        || isUsing(tx, super.acquireEntry(keys.get(i), tx, timeoutNanos));
+                if (!useSlot(slots[i], using, remainingNanos(timeoutNanos, deadline))) {
+                    break;
+                }
+            }
+        } finally {
+            if (usedCount < order.length) {
+                for (int i = 0; i < usedCount; i++) {
+                    unuseSlot(slots[order[i]]);
+                }
+            }
+        }
+        if (usedCount < order.length) {
+            return null;
+        }
+        final List<Entry<K>> entries = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            entries.add(super.acquireEntry(key, tx, timeoutNanos));
+        }
+        return entries;
+    }
+
+    @Override
+    protected void releaseEntry(K key, Transaction<K> tx) {
+        super.releaseEntry(key, tx);
+        unuseSlot(stripeIndex(key));
+    }
+
+    /**
+     * Check is transaction using the slot already, i.e. holding the stripe of the slot.
+     */
+    private static <K> boolean isUsing(Transaction<K> tx, Entry<K> entry) {
+        return tx.isHoldingEntry(entry) || tx.isHoldingSharedEntry(entry) || tx.isHoldingUpgradableEntry(entry);
+    }
+
+    /**
+     * Method increments the number of transactions using the slot. The first one takes the slot for the process.
+     * New transaction yields the slot to another waiting process, see {@link #MAX_YIELD_NANOS}.
+     *
+     * @param slot    Slot index
+     * @param using   Transaction uses the slot already, it must not yield the slot.
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @return false, if timeout has elapsed.
+     */
+    private boolean useSlot(int slot, boolean using, long timeoutNanos) {
+        int users;
+        while ((users = slotUsers_.get(slot)) > 0) {
+            if (slotUsers_.compareAndSet(slot, users, users + 1)) {
+                if (using || !isWaitedByOther(slot)) {
+                    return true;
+                }
+                unuseSlot(slot);
+                break;
+            }
+        }
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final ReentrantLock slotLock = slotLocks_[slot];
+        long yieldDeadline = 0;
+        long backoffNanos = MIN_BACKOFF_NANOS;
+        while (true) {
+            try {
+                if (timeoutNanos < 0) {
+                    slotLock.lockInterruptibly();
+                } else if (!slotLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                throw new EntityLockerException(e);
+            }
+            try {
+                users = slotUsers_.get(slot);
+                if (users == CLOSED) {
+                    throw new EntityLockerException(String.format("Lock table '%s' is closed", path_));
+                }
+                final long now = System.nanoTime();
+                if (using || yieldDeadline != 0 && now - yieldDeadline >= 0 || !isWaitedByOther(slot)) {
+                    if (users == 0 && !acquireSlot(slot, timeoutNanos, deadline)) {
+                        return false;
+                    }
+                    slotUsers_.incrementAndGet(slot);
+                    return true;
+                }
+                if (yieldDeadline == 0) {
+                    clearDeadWaiter(slot);
+                    yieldDeadline = now + MAX_YIELD_NANOS;
+                }
+            } finally {
+                slotLock.unlock();
+            }
+            if (!backoff(backoffNanos, timeoutNanos, deadline)) {
+                return false;
+            }
+            backoffNanos = Math.min(MAX_BACKOFF_NANOS, backoffNanos << 1);
+        }
+    }
+
+    /**
+     * Method decrements the number of transactions using the slot. The last one releases the slot.
+     *
+     * @param slot Slot index
+     */
+    private void unuseSlot(int slot) {
+        int users;
+        while ((users = slotUsers_.get(slot)) > 1) {
+            if (slotUsers_.compareAndSet(slot, users, users - 1)) {
+                return;
+            }
+        }
+        final ReentrantLock slotLock = slotLocks_[slot];
+        slotLock.lock();
+        try {
+            if (slotUsers_.decrementAndGet(slot) == 0) {
+                releaseSlot(slot);
+            }
+        } finally {
+            slotLock.unlock();
+        }
+    }
+
+    /**
+     * Check is the slot waited by another process. Called by transaction using the slot or under lock of the slot.
+     *
+     * @param slot Slot index
+     * @return true, if another process has recorded itself as waiting for the slot.
+     */
+    private boolean isWaitedByOther(int slot) {
+        final long waiter = (long) LONG.getVolatile(table_, HEADER_SIZE + slot * SLOT_SIZE + WAITER_OFFSET);
+        return waiter != 0 && waiter != ownerId_;
+    }
+
+    /**
+     * Method clears record of waiting process, if the process is dead.
+     *
+     * @param slot Slot index
+     */
+    private void clearDeadWaiter(int slot) {
+        final int offset = HEADER_SIZE + slot * SLOT_SIZE + WAITER_OFFSET;
+        final long waiter = (long) LONG.getVolatile(table_, offset);
+        if (waiter != 0 && waiter != ownerId_ && isOwnerDead(waiter)) {
+            LONG.compareAndSet(table_, offset, waiter, 0L);
+        }
+    }
+
+    /**
+     * Method parks the thread for backoff time, but not beyond deadline.
+     *
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @param deadline     Time when waiting must be stopped, if there is timeout.
+     * @return false, if deadline has come.
+     */
+    private boolean backoff(long backoffNanos, long timeoutNanos, long deadline) {
+        long parkNanos = backoffNanos;
+        if (timeoutNanos >= 0) {
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return false;
+            }
+            parkNanos = Math.min(parkNanos, remainingNanos);
+        }
+        LockSupport.parkNanos(this, parkNanos);
+        if (Thread.interrupted()) {
+            throw new EntityLockerException(new InterruptedException());
+        }
+        return true;
+    }
+
+    /**
+     * Method takes the slot of lock table for the process, waiting while it is owned by another process.
+     *
+     * @param slot         Slot index
+     * @param timeoutNanos Timeout in nanoseconds, {@link #NO_TIMEOUT} - no timeout.
+     * @param deadline     Time when waiting must be stopped, if there is timeout.
+     * @return false, if timeout has elapsed.
+     */
+    private boolean acquireSlot(int slot, long timeoutNanos, long deadline) {
+        final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        final int waiterOffset = offset + WAITER_OFFSET;
+        long backoffNanos = MIN_BACKOFF_NANOS;
+        long ownerCheckTime = System.nanoTime();
+        boolean waiting = false;
+        try {
+            while (true) {
+                final long owner = (long) LONG.getVolatile(table_, offset);
+                if (owner == 0) {
+                    if (LONG.compareAndSet(table_, offset, 0L, ownerId_)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (!waiting) {
+                    //Only one waiting process is recorded, others record themselves after it has taken the slot.
+                    waiting = LONG.compareAndSet(table_, waiterOffset, 0L, ownerId_);
+                }
+                final long now = System.nanoTime();
+                if (now - ownerCheckTime >= 0) {
+                    if (isOwnerDead(owner)) {
+                        if (LONG.compareAndSet(table_, offset, owner, ownerId_)) {
+                            logger_.log(Level.WARNING, String.format("Slot %s of lock table '%s' has been taken over from dead process %s",
+                                    slot, path_, owner >>> PID_SHIFT));
+                            return true;
+                        }
+                        continue;
+                    }
+                    if (!waiting) {
+                        clearDeadWaiter(slot);
+                    }
+                    ownerCheckTime = now + OWNER_CHECK_NANOS;
+                }
+                if (!backoff(backoffNanos, timeoutNanos, deadline)) {
+                    return false;
+                }
+                backoffNanos = Math.min(MAX_BACKOFF_NANOS, backoffNanos << 1);
+            }
+        } finally {
+            if (waiting) {
+                LONG.compareAndSet(table_, waiterOffset, ownerId_, 0L);
+            }
+        }
+    }
+
+    /**
+     * Method closes the locker. Keys must not be locked or waited through the locker, otherwise
+     * {@link EntityLockerException} is thrown and the locker stays open. Locker can't be used after closing.
+     * Lock table file is not unmapped at once, because there is no public API for it, it is unmapped
+     * by garbage collector.
+     */
+    @Override
+    public void close() {
+        final int size = getStripeCount();
+        for (int slot = 0; slot < size; slot++) {
+            final ReentrantLock slotLock = slotLocks_[slot];
+            slotLock.lock();
+            try {
+                final int users = slotUsers_.get(slot);
+                if (users == CLOSED) {
+                    return;
+                }
+                if (users != 0) {
+                    reopen(slot);
+                    throw new EntityLockerException(String.format("Lock table '%s' is in use", path_));
+                }
+                slotUsers_.set(slot, CLOSED);
+            } finally {
+                slotLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Method reopens slots closed by failed {@link #close()}.
+     *
+     * @param slotCount Number of closed slots.
+     */
+    private void reopen(int slotCount) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            final ReentrantLock slotLock = slotLocks_[slot];
+            slotLock.lock();
+            try {
+                slotUsers_.set(slot, 0);
+            } finally {
+                slotLock.unlock();
+            }
+        }
+    }
+
+    private void releaseSlot(int slot) {
+        final int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        if (!LONG.compareAndSet(table_, offset, ownerId_, 0L)) {
+            logger_.log(Level.WARNING, String.format("Slot %s of lock table '%s' has been taken over by another process",
+                    slot, path_));
+        }
+    }
+}
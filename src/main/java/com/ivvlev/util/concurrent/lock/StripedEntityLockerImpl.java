@@ -0,0 +1,99 @@
+package com.ivvlev.util.concurrent.lock;
+
+/**
+ * Implementation of EntityLocker which maps keys onto fixed number of lock stripes.
+ * <p>
+ * All stripes are created in constructor, so lock/unlock cycle does not create and remove key entries
+ * and does not modify any map. The price is that keys with the same stripe exclude each other.
+ * All guarantees of EntityLocker are given in terms of stripes:
+ * <p>
+ * 1. Protected code on two different keys of the same stripe is not executed concurrently.
+ * <p>
+ * 2. Locking of the key which shares the stripe with key locked by current thread is reentrant locking.
+ * Methods {@link #isLockedByCurrentThread(Object)} and {@link #unlock(Object)} also check the stripe, not the key.
+ * <p>
+ * 3. Deadlock is detected between stripes. Two threads locking different keys in opposite order may be reported
+ * as deadlock if the keys share stripes.
+ * <p>
+ * The larger stripe count, the less probability of false sharing of stripes by different keys.
+ */
+public class StripedEntityLockerImpl<K> extends EntityLockerAbst<K> {
+    /**
+     * Stripe count used by default constructor.
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 1024;
+    /**
+     * Max stripe count.
+     */
+    public static final int MAX_STRIPE_COUNT = 1 << 30;
+
+    private final Entry<K>[] stripes_;
+    private final int mask_;
+
+    public StripedEntityLockerImpl() {
+        this(DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * @param stripeCount Number of stripes. Rounded up to the nearest power of two.
+     */
+    public StripedEntityLockerImpl(int stripeCount) {
+        if (stripeCount <= 0 || stripeCount > MAX_STRIPE_COUNT) {
+            throw new IllegalArgumentException(String.format("Stripe count must be in range [1..%s]", MAX_STRIPE_COUNT));
+        }
+        final int size = stripeCount == 1 ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        stripes_ = Entry.newArray(size);
+        for (int i = 0; i < size; i++) {
+            stripes_[i] = new Entry<>();
+        }
+        mask_ = size - 1;
+    }
+
+    /**
+     * Method return the number of stripes.
+     *
+     * @return stripe count
+     */
+    public int getStripeCount() {
+        return stripes_.length;
+    }
+
+    @Override
+    protected Entry<K> acquireEntry(K key, Transaction<K> tx, long timeoutNanos) {
+        return stripes_[stripeIndex(key)];
+    }
+
+    @Override
+    protected Entry<K> findEntry(K key) {
+        return stripes_[stripeIndex(key)];
+    }
+
+    @Override
+    protected void releaseEntry(K key, Transaction<K> tx) {
+        //Stripes are never released.
+    }
+
+    /**
+     * Method return the number of locked stripes.
+     *
+     * @return locked stripe count
+     */
+    @Override
+    protected int getEntryCount() {
+        int count = 0;
+        for (Entry<K> stripe : stripes_) {
+            if (stripe.isLocked()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Spreads higher bits of hash to lower, the same way as {@link java.util.concurrent.ConcurrentHashMap} does.
+     */
+    protected final int stripeIndex(K key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask_;
+    }
+}
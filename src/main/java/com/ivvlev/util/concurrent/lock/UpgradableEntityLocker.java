@@ -0,0 +1,106 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.concurrent.TimeoutException;
+import com.ivvlev.util.function.Procedure;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Interface extends ReadWriteEntityLocker, adding upgradable (read-then-maybe-write) locks.
+ * <p>
+ * Upgradable lock of key is compatible with shared locks of other threads, but excludes exclusive and upgradable locks
+ * of other threads, so at most one thread can hold upgradable lock of the key. Thread which holds upgradable lock
+ * promotes it to exclusive by {@link #lock(Object)} or {@link #tryLock(Object, long, TimeUnit)}, without releasing
+ * the key. Promotion waits until other threads release their shared locks of the key, new shared locks of other
+ * threads wait until promotion is finished. {@link #unlock(Object)} demotes the lock back to upgradable,
+ * {@link #unlockUpgradable(Object)} releases upgradable lock.
+ * <p>
+ * Deadlock policy:
+ * <p>
+ * 1. Two threads can't wait for promotion of the same key, because the second one waits for upgradable lock.
+ * <p>
+ * 2. Thread which holds only shared lock of key can't lock it upgradable or exclusively,
+ * such attempt is reported as {@link DeadlockException}. Shared lock must be released first, or the key should be
+ * locked upgradable from the beginning.
+ * <p>
+ * 3. Promotion which closes wait cycle with other threads, e.g. while promoting thread holds another key,
+ * which shared lock holder is waiting for, is reported as {@link DeadlockException}, the same way as other locks.
+ * Promoting thread keeps its upgradable lock.
+ */
+public interface UpgradableEntityLocker<K> extends ReadWriteEntityLocker<K> {
+
+    /**
+     * Method perform upgradable lock of key.
+     *
+     * @param key Entity key.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void lockUpgradable(K key);
+
+    /**
+     * Method perform attempt to upgradable lock of key with timeout.
+     *
+     * @param key     Entity key
+     * @param timeout the time to wait for the lock
+     * @param unit    the time unit of the timeout argument
+     * @return {@code true} if success, else {@code false}.
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    boolean tryLockUpgradable(K key, long timeout, TimeUnit unit);
+
+    /**
+     * Method perform upgradable unlock of key.
+     *
+     * @param key Entity key.
+     */
+    void unlockUpgradable(K key);
+
+    /**
+     * Check is key currently locked upgradable by current thread.
+     *
+     * @param key Entity key.
+     * @return {@code true} if key locked upgradable by current thread, else {@code false}.
+     */
+    boolean isUpgradableLockedByCurrentThread(K key);
+
+    /**
+     * The method locks the passed key upgradable for the duration of the anonymous method execution.
+     * Anonymous method can promote the lock by {@link #forLock(Object, Supplier)}.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @return The result of anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forUpgradableLock(K key, Supplier<R> protectedMethod);
+
+    /**
+     * The method locks the passed key upgradable for the duration of the anonymous method execution.
+     * Anonymous method can promote the lock by {@link #forLock(Object, Procedure)}.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    void forUpgradableLock(K key, Procedure protectedMethod);
+
+    /**
+     * The method locks the passed key upgradable for the duration of the anonymous method execution.
+     *
+     * @param key             Entity key
+     * @param protectedMethod Anonymous method
+     * @param timeout         the time to wait for the lock
+     * @param unit            the time unit of the timeout argument
+     * @return The result of anonymous method
+     * @throws TimeoutException      if timeout occurs
+     * @throws DeadlockException     if deadlock occurs
+     * @throws EntityLockerException if the thread is interrupted or any other exception thrown
+     */
+    <R> R forUpgradableLock(K key, Supplier<R> protectedMethod, long timeout, TimeUnit unit);
+
+}
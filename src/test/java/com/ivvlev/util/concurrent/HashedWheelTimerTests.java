@@ -0,0 +1,49 @@
+package com.ivvlev.util.concurrent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HashedWheelTimerTests {
+
+    private HashedWheelTimer timer_;
+
+    @BeforeEach
+    protected void beforeEach() {
+        timer_ = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8, "test-timer");
+    }
+
+    @AfterEach
+    protected void afterEach() {
+        timer_.close();
+        timer_ = null;
+    }
+
+    @Test
+    public void schedule_DelayLongerThanWheel_RunAfterDelay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final HashedWheelTimer.Timeout timeout = timer_.schedule(latch::countDown, 200, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        Assertions.assertTrue(timeout.isExpired());
+        Assertions.assertEquals(0, timer_.getPendingCount());
+    }
+
+    @Test
+    public void cancel_TaskNotRun() throws Exception {
+        final AtomicInteger counter = new AtomicInteger(0);
+        final HashedWheelTimer.Timeout timeout = timer_.schedule(counter::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(timeout.cancel());
+        Assertions.assertFalse(timeout.cancel());
+        Assertions.assertEquals(0, timer_.getPendingCount());
+        Thread.sleep(200);
+        Assertions.assertEquals(0, counter.get());
+        Assertions.assertTrue(timeout.isCancelled());
+    }
+}
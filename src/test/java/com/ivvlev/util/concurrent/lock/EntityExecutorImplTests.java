@@ -0,0 +1,138 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EntityExecutorImplTests {
+    private final static String KEY1 = "KEY1";
+    private final static String KEY2 = "KEY2";
+
+    private ExecutorService executorService_;
+    private EntityExecutorImpl<String> entityExecutor_;
+
+    @BeforeEach
+    protected void beforeEach() {
+        executorService_ = Executors.newFixedThreadPool(4);
+        entityExecutor_ = new EntityExecutorImpl<>(executorService_);
+    }
+
+    @AfterEach
+    protected void afterEach() throws InterruptedException {
+        entityExecutor_ = null;
+        executorService_.shutdown();
+        if (!executorService_.awaitTermination(5, TimeUnit.SECONDS)) {
+            throw new RuntimeException("ExecutorService not shutdown during 5 seconds.");
+        }
+        executorService_ = null;
+    }
+
+    @Test
+    public void submit_ManyTasksOfKey_ExecutedOneAtATimeInOrder() throws Exception {
+        final int taskCount = 1000;
+        final AtomicLong counter = new AtomicLong(0);
+        final List<CompletableFuture<Long>> futureList = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            futureList.add(entityExecutor_.submit(KEY1, () -> {
+                long n = counter.get();
+                Thread.yield();
+                if (!counter.compareAndSet(n, n + 1)) {
+                    throw new ConcurrentModificationException();
+                }
+                return n;
+            }));
+        }
+        for (int i = 0; i < taskCount; i++) {
+            Assertions.assertEquals(i, futureList.get(i).get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(taskCount, counter.get());
+    }
+
+    @Test
+    public void submit_TasksOfDifferentKeys_ExecutedInParallel() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final CompletableFuture<Boolean> future1 = entityExecutor_.submit(KEY1, () -> await(latch));
+        final CompletableFuture<Boolean> future2 = entityExecutor_.submit(KEY2, () -> await(latch));
+        Assertions.assertTrue(future1.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(future2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_TaskThrowsException_FutureCompletedExceptionallyAndNextTaskExecuted() throws Exception {
+        final CompletableFuture<Void> future1 = entityExecutor_.submit(KEY1, () -> {
+            throw new IllegalStateException("Test");
+        });
+        final CompletableFuture<String> future2 = entityExecutor_.submit(KEY1, () -> "Done");
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future1.get(5, TimeUnit.SECONDS));
+        Assertions.assertInstanceOf(IllegalStateException.class, e.getCause());
+        Assertions.assertEquals("Done", future2.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void submit_FutureCancelledBeforeStart_TaskNotExecuted() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger counter = new AtomicInteger(0);
+        final CompletableFuture<Boolean> future1 = entityExecutor_.submit(KEY1, () -> waitFor(latch));
+        final CompletableFuture<Integer> future2 = entityExecutor_.submit(KEY1, counter::incrementAndGet);
+        final CompletableFuture<Integer> future3 = entityExecutor_.submit(KEY1, counter::incrementAndGet);
+        future2.cancel(false);
+        latch.countDown();
+        Assertions.assertTrue(future1.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, future3.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(future2.isCancelled());
+        Assertions.assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void submit_AllTasksExecuted_KeysRemoved() throws Exception {
+        final List<CompletableFuture<Void>> futureList = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futureList.add(entityExecutor_.submit(i % 2 == 0 ? KEY1 : KEY2, () -> {
+            }));
+        }
+        CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        // Future is completed by the task, the queue is released after it.
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (entityExecutor_.getKeyCount() != 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assertions.assertEquals(0, entityExecutor_.getKeyCount());
+    }
+
+    @Test
+    public void submit_ExecutorRejectsTask_TaskExecutedBySubmittingThread() throws Exception {
+        final EntityExecutorImpl<String> entityExecutor = new EntityExecutorImpl<>(task -> {
+            throw new RejectedExecutionException();
+        });
+        final Thread thread = Thread.currentThread();
+        Assertions.assertTrue(entityExecutor.submit(KEY1, () -> Thread.currentThread() == thread).get());
+        Assertions.assertEquals(0, entityExecutor.getKeyCount());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        latch.countDown();
+        return waitFor(latch);
+    }
+
+    private static boolean waitFor(CountDownLatch latch) {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
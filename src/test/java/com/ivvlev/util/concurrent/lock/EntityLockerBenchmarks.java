@@ -1,16 +1,24 @@
 package com.ivvlev.util.concurrent.lock;
 
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 @Disabled
@@ -111,6 +119,167 @@ public class EntityLockerBenchmarks {
         logger_.info("GlobalEntityLocker.lock/unlock:  " + counter3.get() / 1000000 + " ms");
     }
 
+    /**
+     * Test run uncontended lock/unlock cycles: each thread locks its own key only.
+     * Shows the cost of locker bookkeeping, when threads never wait for each other.
+     * In result shown wall time of all cycles divided by number of cycles, for 1 thread and for 20 threads.
+     * LongEntityLocker is measured through its primitive methods, without boxing of keys.
+     */
+    @Test
+    public void uncontendedBenchmark() throws Exception {
+        final long iterationsCount = 10000000;
+        final Map<String, Supplier<EntityLocker<Integer>>> lockerFactories = new LinkedHashMap<>();
+        lockerFactories.put("EntityLocker", EntityLockerImpl::new);
+        lockerFactories.put("GlobalEntityLocker", GlobalEntityLockerImpl::new);
+        lockerFactories.put("StripedEntityLocker", StripedEntityLockerImpl::new);
+        for (Map.Entry<String, Supplier<EntityLocker<Integer>>> lockerFactory : lockerFactories.entrySet()) {
+            for (int threadCount : new int[]{1, 20}) {
+                final EntityLocker<Integer> locker = lockerFactory.getValue().get();
+                final List<Future<?>> futureList = new ArrayList<>();
+                final long beginNanos = System.nanoTime();
+                for (int i = 0; i < threadCount; i++) {
+                    final int key = i;
+                    futureList.add(executorService_1.submit(() -> {
+                        for (int j = 0; j < iterationsCount; j++) {
+                            locker.lock(key);
+                            locker.unlock(key);
+                        }
+                    }));
+                }
+                for (Future<?> future : futureList) {
+                    future.get();
+                }
+                final long endNanos = System.nanoTime();
+                logger_.info(String.format("%-20s uncontended lock/unlock, %2d threads: %.1f ns/op", lockerFactory.getKey(),
+                        threadCount, (double) (endNanos - beginNanos) / (threadCount * iterationsCount)));
+            }
+        }
+        for (int threadCount : new int[]{1, 20}) {
+            final LongEntityLocker locker = new LongEntityLockerImpl();
+            final List<Future<?>> futureList = new ArrayList<>();
+            final long beginNanos = System.nanoTime();
+            for (int i = 0; i < threadCount; i++) {
+                final long key = i;
+                futureList.add(executorService_1.submit(() -> {
+                    for (int j = 0; j < iterationsCount; j++) {
+                        locker.lock(key);
+                        locker.unlock(key);
+                    }
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+            final long endNanos = System.nanoTime();
+            logger_.info(String.format("%-20s uncontended lock/unlock, %2d threads: %.1f ns/op", "LongEntityLocker(long)",
+                    threadCount, (double) (endNanos - beginNanos) / (threadCount * iterationsCount)));
+        }
+    }
+
+    /**
+     * Test run 20 threads contending on 2 hot keys for non-fair and fair lockers. Each thread do 20000 iterations
+     * of short protected code. In result shown throughput and percentiles of time from lock call to unlock.
+     * Fair locker is expected to give lower tail latency (p99.9, max) and lower throughput.
+     */
+    @Test
+    public void fairnessBenchmark() throws Exception {
+        final int threadCount = 20;
+        final int iterationsCount = 20000;
+        final int keyCount = 2;
+        final Map<String, Supplier<EntityLocker<Integer>>> lockerFactories = new LinkedHashMap<>();
+        lockerFactories.put("EntityLocker", () -> new EntityLockerImpl<>(false));
+        lockerFactories.put("EntityLocker(fair)", () -> new EntityLockerImpl<>(true));
+        lockerFactories.put("GlobalEntityLocker", () -> new GlobalEntityLockerImpl<>(false));
+        lockerFactories.put("GlobalEntityLocker(fair)", () -> new GlobalEntityLockerImpl<>(true));
+        for (Map.Entry<String, Supplier<EntityLocker<Integer>>> lockerFactory : lockerFactories.entrySet()) {
+            final EntityLocker<Integer> locker = lockerFactory.getValue().get();
+            final long[][] latencies = new long[threadCount][iterationsCount];
+            final List<Future<?>> futureList = new ArrayList<>();
+            final long beginNanos = System.nanoTime();
+            for (int i = 0; i < threadCount; i++) {
+                final long[] threadLatencies = latencies[i];
+                futureList.add(executorService_1.submit(() -> {
+                    for (int j = 0; j < iterationsCount; j++) {
+                        final int key = ThreadLocalRandom.current().nextInt(keyCount);
+                        final long lockNanos = System.nanoTime();
+                        locker.lock(key);
+                        try {
+                            doLittleStuff();
+                        } finally {
+                            locker.unlock(key);
+                        }
+                        threadLatencies[j] = System.nanoTime() - lockNanos;
+                    }
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+            final long endNanos = System.nanoTime();
+            final long[] allLatencies = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+            logger_.info(String.format("%-24s %.0f ops/s, latency us: p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f",
+                    lockerFactory.getKey(), (double) allLatencies.length * 1e9 / (endNanos - beginNanos),
+                    percentile(allLatencies, 0.5) / 1e3, percentile(allLatencies, 0.99) / 1e3,
+                    percentile(allLatencies, 0.999) / 1e3, allLatencies[allLatencies.length - 1] / 1e3));
+        }
+    }
+
+    private static double percentile(long[] sortedValues, double fraction) {
+        return sortedValues[(int) Math.min(sortedValues.length - 1, Math.round(fraction * sortedValues.length))];
+    }
+
+    /**
+     * Test run 20000 virtual threads for each locker. Each thread do 10 iterations during which locks random key
+     * in interval [0..100) and sleeps 1 ms under the lock. Virtual thread waiting for key or sleeping unmounts from its
+     * carrier, so the time is close to the time of sequential work on one key. If carriers were pinned by monitors,
+     * the time would be limited by the number of carriers.
+     * Run with -Djdk.tracePinnedThreads=full to print stack traces of pinned threads.
+     * Requires JDK with virtual threads, skipped otherwise.
+     */
+    @Test
+    public void virtualThreadBenchmark() throws Exception {
+        final Method newVirtualThreadPerTaskExecutor = Arrays.stream(Executors.class.getMethods())
+                .filter(m -> m.getName().equals("newVirtualThreadPerTaskExecutor"))
+                .findFirst()
+                .orElse(null);
+        Assumptions.assumeTrue(newVirtualThreadPerTaskExecutor != null,
+                "Virtual threads are not supported by JDK " + Runtime.version());
+        final int threadCount = 20000;
+        final int iterationsCount = 10;
+        final int keyCount = 100;
+        final Map<String, Supplier<EntityLocker<Integer>>> lockerFactories = new LinkedHashMap<>();
+        lockerFactories.put("EntityLocker", EntityLockerImpl::new);
+        lockerFactories.put("GlobalEntityLocker", GlobalEntityLockerImpl::new);
+        lockerFactories.put("StripedEntityLocker", StripedEntityLockerImpl::new);
+        for (Map.Entry<String, Supplier<EntityLocker<Integer>>> lockerFactory : lockerFactories.entrySet()) {
+            final EntityLocker<Integer> locker = lockerFactory.getValue().get();
+            final ExecutorService executorService = (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            final List<Future<?>> futureList = new ArrayList<>();
+            final long beginNanos = System.nanoTime();
+            for (int i = 0; i < threadCount; i++) {
+                futureList.add(executorService.submit(() -> {
+                    for (int j = 0; j < iterationsCount; j++) {
+                        locker.forLock(ThreadLocalRandom.current().nextInt(keyCount), () -> {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+            final long endNanos = System.nanoTime();
+            executorService.shutdown();
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+            logger_.info(String.format("%-20s %d virtual threads: %d ms, %.0f ops/s", lockerFactory.getKey(), threadCount,
+                    (endNanos - beginNanos) / 1000000, (double) threadCount * iterationsCount * 1e9 / (endNanos - beginNanos)));
+        }
+    }
+
     private void doStuff() {
         int n = 0;
         for (int i = 0; i < 1000000; i++) {
@@ -118,4 +287,11 @@ public class EntityLockerBenchmarks {
         }
     }
 
+    private void doLittleStuff() {
+        int n = 0;
+        for (int i = 0; i < 1000; i++) {
+            n++;
+        }
+    }
+
 }
@@ -8,6 +8,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.concurrent.*;
@@ -46,6 +47,10 @@ public class EntityLockerImplTests {
         return entityLocker_;
     }
 
+    public ReadWriteEntityLocker<String> getReadWriteEntityLocker() {
+        return (ReadWriteEntityLocker<String>) entityLocker_;
+    }
+
     public ExecutorService getExecutorService() {
         return executorService_;
     }
@@ -70,6 +75,18 @@ public class EntityLockerImplTests {
         entityLocker_.unlock(KEY1);
     }
 
+    @Test
+    public void lock_ReentrantLockMoreThan65535Times_NoExceptions() {
+        final int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            entityLocker_.lock(KEY1);
+        }
+        for (int i = 0; i < count; i++) {
+            entityLocker_.unlock(KEY1);
+        }
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+    }
+
     @Test
     public void unlock_WithoutPriorLock_ExceptionThrown() {
         Assertions.assertThrows(EntityLockerException.class, () -> entityLocker_.unlock(KEY1));
@@ -204,6 +221,35 @@ public class EntityLockerImplTests {
     }
 
 
+    @Test
+    public void lock_DeadlockOfThreeThreadsPresent_DeadlockExceptionThrown() throws Exception {
+        final String KEY3 = "key3";
+        forExecutorService(3, executorService -> {
+            Future<?> future1 = executorService.submit(() -> {
+                entityLocker_.forLock(KEY1, () -> {
+                    sleep(200);
+                    entityLocker_.forLock(KEY2, () -> doStuff(KEY2));
+                });
+            });
+            Future<?> future2 = executorService.submit(() -> {
+                entityLocker_.forLock(KEY2, () -> {
+                    sleep(300);
+                    entityLocker_.forLock(KEY3, () -> doStuff(KEY3));
+                });
+            });
+            Future<?> future3 = executorService.submit(() -> {
+                entityLocker_.forLock(KEY3, () -> {
+                    sleep(500);
+                    entityLocker_.forLock(KEY1, () -> doStuff(KEY1));
+                });
+            });
+            future1.get(5, TimeUnit.SECONDS);
+            future2.get(5, TimeUnit.SECONDS);
+            ExecutionException executionException = Assertions.assertThrows(ExecutionException.class, future3::get);
+            Assertions.assertTrue(executionException.getCause() instanceof DeadlockException);
+        });
+    }
+
     @Test
     public void forLock_ReentryLock_NoExceptions() {
         entityLocker_.forLock(KEY1, () -> {
@@ -273,6 +319,766 @@ public class EntityLockerImplTests {
         });
     }
 
+    @Test
+    public void lockShared_DoReentrantLock_NoExceptions() {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        getReadWriteEntityLocker().lockShared(KEY1);
+        getReadWriteEntityLocker().unlockShared(KEY1);
+        getReadWriteEntityLocker().unlockShared(KEY1);
+    }
+
+    @Test
+    public void lockShared_ReentrantLockMoreThan32767Times_NoExceptions() {
+        final int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            getReadWriteEntityLocker().lockShared(KEY1);
+        }
+        for (int i = 0; i < count; i++) {
+            getReadWriteEntityLocker().unlockShared(KEY1);
+        }
+        Assertions.assertFalse(getReadWriteEntityLocker().isSharedLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void unlockShared_WithoutPriorLock_ExceptionThrown() {
+        Assertions.assertThrows(EntityLockerException.class, () -> getReadWriteEntityLocker().unlockShared(KEY1));
+    }
+
+    @Test
+    public void unlockShared_KeyLockedExclusively_ExceptionThrown() {
+        entityLocker_.lock(KEY1);
+        try {
+            Assertions.assertThrows(EntityLockerException.class, () -> getReadWriteEntityLocker().unlockShared(KEY1));
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+    }
+
+    @Test
+    public void isSharedLockedByCurrentThread_AfterLockShared_True() {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        Assertions.assertTrue(getReadWriteEntityLocker().isSharedLockedByCurrentThread(KEY1));
+        Assertions.assertFalse(getReadWriteEntityLocker().isLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void isSharedLockedByCurrentThread_AfterUnlockShared_False() {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        getReadWriteEntityLocker().unlockShared(KEY1);
+        Assertions.assertFalse(getReadWriteEntityLocker().isSharedLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void tryLockShared_KeyIsSharedLockedByAnotherThread_ReturnTrue() throws Exception {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                if (getReadWriteEntityLocker().tryLockShared(KEY1, 1000, TimeUnit.MILLISECONDS)) {
+                    getReadWriteEntityLocker().unlockShared(KEY1);
+                    return true;
+                }
+                return false;
+            });
+            Assertions.assertTrue(future1.get());
+        } finally {
+            getReadWriteEntityLocker().unlockShared(KEY1);
+        }
+    }
+
+    @Test
+    public void tryLockShared_KeyIsLockedByAnotherThread_ReturnFalse() throws Exception {
+        entityLocker_.lock(KEY1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                return getReadWriteEntityLocker().tryLockShared(KEY1, 1000, TimeUnit.MILLISECONDS);
+            });
+            Assertions.assertFalse(future1.get());
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+    }
+
+    @Test
+    public void tryLock_KeyIsSharedLockedByAnotherThread_ReturnFalse() throws Exception {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                return entityLocker_.tryLock(KEY1, 1000, TimeUnit.MILLISECONDS);
+            });
+            Assertions.assertFalse(future1.get());
+        } finally {
+            getReadWriteEntityLocker().unlockShared(KEY1);
+        }
+    }
+
+    @Test
+    public void lockShared_AfterLockBySameThread_NoExceptions() {
+        entityLocker_.lock(KEY1);
+        getReadWriteEntityLocker().lockShared(KEY1);
+        getReadWriteEntityLocker().unlockShared(KEY1);
+        entityLocker_.unlock(KEY1);
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void lock_AfterLockSharedBySameThread_DeadlockExceptionThrown() {
+        getReadWriteEntityLocker().lockShared(KEY1);
+        try {
+            Assertions.assertThrows(DeadlockException.class, () -> entityLocker_.lock(KEY1));
+        } finally {
+            getReadWriteEntityLocker().unlockShared(KEY1);
+        }
+    }
+
+    @Test
+    public void forSharedLock_MultipleThreadsReading_ExecutedConcurrently() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        final AtomicLong maxCounter = new AtomicLong(0);
+        final int threadCount = 4;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        final List<Future<?>> futureList = new ArrayList<>();
+        forExecutorService(threadCount, executorService -> {
+            for (int i = 0; i < threadCount; i++) {
+                futureList.add(executorService.submit(() -> {
+                    getReadWriteEntityLocker().forSharedLock(KEY1, () -> {
+                        maxCounter.accumulateAndGet(counter.incrementAndGet(), Math::max);
+                        latch.countDown();
+                        try {
+                            latch.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        counter.decrementAndGet();
+                    });
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+        });
+        Assertions.assertEquals(threadCount, maxCounter.get());
+    }
+
+    @Test
+    public void forSharedLock_DeadlockPresent_DeadlockExceptionThrown() throws Exception {
+        Future<?> future1 = getExecutorService().submit(() -> {
+            getReadWriteEntityLocker().forSharedLock(KEY1, () -> {
+                doStuff(KEY1);
+                sleep(200);
+                entityLocker_.forLock(KEY2, () -> {
+                    doStuff(KEY2);
+                    sleep(1000);
+                });
+            });
+        });
+        Future<?> future2 = getExecutorService().submit(() -> {
+            entityLocker_.forLock(KEY2, () -> {
+                doStuff(KEY2);
+                sleep(500);
+                entityLocker_.forLock(KEY1, () -> {
+                    doStuff(KEY1);
+                });
+            });
+        });
+        future1.get();
+        ExecutionException executionException = Assertions.assertThrows(ExecutionException.class, future2::get);
+        Assertions.assertTrue(executionException.getCause() instanceof DeadlockException);
+    }
+
+    @Test
+    public void lockAll_DistinctAndRepeatedKeys_AllKeysLockedOnce() {
+        entityLocker_.lockAll(Arrays.asList(KEY1, KEY2, KEY1));
+        Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY1));
+        Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY2));
+        entityLocker_.unlockAll(Arrays.asList(KEY2, KEY1));
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY2));
+    }
+
+    @Test
+    public void unlockAll_OneKeyNotLocked_ExceptionThrownAndNoKeyUnlocked() {
+        entityLocker_.lock(KEY1);
+        try {
+            Assertions.assertThrows(EntityLockerException.class, () -> entityLocker_.unlockAll(Arrays.asList(KEY1, KEY2)));
+            Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY1));
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+    }
+
+    @Test
+    public void tryLockAll_OneKeyIsLockedByAnotherThread_ReturnFalseAndNoKeyLocked() throws Exception {
+        entityLocker_.lock(KEY2);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                final boolean locked = entityLocker_.tryLockAll(Arrays.asList(KEY1, KEY2), 500, TimeUnit.MILLISECONDS);
+                return locked || entityLocker_.isLockedByCurrentThread(KEY1);
+            });
+            Assertions.assertFalse(future1.get());
+        } finally {
+            entityLocker_.unlock(KEY2);
+        }
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void forLockAll_OneKeyIsLockedByAnotherThread_TimeoutExceptionThrownAndNoKeyLocked() throws Exception {
+        entityLocker_.lock(KEY2);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                try {
+                    entityLocker_.forLockAll(Arrays.asList(KEY1, KEY2), () -> {
+                    }, 100, TimeUnit.MILLISECONDS);
+                    return false;
+                } catch (TimeoutException e) {
+                    return !entityLocker_.isLockedByCurrentThread(KEY1);
+                }
+            });
+            Assertions.assertTrue(future1.get());
+        } finally {
+            entityLocker_.unlock(KEY2);
+        }
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void forLockAll_KeysInOppositeOrderInTwoThreads_NoDeadlock() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        final long iterationsCount = 1000;
+        Future<?> future1 = getExecutorService().submit(() -> {
+            for (int j = 0; j < iterationsCount; j++) {
+                entityLocker_.forLockAll(Arrays.asList(KEY1, KEY2), () -> {
+                    long n = counter.get();
+                    doStuff(KEY1);
+                    if (!counter.compareAndSet(n, n + 1)) {
+                        throw new ConcurrentModificationException();
+                    }
+                });
+            }
+        });
+        Future<?> future2 = getExecutorService().submit(() -> {
+            for (int j = 0; j < iterationsCount; j++) {
+                entityLocker_.forLockAll(Arrays.asList(KEY2, KEY1), () -> {
+                    long n = counter.get();
+                    doStuff(KEY2);
+                    if (!counter.compareAndSet(n, n + 1)) {
+                        throw new ConcurrentModificationException();
+                    }
+                });
+            }
+        });
+        future1.get(10, TimeUnit.SECONDS);
+        future2.get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals(2 * iterationsCount, counter.get());
+    }
+
+    @Test
+    public void acquire_TryWithResources_KeyUnlockedAfterClose() {
+        try (LockHandle<String> handle = entityLocker_.acquire(KEY1)) {
+            Assertions.assertTrue(handle.isLocked());
+            Assertions.assertEquals(KEY1, handle.getKey());
+            Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY1));
+            try (LockHandle<String> reentrantHandle = entityLocker_.acquire(KEY1)) {
+                Assertions.assertTrue(reentrantHandle.isLocked());
+            }
+            Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY1));
+        }
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void acquire_UnlockedTwiceOrByAnotherThread_ExceptionThrown() throws Exception {
+        final LockHandle<String> handle = entityLocker_.acquire(KEY1);
+        Future<?> future1 = getExecutorService().submit(handle::unlock);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, future1::get);
+        Assertions.assertTrue(e.getCause() instanceof EntityLockerException);
+        handle.unlock();
+        Assertions.assertFalse(handle.isLocked());
+        Assertions.assertThrows(EntityLockerException.class, handle::unlock);
+        handle.close();
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void tryAcquire_KeyIsLockedByAnotherThread_ReturnNull() throws Exception {
+        try (LockHandle<String> handle = entityLocker_.acquire(KEY1)) {
+            Future<Boolean> future1 = getExecutorService().submit(() -> entityLocker_.tryAcquire(KEY1, 100, TimeUnit.MILLISECONDS) == null);
+            Assertions.assertTrue(future1.get());
+        }
+        Future<Boolean> future2 = getExecutorService().submit(() -> {
+            try (LockHandle<String> handle = entityLocker_.tryAcquire(KEY1, 100, TimeUnit.MILLISECONDS)) {
+                return handle != null && handle.isLocked();
+            }
+        });
+        Assertions.assertTrue(future2.get());
+    }
+
+    public UpgradableEntityLocker<String> getUpgradableEntityLocker() {
+        return (UpgradableEntityLocker<String>) entityLocker_;
+    }
+
+    @Test
+    public void lockUpgradable_SharedLockOfAnotherThread_Granted() throws Exception {
+        final UpgradableEntityLocker<String> locker = getUpgradableEntityLocker();
+        locker.lockUpgradable(KEY1);
+        locker.lockUpgradable(KEY1);
+        try {
+            Assertions.assertTrue(locker.isUpgradableLockedByCurrentThread(KEY1));
+            Assertions.assertFalse(locker.isLockedByCurrentThread(KEY1));
+            Future<Boolean> future1 = getExecutorService().submit(() -> locker.forSharedLock(KEY1,
+                    () -> locker.isSharedLockedByCurrentThread(KEY1), 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(future1.get());
+            Future<Boolean> future2 = getExecutorService().submit(() -> locker.tryLockUpgradable(KEY1, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future2.get());
+            Future<Boolean> future3 = getExecutorService().submit(() -> locker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future3.get());
+        } finally {
+            locker.unlockUpgradable(KEY1);
+        }
+        Assertions.assertTrue(locker.isUpgradableLockedByCurrentThread(KEY1));
+        locker.unlockUpgradable(KEY1);
+        Assertions.assertFalse(locker.isUpgradableLockedByCurrentThread(KEY1));
+        Assertions.assertThrows(EntityLockerException.class, () -> locker.unlockUpgradable(KEY1));
+        Future<Boolean> future4 = getExecutorService().submit(() -> locker.forLock(KEY1,
+                () -> locker.isLockedByCurrentThread(KEY1), 100, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(future4.get());
+    }
+
+    @Test
+    public void lock_UpgradableLockHeld_PromotedAndDemoted() throws Exception {
+        final UpgradableEntityLocker<String> locker = getUpgradableEntityLocker();
+        locker.lockUpgradable(KEY1);
+        try {
+            locker.lock(KEY1);
+            try {
+                Assertions.assertTrue(locker.isLockedByCurrentThread(KEY1));
+                Future<Boolean> future1 = getExecutorService().submit(() -> locker.tryLockShared(KEY1, 100, TimeUnit.MILLISECONDS));
+                Assertions.assertFalse(future1.get());
+            } finally {
+                locker.unlock(KEY1);
+            }
+            Assertions.assertFalse(locker.isLockedByCurrentThread(KEY1));
+            Assertions.assertTrue(locker.isUpgradableLockedByCurrentThread(KEY1));
+            Future<Boolean> future2 = getExecutorService().submit(() -> locker.forSharedLock(KEY1,
+                    () -> locker.isSharedLockedByCurrentThread(KEY1), 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(future2.get());
+        } finally {
+            locker.unlockUpgradable(KEY1);
+        }
+        Assertions.assertEquals(42, (int) locker.forUpgradableLock(KEY1, () -> locker.forLock(KEY1, () -> 42)));
+        Assertions.assertFalse(locker.isUpgradableLockedByCurrentThread(KEY1));
+        Assertions.assertTrue(locker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+        locker.unlock(KEY1);
+    }
+
+    @Test
+    public void lock_UpgradableLockHeld_PromotionWaitsForSharedLocks() throws Exception {
+        final UpgradableEntityLocker<String> locker = getUpgradableEntityLocker();
+        final CountDownLatch sharedLocked = new CountDownLatch(1);
+        final CountDownLatch sharedUnlock = new CountDownLatch(1);
+        forExecutorService(2, executorService2 -> {
+            Future<?> future1 = executorService2.submit(() -> locker.forSharedLock(KEY1, () -> {
+                sharedLocked.countDown();
+                while (sharedUnlock.getCount() > 0) {
+                    sleep(10);
+                }
+            }));
+            sharedLocked.await();
+            locker.lockUpgradable(KEY1);
+            try {
+                Assertions.assertFalse(locker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+                //Failed promotion does not block shared locks.
+                Future<Boolean> future2 = executorService2.submit(() -> locker.forSharedLock(KEY1,
+                        () -> true, 100, TimeUnit.MILLISECONDS));
+                Assertions.assertTrue(future2.get());
+                //Shared lock waits for promotion, which waits for shared lock held before.
+                Future<Boolean> future3 = executorService2.submit(() -> {
+                    sleep(100);
+                    final boolean locked = locker.tryLockShared(KEY1, 100, TimeUnit.MILLISECONDS);
+                    sharedUnlock.countDown();
+                    return locked;
+                });
+                locker.lock(KEY1);
+                Assertions.assertFalse(future3.get());
+                Assertions.assertTrue(locker.isLockedByCurrentThread(KEY1));
+                locker.unlock(KEY1);
+                future1.get();
+            } finally {
+                locker.unlockUpgradable(KEY1);
+            }
+        });
+    }
+
+    @Test
+    public void lockUpgradable_KeyLockedInSharedModeByCurrentThread_DeadlockExceptionThrown() {
+        final UpgradableEntityLocker<String> locker = getUpgradableEntityLocker();
+        locker.lockShared(KEY1);
+        try {
+            Assertions.assertThrows(DeadlockException.class, () -> locker.lockUpgradable(KEY1));
+        } finally {
+            locker.unlockShared(KEY1);
+        }
+        locker.lockUpgradable(KEY1);
+        try {
+            locker.lockShared(KEY1);
+            try {
+                Assertions.assertThrows(DeadlockException.class, () -> locker.lock(KEY1));
+            } finally {
+                locker.unlockShared(KEY1);
+            }
+        } finally {
+            locker.unlockUpgradable(KEY1);
+        }
+        Assertions.assertFalse(locker.isUpgradableLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void lock_PromotionClosesWaitCycle_DeadlockDetected() throws Exception {
+        final UpgradableEntityLocker<String> locker = getUpgradableEntityLocker();
+        final CountDownLatch sharedLocked = new CountDownLatch(1);
+        locker.lock(KEY2);
+        locker.lockUpgradable(KEY1);
+        try {
+            Future<?> future1 = getExecutorService().submit(() -> locker.forSharedLock(KEY1, () -> {
+                sharedLocked.countDown();
+                locker.forLock(KEY2, () -> {
+                });
+            }));
+            sharedLocked.await();
+            sleep(200);
+            //Promoting thread closes the cycle, but waiting thread can detect it also, while promoting thread spins.
+            boolean promotionFailed = false;
+            try {
+                locker.lock(KEY1);
+                locker.unlock(KEY1);
+            } catch (DeadlockException e) {
+                promotionFailed = true;
+            }
+            Assertions.assertTrue(locker.isUpgradableLockedByCurrentThread(KEY1));
+            locker.unlock(KEY2);
+            try {
+                future1.get(5, TimeUnit.SECONDS);
+                Assertions.assertTrue(promotionFailed);
+            } catch (ExecutionException e) {
+                Assertions.assertTrue(e.getCause() instanceof DeadlockException);
+            }
+        } finally {
+            locker.unlockUpgradable(KEY1);
+        }
+    }
+
+    public CombiningEntityLocker<String> getCombiningEntityLocker() {
+        return (CombiningEntityLocker<String>) entityLocker_;
+    }
+
+    @Test
+    public void forLockCombining_MultipleThreadsWritingToVariable_NoExceptions() throws Exception {
+        final CombiningEntityLocker<String> locker = getCombiningEntityLocker();
+        final AtomicLong counter = new AtomicLong(0);
+        final long threadCount = 20;
+        final long iterationsCount = 1000;
+        final List<Future<?>> futureList = new ArrayList<>();
+        forExecutorService(20, executorService20 -> {
+            for (int i = 0; i < threadCount; i++) {
+                futureList.add(executorService20.submit(() -> {
+                    for (int j = 0; j < iterationsCount; j++) {
+                        locker.forLockCombining(KEY1, () -> {
+                            long n = counter.get();
+                            if (!counter.compareAndSet(n, n + 1)) {
+                                throw new ConcurrentModificationException();
+                            }
+                        });
+                    }
+                }));
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+        });
+        Assertions.assertEquals(threadCount * iterationsCount, counter.get());
+        Assertions.assertFalse(locker.isLockedByCurrentThread(KEY1));
+        Assertions.assertTrue(locker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+        locker.unlock(KEY1);
+    }
+
+    @Test
+    public void forLockCombining_KeyLockedByCombiningThread_MethodExecutedByHolder() throws Exception {
+        final CombiningEntityLocker<String> locker = getCombiningEntityLocker();
+        final Thread holder = Thread.currentThread();
+        final List<Future<Thread>> futures = new ArrayList<>();
+        final Future<?> failed = locker.forLockCombining(KEY1, () -> {
+            futures.add(getExecutorService().submit(() -> locker.forLockCombining(KEY1, Thread::currentThread)));
+            final Future<?> future = getExecutorService().submit(() -> locker.forLockCombining(KEY1, () -> {
+                throw new IllegalStateException();
+            }));
+            sleep(200);
+            return future;
+        });
+        Assertions.assertSame(holder, futures.get(0).get(5, TimeUnit.SECONDS));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void forLockCombining_KeyLockedByAnotherThread_MethodExecutedAfterUnlock() throws Exception {
+        final CombiningEntityLocker<String> locker = getCombiningEntityLocker();
+        final AtomicLong counter = new AtomicLong(0);
+        final Future<Boolean> future;
+        locker.lock(KEY1);
+        try {
+            future = getExecutorService().submit(() -> locker.forLockCombining(KEY1, () -> {
+                counter.incrementAndGet();
+                return locker.isLockedByCurrentThread(KEY1);
+            }));
+            sleep(200);
+            Assertions.assertEquals(0, counter.get());
+            //Reentrant call is executed in place.
+            Assertions.assertTrue(locker.forLockCombining(KEY1, () -> locker.isLockedByCurrentThread(KEY1)));
+        } finally {
+            locker.unlock(KEY1);
+        }
+        //Thread locking the key with plain lock does not execute delegated methods, the caller locks the key itself.
+        Assertions.assertTrue(future.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void forLockCombining_CombiningThreadHoldsAnotherKey_MethodExecutedByCaller() throws Exception {
+        final CombiningEntityLocker<String> locker = getCombiningEntityLocker();
+        final Future<Boolean> future;
+        locker.lock(KEY2);
+        try {
+            future = locker.forLockCombining(KEY1, () -> {
+                final Future<Boolean> f = getExecutorService().submit(() -> locker.forLockCombining(KEY1,
+                        () -> locker.isLockedByCurrentThread(KEY2)));
+                sleep(200);
+                return f;
+            });
+            //Method executed by the holder would be granted the key held by it.
+            Assertions.assertFalse(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            locker.unlock(KEY2);
+        }
+    }
+
+    public AsyncEntityLocker<String> getAsyncEntityLocker() {
+        return (AsyncEntityLocker<String>) entityLocker_;
+    }
+
+    @Test
+    public void lockAsync_KeyIsNotLocked_CompletedImmediately() {
+        CompletableFuture<LockHandle<String>> future = getAsyncEntityLocker().lockAsync(KEY1);
+        Assertions.assertTrue(future.isDone());
+        try (LockHandle<String> handle = future.join()) {
+            Assertions.assertTrue(handle.isLocked());
+            Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+        }
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void lockAsync_KeyIsLockedByThread_CompletedAfterUnlock() throws Exception {
+        entityLocker_.lock(KEY1);
+        CompletableFuture<LockHandle<String>> future;
+        try {
+            future = getAsyncEntityLocker().lockAsync(KEY1, getExecutorService());
+            sleep(100);
+            Assertions.assertFalse(future.isDone());
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+        LockHandle<String> handle = future.get(5, TimeUnit.SECONDS);
+        Future<Boolean> future1 = getExecutorService().submit(() -> entityLocker_.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(future1.get());
+        //Handle can be unlocked by any thread.
+        getExecutorService().submit(handle::unlock).get();
+        Assertions.assertThrows(EntityLockerException.class, handle::unlock);
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void lockAsync_FutureCancelled_KeyIsNotLocked() throws Exception {
+        LockHandle<String> handle = getAsyncEntityLocker().lockAsync(KEY1).get();
+        CompletableFuture<LockHandle<String>> future = getAsyncEntityLocker().lockAsync(KEY1);
+        future.cancel(false);
+        handle.unlock();
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void forLockAsync_ManyStagesOfOneKey_ExecutedSerially() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        final int stageCount = 100;
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < stageCount; i++) {
+            futures.add(getAsyncEntityLocker().forLockAsync(KEY1, () -> CompletableFuture.supplyAsync(() -> {
+                long n = counter.get();
+                doStuff(KEY1);
+                if (!counter.compareAndSet(n, n + 1)) {
+                    throw new ConcurrentModificationException();
+                }
+                return n;
+            }, getExecutorService()), getExecutorService()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals(stageCount, counter.get());
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    public LeaseEntityLocker<String> getLeaseEntityLocker() {
+        return (LeaseEntityLocker<String>) entityLocker_;
+    }
+
+    @Test
+    public void lockLease_LeaseExpired_LockRevoked() throws Exception {
+        final CountDownLatch revoked = new CountDownLatch(1);
+        LockHandle<String> handle = getLeaseEntityLocker().lockLease(KEY1, 100, TimeUnit.MILLISECONDS, h -> revoked.countDown());
+        Assertions.assertTrue(handle.isLocked());
+        Future<Boolean> future1 = getExecutorService().submit(() ->
+                entityLocker_.forLock(KEY1, () -> entityLocker_.isLockedByCurrentThread(KEY1), 5, TimeUnit.SECONDS));
+        Assertions.assertTrue(revoked.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(future1.get());
+        Assertions.assertFalse(handle.isLocked());
+        Assertions.assertThrows(EntityLockerException.class, handle::unlock);
+    }
+
+    @Test
+    public void lockLease_UnlockedBeforeExpiry_ListenerNotCalled() throws Exception {
+        final AtomicLong revocationCount = new AtomicLong(0);
+        LockHandle<String> handle = getLeaseEntityLocker().lockLease(KEY1, 100, TimeUnit.MILLISECONDS, h -> revocationCount.incrementAndGet());
+        handle.unlock();
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        sleep(300);
+        Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(KEY1));
+        entityLocker_.unlock(KEY1);
+        Assertions.assertEquals(0, revocationCount.get());
+    }
+
+    @Test
+    public void lock_KeyIsLeasedByCurrentThread_DeadlockExceptionThrown() {
+        final LockHandle<String> handle = getLeaseEntityLocker().lockLease(KEY1, 10, TimeUnit.SECONDS, null);
+        try {
+            //Lease is not revoked for long, so the thread would wait for itself.
+            Assertions.assertThrows(DeadlockException.class, () -> entityLocker_.lock(KEY1));
+            Assertions.assertThrows(DeadlockException.class, () ->
+                    getLeaseEntityLocker().lockLease(KEY1, 10, TimeUnit.SECONDS, null));
+        } finally {
+            handle.unlock();
+        }
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void tryLockLease_KeyIsLockedByAnotherThread_ReturnNull() throws Exception {
+        entityLocker_.lock(KEY1);
+        try {
+            Future<LockHandle<String>> future1 = getExecutorService().submit(() ->
+                    getLeaseEntityLocker().tryLockLease(KEY1, 100, 1000, TimeUnit.MILLISECONDS, null));
+            Assertions.assertNull(future1.get());
+            Assertions.assertThrows(DeadlockException.class, () ->
+                    getLeaseEntityLocker().tryLockLease(KEY1, 100, 1000, TimeUnit.MILLISECONDS, null));
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+        try (LockHandle<String> handle = getLeaseEntityLocker().tryLockLease(KEY1, 100, 1000, TimeUnit.MILLISECONDS, null)) {
+            Assertions.assertTrue(handle.isLocked());
+        }
+        Assertions.assertTrue(entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        entityLocker_.unlock(KEY1);
+    }
+
+    @Test
+    public void getMetricsSnapshot_MetricsDisabled_ExceptionThrown() {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) entityLocker_;
+        Assertions.assertFalse(entityLocker.isMetricsEnabled());
+        Assertions.assertThrows(EntityLockerException.class, entityLocker::getMetricsSnapshot);
+    }
+
+    @Test
+    public void getMetricsSnapshot_UncontendedReentrantLock_AcquisitionsAndHoldCounted() {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) entityLocker_;
+        entityLocker.setMetricsEnabled(true);
+        entityLocker.forLock(KEY1, () -> entityLocker.forLock(KEY1, () -> doStuff(KEY1)));
+        final LockMetricsSnapshot<String> snapshot = entityLocker.getMetricsSnapshot();
+        Assertions.assertEquals(2, snapshot.getAcquisitions());
+        Assertions.assertEquals(0, snapshot.getContendedAcquisitions());
+        Assertions.assertEquals(1, Arrays.stream(snapshot.getHoldTimeHistogram()).sum());
+        Assertions.assertEquals(0, Arrays.stream(snapshot.getWaitTimeHistogram()).sum());
+        Assertions.assertTrue(snapshot.getHotKeys().isEmpty());
+    }
+
+    @Test
+    public void getMetricsSnapshot_ContendedLockAndTimeout_CountedWithHotKey() throws Exception {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) entityLocker_;
+        entityLocker.setMetricsEnabled(true);
+        entityLocker.lock(KEY1);
+        Future<?> future1;
+        try {
+            Assertions.assertFalse(getExecutorService().submit(() -> entityLocker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS)).get());
+            future1 = getExecutorService().submit(() -> entityLocker.forLock(KEY1, () -> doStuff(KEY1)));
+            sleep(100);
+        } finally {
+            entityLocker.unlock(KEY1);
+        }
+        future1.get();
+        final LockMetricsSnapshot<String> snapshot = entityLocker.getMetricsSnapshot();
+        Assertions.assertEquals(2, snapshot.getAcquisitions());
+        Assertions.assertEquals(1, snapshot.getContendedAcquisitions());
+        Assertions.assertEquals(1, snapshot.getTimeouts());
+        Assertions.assertEquals(0, snapshot.getDeadlocks());
+        Assertions.assertEquals(2, Arrays.stream(snapshot.getWaitTimeHistogram()).sum());
+        Assertions.assertTrue(snapshot.getWaitTimePercentileNanos(0.5) >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assertions.assertEquals(KEY1, snapshot.getHotKeys().get(0).getKey());
+        Assertions.assertEquals(2, snapshot.getHotKeys().get(0).getContentionCount());
+    }
+
+    @Test
+    public void getLockTableSnapshot_KeysLockedAndWaited_OwnersHoldCountsAndWaitersReported() throws Exception {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) entityLocker_;
+        final long threadId = Thread.currentThread().getId();
+        final AtomicLong waiterThreadId = new AtomicLong(-1);
+        Future<?> future1;
+        entityLocker.lock(KEY1);
+        entityLocker.lock(KEY1);
+        getReadWriteEntityLocker().lockShared(KEY2);
+        try {
+            future1 = getExecutorService().submit(() -> {
+                waiterThreadId.set(Thread.currentThread().getId());
+                entityLocker.forLock(KEY1, () -> doStuff(KEY1));
+            });
+            LockTableSnapshot<String> snapshot = entityLocker.getLockTableSnapshot();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (snapshot.getKey(KEY1).getWaiters().isEmpty() && System.nanoTime() < deadline) {
+                sleep(1);
+                snapshot = entityLocker.getLockTableSnapshot();
+            }
+            final LockTableSnapshot.KeyLock<String> keyLock1 = snapshot.getKey(KEY1);
+            Assertions.assertEquals(threadId, keyLock1.getOwnerThreadId());
+            Assertions.assertEquals(2, keyLock1.getHoldCount());
+            Assertions.assertEquals(1, keyLock1.getWaiters().size());
+            Assertions.assertEquals(waiterThreadId.get(), keyLock1.getWaiters().get(0).getThreadId());
+            Assertions.assertEquals(LockTableSnapshot.Mode.EXCLUSIVE, keyLock1.getWaiters().get(0).getMode());
+            final LockTableSnapshot.KeyLock<String> keyLock2 = snapshot.getKey(KEY2);
+            Assertions.assertEquals(-1, keyLock2.getOwnerThreadId());
+            Assertions.assertEquals(0, keyLock2.getHoldCount());
+            Assertions.assertEquals(1, keyLock2.getSharedHoldCounts().get(threadId));
+            Assertions.assertTrue(keyLock2.getWaiters().isEmpty());
+        } finally {
+            getReadWriteEntityLocker().unlockShared(KEY2);
+            entityLocker.unlock(KEY1);
+            entityLocker.unlock(KEY1);
+        }
+        future1.get();
+        Assertions.assertTrue(entityLocker.getLockTableSnapshot().getKeys().isEmpty());
+    }
+
     protected void sleep(long mills) {
         try {
             Thread.sleep(mills);
@@ -0,0 +1,138 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FairEntityLockerImplTests extends EntityLockerImplTests {
+
+    protected EntityLocker<String> newEntityLocker() {
+        return new EntityLockerImpl<>(true);
+    }
+
+    @Test
+    public void lock_ThreadsQueuedForKey_KeyGrantedInFifoOrder() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final int threadCount = 4;
+        forExecutorService(threadCount, executorService -> {
+            final List<Future<?>> futureList = new ArrayList<>();
+            getEntityLocker().lock(KEY1);
+            try {
+                for (int i = 0; i < threadCount; i++) {
+                    final int n = i;
+                    futureList.add(executorService.submit(() -> getEntityLocker().forLock(KEY1, () -> {
+                        order.add(n);
+                    })));
+                    //Let the thread be queued before the next one.
+                    sleep(100);
+                }
+            } finally {
+                getEntityLocker().unlock(KEY1);
+            }
+            for (Future<?> future : futureList) {
+                future.get();
+            }
+        });
+        Assertions.assertEquals(Arrays.asList(0, 1, 2, 3), order);
+    }
+
+    @Test
+    public void lock_CycleClosedWhileThreadQueuedForKey_DeadlockExceptionThrown() throws Exception {
+        final EntityLockerImpl<String> locker = (EntityLockerImpl<String>) getEntityLocker();
+        locker.lock(KEY1);
+        try {
+            final Future<?> future = getExecutorService().submit(() -> locker.forLock(KEY2, () -> locker.lock(KEY1)));
+            sleep(200);
+            //Wait of current thread for KEY2 is registered without deadlock check, so only recheck of the queued
+            //thread can see the cycle. Thread of executor is created after current one, so it is the victim.
+            final EntityLockerAbst.Transaction<String> tx = locker.getTransaction();
+            tx.waitingEntry = locker.findEntry(KEY2);
+            try {
+                final ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                        () -> future.get(5, TimeUnit.SECONDS));
+                Assertions.assertTrue(e.getCause() instanceof DeadlockException);
+            } finally {
+                tx.waitingEntry = null;
+            }
+        } finally {
+            locker.unlock(KEY1);
+        }
+    }
+
+    @Test
+    public void tryLock_FirstQueuedThreadTimedOut_NextThreadGetsKey() throws Exception {
+        final Future<Boolean> future1;
+        final Future<?> future2;
+        getEntityLocker().lock(KEY1);
+        try {
+            future1 = getExecutorService().submit(() -> getEntityLocker().tryLock(KEY1, 150, TimeUnit.MILLISECONDS));
+            sleep(50);
+            future2 = getExecutorService().submit(() -> getEntityLocker().forLock(KEY1, () -> {
+            }));
+            Assertions.assertFalse(future1.get());
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        future2.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void lock_ThreadQueuedForKeyInterrupted_EntityLockerExceptionThrown() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                getEntityLocker().forLock(KEY1, () -> {
+                });
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        getEntityLocker().lock(KEY1);
+        try {
+            thread.start();
+            //Thread rechecks deadlock meanwhile, which must not interrupt it.
+            sleep(300);
+            Assertions.assertTrue(thread.isAlive());
+            thread.interrupt();
+            thread.join(5000);
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        Assertions.assertTrue(failure.get() instanceof EntityLockerException);
+        Assertions.assertTrue(failure.get().getCause() instanceof InterruptedException);
+        Assertions.assertTrue(getEntityLocker().tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+        getEntityLocker().unlock(KEY1);
+    }
+
+    @Test
+    public void lockAsync_ThreadQueuedBeforeAsyncLock_ThreadGetsKeyFirst() throws Exception {
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        final Future<?> future;
+        final CompletableFuture<LockHandle<String>> asyncFuture;
+        getEntityLocker().lock(KEY1);
+        try {
+            future = getExecutorService().submit(() -> getEntityLocker().forLock(KEY1, () -> {
+                order.add("thread");
+            }));
+            sleep(100);
+            asyncFuture = getAsyncEntityLocker().lockAsync(KEY1, getExecutorService()).thenApply(handle -> {
+                order.add("async");
+                return handle;
+            });
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        future.get(5, TimeUnit.SECONDS);
+        asyncFuture.get(5, TimeUnit.SECONDS).unlock();
+        Assertions.assertEquals(Arrays.asList("thread", "async"), order);
+    }
+}
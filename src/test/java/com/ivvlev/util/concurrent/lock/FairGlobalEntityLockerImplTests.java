@@ -0,0 +1,8 @@
+package com.ivvlev.util.concurrent.lock;
+
+public class FairGlobalEntityLockerImplTests extends GlobalEntityLockerImplTests {
+
+    protected EntityLocker<String> newEntityLocker() {
+        return new GlobalEntityLockerImpl<>(true);
+    }
+}
@@ -3,7 +3,9 @@ package com.ivvlev.util.concurrent.lock;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -96,6 +98,116 @@ public class GlobalEntityLockerImplTests extends EntityLockerImplTests {
     }
 
 
+    @Test
+    public void tryLockGlobal_AfterTimeout_KeyCanBeLockedByAnotherThread() throws Exception {
+        final Future<Boolean> future1;
+        getEntityLocker().lock(KEY1);
+        try {
+            future1 = getExecutorService().submit(() -> {
+                return getEntityLocker().tryLockGlobal(500, TimeUnit.MILLISECONDS);
+            });
+            Assertions.assertFalse(future1.get());
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        Assertions.assertFalse(getEntityLocker().isGlobalLocked());
+        Future<Boolean> future2 = getExecutorService().submit(() -> {
+            if (getEntityLocker().tryLock(KEY2, 1000, TimeUnit.MILLISECONDS)) {
+                getEntityLocker().unlock(KEY2);
+                return true;
+            }
+            return false;
+        });
+        Assertions.assertTrue(future2.get());
+    }
+
+    @Test
+    public void tryLock_GlobalLockSetAndSubMillisecondTimeout_ReturnFalse() throws Exception {
+        getEntityLocker().lockGlobal();
+        try {
+            final Future<Boolean> future = getExecutorService().submit(() -> {
+                return getEntityLocker().tryLock(KEY1, 500, TimeUnit.MICROSECONDS);
+            });
+            Assertions.assertFalse(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            getEntityLocker().unlockGlobal();
+        }
+    }
+
+    @Test
+    public void tryLock_WaitsGlobalUnlockAndKey_TimeoutNotExceeded() throws Exception {
+        final Future<Boolean> globalFuture;
+        final Future<Long> keyFuture;
+        getEntityLocker().lock(KEY1);
+        try {
+            globalFuture = getExecutorService().submit(() -> {
+                return getEntityLocker().tryLockGlobal(300, TimeUnit.MILLISECONDS);
+            });
+            while (!getEntityLocker().isGlobalLocked()) {
+                Thread.sleep(1);
+            }
+            keyFuture = getExecutorService().submit(() -> {
+                final long start = System.nanoTime();
+                Assertions.assertFalse(getEntityLocker().tryLock(KEY1, 400, TimeUnit.MILLISECONDS));
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            });
+            Assertions.assertFalse(globalFuture.get());
+            //The key is waited for 400 ms in total, not 400 ms after global lock is cleared.
+            Assertions.assertTrue(keyFuture.get() < 600, "Elapsed " + keyFuture.get() + " ms");
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+    }
+
+    @Test
+    public void unlockGlobal_KeyAndGlobalLockWaiters_AllProceed() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        forExecutorService(10, executorService10 -> {
+            final List<Future<?>> futures = new ArrayList<>();
+            getEntityLocker().lockGlobal();
+            try {
+                for (int i = 0; i < 8; i++) {
+                    final String key = "key" + i;
+                    futures.add(executorService10.submit(() -> getEntityLocker().forLock(key, counter::incrementAndGet)));
+                }
+                for (int i = 0; i < 2; i++) {
+                    futures.add(executorService10.submit(() -> {
+                        getEntityLocker().lockGlobal();
+                        try {
+                            counter.incrementAndGet();
+                        } finally {
+                            getEntityLocker().unlockGlobal();
+                        }
+                    }));
+                }
+                sleep(200);
+                Assertions.assertEquals(0, counter.get());
+            } finally {
+                getEntityLocker().unlockGlobal();
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        });
+        Assertions.assertEquals(10, counter.get());
+        Assertions.assertFalse(getEntityLocker().isGlobalLocked());
+    }
+
+    @Test
+    public void lockGlobal_DoReentrantLock_NoExceptions() {
+        getEntityLocker().lockGlobal();
+        getEntityLocker().lockGlobal();
+        getEntityLocker().unlockGlobal();
+        Assertions.assertTrue(getEntityLocker().isGlobalLockedByCurrentThread());
+        getEntityLocker().unlockGlobal();
+        Assertions.assertFalse(getEntityLocker().isGlobalLocked());
+    }
+
+    @Test
+    public void unlockGlobal_WithoutPriorLock_ExceptionThrown() {
+        Assertions.assertThrows(EntityLockerException.class, () -> getEntityLocker().unlockGlobal());
+    }
+
     @Test
     public void lockGlobal_SecondThreadWaitUntilTestThreadDoGlobalUnlock_CounterChangeAfterUnlockGlobal() throws Exception {
         final AtomicLong counter = new AtomicLong(0);
@@ -172,4 +284,45 @@ public class GlobalEntityLockerImplTests extends EntityLockerImplTests {
         future1.get();
         future2.get();
     }
+
+    @Test
+    public void getLockTableSnapshot_GlobalLockSetAndWaited_OwnerAndWaitersReported() throws Exception {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) getEntityLocker();
+        final long threadId = Thread.currentThread().getId();
+        final AtomicLong globalWaiterThreadId = new AtomicLong(-1);
+        final AtomicLong keyWaiterThreadId = new AtomicLong(-1);
+        Assertions.assertEquals(-1, entityLocker.getLockTableSnapshot().getGlobalLockThreadId());
+        Future<?> future1;
+        Future<?> future2;
+        getEntityLocker().lockGlobal();
+        try {
+            future1 = getExecutorService().submit(() -> {
+                globalWaiterThreadId.set(Thread.currentThread().getId());
+                getEntityLocker().lockGlobal();
+                getEntityLocker().unlockGlobal();
+            });
+            future2 = getExecutorService().submit(() -> {
+                keyWaiterThreadId.set(Thread.currentThread().getId());
+                getEntityLocker().forLock(KEY1, () -> doStuff(KEY1));
+            });
+            LockTableSnapshot<String> snapshot = entityLocker.getLockTableSnapshot();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while ((snapshot.getGlobalLockWaiterThreadIds().isEmpty() || snapshot.getGlobalUnlockWaiterThreadIds().isEmpty())
+                    && System.nanoTime() < deadline) {
+                sleep(1);
+                snapshot = entityLocker.getLockTableSnapshot();
+            }
+            Assertions.assertEquals(threadId, snapshot.getGlobalLockThreadId());
+            Assertions.assertEquals(List.of(globalWaiterThreadId.get()), snapshot.getGlobalLockWaiterThreadIds());
+            Assertions.assertEquals(List.of(keyWaiterThreadId.get()), snapshot.getGlobalUnlockWaiterThreadIds());
+        } finally {
+            getEntityLocker().unlockGlobal();
+        }
+        future1.get();
+        future2.get();
+        final LockTableSnapshot<String> snapshot = entityLocker.getLockTableSnapshot();
+        Assertions.assertEquals(-1, snapshot.getGlobalLockThreadId());
+        Assertions.assertTrue(snapshot.getGlobalLockWaiterThreadIds().isEmpty());
+        Assertions.assertTrue(snapshot.getGlobalUnlockWaiterThreadIds().isEmpty());
+    }
 }
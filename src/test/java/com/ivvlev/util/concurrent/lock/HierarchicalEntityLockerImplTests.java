@@ -0,0 +1,232 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HierarchicalEntityLockerImplTests extends EntityLockerImplTests {
+
+    protected final String NAMESPACE1 = "ns1";
+    protected final String NAMESPACE2 = "ns2";
+    /**
+     * Key of {@link #NAMESPACE1}, as {@link #KEY1}. {@link #KEY2} belongs to {@link #NAMESPACE2}.
+     */
+    protected final String KEY3 = "key3";
+
+    protected EntityLocker<String> newEntityLocker() {
+        return new HierarchicalEntityLockerImpl<String, String>(key -> key.endsWith("2") ? NAMESPACE2 : NAMESPACE1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public HierarchicalEntityLockerImpl<String, String> getEntityLocker() {
+        return (HierarchicalEntityLockerImpl<String, String>) super.getEntityLocker();
+    }
+
+    @Test
+    public void lockNamespace_DoReentrantLock_NoExceptions() {
+        getEntityLocker().lockNamespace(NAMESPACE1);
+        getEntityLocker().lockNamespace(NAMESPACE1);
+        getEntityLocker().unlockNamespace(NAMESPACE1);
+        Assertions.assertTrue(getEntityLocker().isNamespaceLockedByCurrentThread(NAMESPACE1));
+        getEntityLocker().unlockNamespace(NAMESPACE1);
+        Assertions.assertFalse(getEntityLocker().isNamespaceLockedByCurrentThread(NAMESPACE1));
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void unlockNamespace_WithoutPriorLock_ExceptionThrown() {
+        Assertions.assertThrows(EntityLockerException.class, () -> getEntityLocker().unlockNamespace(NAMESPACE1));
+        Assertions.assertThrows(EntityLockerException.class, () -> getEntityLocker().unlockNamespaceShared(NAMESPACE1));
+    }
+
+    @Test
+    public void lockNamespace_KeysOfOtherNamespaceLockedByAnotherThread_NoWait() throws Exception {
+        getEntityLocker().lockNamespace(NAMESPACE1);
+        try {
+            //Owner of namespace can lock its keys.
+            getEntityLocker().forLock(KEY1, () -> Assertions.assertTrue(getEntityLocker().isLockedByCurrentThread(KEY1)));
+            Future<Boolean> future1 = getExecutorService().submit(() -> getEntityLocker().tryLock(KEY3, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future1.get());
+            Future<Boolean> future2 = getExecutorService().submit(() -> getEntityLocker().forLock(KEY2,
+                    () -> getEntityLocker().isLockedByCurrentThread(KEY2), 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(future2.get());
+        } finally {
+            getEntityLocker().unlockNamespace(NAMESPACE1);
+        }
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void tryLockNamespace_KeyIsLockedByAnotherThread_False() throws Exception {
+        getEntityLocker().lockShared(KEY1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> getEntityLocker().tryLockNamespace(NAMESPACE1, 200, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future1.get());
+            //Shared lock of namespace is compatible with shared locks of keys.
+            Future<Boolean> future2 = getExecutorService().submit(() -> {
+                if (getEntityLocker().tryLockNamespaceShared(NAMESPACE1, 200, TimeUnit.MILLISECONDS)) {
+                    getEntityLocker().unlockNamespaceShared(NAMESPACE1);
+                    return true;
+                }
+                return false;
+            });
+            Assertions.assertTrue(future2.get());
+        } finally {
+            getEntityLocker().unlockShared(KEY1);
+        }
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void tryLock_NamespaceLockedAndSubMillisecondTimeout_False() throws Exception {
+        getEntityLocker().lockNamespace(NAMESPACE1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> getEntityLocker().tryLock(KEY1, 500, TimeUnit.MICROSECONDS));
+            Assertions.assertFalse(future1.get(5, TimeUnit.SECONDS));
+            Future<Boolean> future2 = getExecutorService().submit(() -> getEntityLocker().tryLockNamespace(NAMESPACE1, 500, TimeUnit.MICROSECONDS));
+            Assertions.assertFalse(future2.get(5, TimeUnit.SECONDS));
+        } finally {
+            getEntityLocker().unlockNamespace(NAMESPACE1);
+        }
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void lockNamespaceShared_KeysLockedByAnotherThread_OnlySharedLockGranted() throws Exception {
+        getEntityLocker().lockNamespaceShared(NAMESPACE1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> getEntityLocker().tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future1.get());
+            Future<Boolean> future2 = getExecutorService().submit(() -> getEntityLocker().forSharedLock(KEY1,
+                    () -> getEntityLocker().isSharedLockedByCurrentThread(KEY1), 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(future2.get());
+            //Owner of shared lock of namespace can lock its keys exclusively, while it is the only shared owner.
+            getEntityLocker().forLock(KEY3, () -> Assertions.assertTrue(getEntityLocker().isLockedByCurrentThread(KEY3)));
+        } finally {
+            getEntityLocker().unlockNamespaceShared(NAMESPACE1);
+        }
+    }
+
+    @Test
+    public void lockNamespace_KeyOfNamespaceLockedByCurrentThread_DeadlockExceptionThrown() {
+        getEntityLocker().lock(KEY1);
+        try {
+            Assertions.assertThrows(DeadlockException.class, () -> getEntityLocker().lockNamespace(NAMESPACE1));
+            Assertions.assertThrows(DeadlockException.class, () -> getEntityLocker().lockNamespaceShared(NAMESPACE1));
+            getEntityLocker().lockNamespace(NAMESPACE2);
+            getEntityLocker().unlockNamespace(NAMESPACE2);
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void lockNamespace_SecondThreadWaitUntilNamespaceUnlock_CounterChangeAfterUnlock() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        Future<?> future;
+        getEntityLocker().lockNamespace(NAMESPACE1);
+        try {
+            future = getExecutorService().submit(() -> getEntityLocker().forLock(KEY1, counter::incrementAndGet));
+            sleep(200);
+            Assertions.assertEquals(0, counter.get());
+        } finally {
+            getEntityLocker().unlockNamespace(NAMESPACE1);
+        }
+        future.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void lock_KeysOfNamespaceLockedConcurrently_NamespaceLockExcludesKeysAndNamespaceRemoved() throws Exception {
+        final AtomicInteger keysLocked = new AtomicInteger();
+        final AtomicInteger conflicts = new AtomicInteger();
+        final Runnable keyLoop = () -> {
+            for (int i = 0; i < 20000; i++) {
+                getEntityLocker().forLock(i % 2 == 0 ? KEY1 : KEY3, () -> {
+                    keysLocked.incrementAndGet();
+                    keysLocked.decrementAndGet();
+                });
+            }
+        };
+        final Future<?> future1 = getExecutorService().submit(keyLoop);
+        final Future<?> future2 = getExecutorService().submit(keyLoop);
+        while (!future1.isDone() || !future2.isDone()) {
+            getEntityLocker().forNamespaceLock(NAMESPACE1, () -> {
+                if (keysLocked.get() != 0) {
+                    conflicts.incrementAndGet();
+                }
+            });
+        }
+        future1.get();
+        future2.get();
+        Assertions.assertEquals(0, conflicts.get());
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void lockNamespace_ThreadWaitsForNamespace_NewKeyLocksWait() throws Exception {
+        final Future<?> future1;
+        getEntityLocker().lock(KEY1);
+        try {
+            future1 = getExecutorService().submit(() -> getEntityLocker().forNamespaceLock(NAMESPACE1, () -> {
+            }));
+            sleep(200);
+            //Waiting exclusive lock of namespace is not starved by new locks of its keys.
+            Future<Boolean> future2 = getExecutorService().submit(() -> getEntityLocker().tryLock(KEY3, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future2.get());
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        future1.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(getEntityLocker().tryLock(KEY3, 500, TimeUnit.MILLISECONDS));
+        getEntityLocker().unlock(KEY3);
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void lock_ThreadWaitsForNamespaceOfKeyLockedByCurrentThread_KeysOfNamespaceLocked() throws Exception {
+        final Future<?> future;
+        getEntityLocker().lock(KEY1);
+        try {
+            future = getExecutorService().submit(() -> getEntityLocker().forNamespaceLock(NAMESPACE1, () -> {
+            }));
+            sleep(200);
+            //Thread holding key of namespace is not blocked by waiting namespace lock, else it would wait forever.
+            Assertions.assertTrue(getEntityLocker().tryLock(KEY1, 1, TimeUnit.SECONDS));
+            getEntityLocker().unlock(KEY1);
+            Assertions.assertTrue(getEntityLocker().tryLock(KEY3, 1, TimeUnit.SECONDS));
+            getEntityLocker().unlock(KEY3);
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        future.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+
+    @Test
+    public void lock_KeyOfThreadWaitingForNamespaceOfKeyLockedByCurrentThread_DeadlockExceptionThrown() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Future<?> future;
+        getEntityLocker().lock(KEY1);
+        try {
+            future = getExecutorService().submit(() -> getEntityLocker().forLock(KEY2, () -> {
+                latch.countDown();
+                getEntityLocker().forNamespaceLock(NAMESPACE1, () -> {
+                });
+            }));
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            sleep(200);
+            Assertions.assertThrows(DeadlockException.class, () -> getEntityLocker().lock(KEY2));
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        future.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, getEntityLocker().getNamespaceCount());
+    }
+}
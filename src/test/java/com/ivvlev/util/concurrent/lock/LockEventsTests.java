@@ -0,0 +1,117 @@
+package com.ivvlev.util.concurrent.lock;
+
+import com.ivvlev.util.function.ExProcedure;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class LockEventsTests {
+    private final static String KEY1 = "KEY1";
+
+    @Test
+    public void tryLock_Timeout_TimeoutEventRecorded() throws Exception {
+        final EntityLocker<String> locker = new EntityLockerImpl<>();
+        final List<RecordedEvent> events = record("com.ivvlev.EntityLockTimeout", () -> {
+            locker.lock(KEY1);
+            try {
+                final Future<Boolean> future = forOtherThread(() -> locker.tryLock(KEY1, 50, TimeUnit.MILLISECONDS));
+                Assertions.assertFalse(future.get());
+            } finally {
+                locker.unlock(KEY1);
+            }
+        });
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(KEY1, events.get(0).getString("key"));
+        Assertions.assertEquals("exclusive", events.get(0).getString("mode"));
+        Assertions.assertTrue(events.get(0).getDuration("waitDuration").toMillis() >= 50);
+    }
+
+    @Test
+    public void lock_ContendedWait_WaitEventRecorded() throws Exception {
+        final ReadWriteEntityLocker<String> locker = new EntityLockerImpl<>();
+        final List<RecordedEvent> events = record("com.ivvlev.EntityLockWait", () -> {
+            locker.lock(KEY1);
+            final Future<Boolean> future;
+            try {
+                future = forOtherThread(() -> locker.forSharedLock(KEY1, () -> true));
+                Thread.sleep(50);
+            } finally {
+                locker.unlock(KEY1);
+            }
+            Assertions.assertTrue(future.get());
+            //Not contended lock is not recorded.
+            locker.forLock(KEY1, () -> {
+            });
+        });
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(KEY1, events.get(0).getString("key"));
+        Assertions.assertEquals("shared", events.get(0).getString("mode"));
+        Assertions.assertTrue(events.get(0).getDuration().toMillis() >= 40);
+    }
+
+    @Test
+    public void lockGlobal_KeyWaitsAndGlobalHeld_GlobalEventsRecorded() throws Exception {
+        final GlobalEntityLocker<String> locker = new GlobalEntityLockerImpl<>();
+        final List<RecordedEvent> events = record("com.ivvlev.GlobalLockWait,com.ivvlev.GlobalLockHold", () -> {
+            locker.lockGlobal();
+            try {
+                final Future<Boolean> future = forOtherThread(() -> locker.tryLock(KEY1, 20, TimeUnit.MILLISECONDS));
+                Assertions.assertFalse(future.get());
+            } finally {
+                locker.unlockGlobal();
+            }
+        });
+        final List<String> names = events.stream().map(e -> e.getEventType().getName()).collect(Collectors.toList());
+        Assertions.assertEquals(List.of("com.ivvlev.GlobalLockWait", "com.ivvlev.GlobalLockHold"), names);
+        Assertions.assertFalse(events.get(0).getBoolean("global"));
+        Assertions.assertTrue(events.get(0).getBoolean("timedOut"));
+    }
+
+    /**
+     * Method records events with zero threshold during execution of test procedure.
+     *
+     * @param eventNames Comma separated names of events
+     * @return Recorded events in order of their end time.
+     */
+    private static List<RecordedEvent> record(String eventNames, ExProcedure testProc) throws Exception {
+        final Path file = Files.createTempFile("locker", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                for (String eventName : eventNames.split(",")) {
+                    recording.enable(eventName).withThreshold(Duration.ZERO).withoutStackTrace();
+                }
+                recording.start();
+                testProc.exec();
+                recording.stop();
+                recording.dump(file);
+            }
+            return RecordingFile.readAllEvents(file).stream()
+                    .sorted((e1, e2) -> e1.getEndTime().compareTo(e2.getEndTime()))
+                    .collect(Collectors.toList());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static <R> Future<R> forOtherThread(Callable<R> task) {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            return executorService.submit(task);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
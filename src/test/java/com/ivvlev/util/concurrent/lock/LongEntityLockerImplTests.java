@@ -0,0 +1,199 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LongEntityLockerImplTests {
+
+    private final long KEY1 = 1;
+    private final long KEY2 = 2;
+    private LongEntityLockerImpl entityLocker_;
+    private ExecutorService executorService_;
+
+    @BeforeEach
+    protected void beforeEach() {
+        entityLocker_ = new LongEntityLockerImpl();
+        executorService_ = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    protected void afterEach() throws InterruptedException {
+        entityLocker_ = null;
+        executorService_.shutdown();
+        if (!executorService_.awaitTermination(5, TimeUnit.SECONDS)) {
+            throw new RuntimeException("ExecutorService not shutdown during 5 seconds.");
+        }
+        executorService_ = null;
+    }
+
+    @Test
+    public void lock_DoReentrantLock_NoExceptions() {
+        entityLocker_.lock(KEY1);
+        entityLocker_.lock(KEY1);
+        entityLocker_.unlock(KEY1);
+        entityLocker_.unlock(KEY1);
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+        Assertions.assertEquals(0, entityLocker_.getEntryCount());
+    }
+
+    @Test
+    public void unlock_WithoutPriorLock_ExceptionThrown() {
+        Assertions.assertThrows(EntityLockerException.class, () -> entityLocker_.unlock(KEY1));
+        Assertions.assertThrows(EntityLockerException.class, () -> entityLocker_.unlockShared(KEY1));
+    }
+
+    @Test
+    public void lock_PrimitiveAndBoxedKey_SameKeyLocked() {
+        entityLocker_.lock(KEY1);
+        Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(Long.valueOf(KEY1)));
+        entityLocker_.unlock(Long.valueOf(KEY1));
+        Assertions.assertFalse(entityLocker_.isLockedByCurrentThread(KEY1));
+    }
+
+    @Test
+    public void tryLock_KeyIsLockedByAnotherThread_ReturnFalse() throws Exception {
+        entityLocker_.lock(KEY1);
+        try {
+            Future<Boolean> future1 = executorService_.submit(() -> entityLocker_.tryLock(KEY1, 500, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future1.get());
+            Future<Boolean> future2 = executorService_.submit(() -> entityLocker_.tryLockShared(KEY1, 500, TimeUnit.MILLISECONDS));
+            Assertions.assertFalse(future2.get());
+        } finally {
+            entityLocker_.unlock(KEY1);
+        }
+        Assertions.assertEquals(0, entityLocker_.getEntryCount());
+    }
+
+    @Test
+    public void lockShared_KeyIsSharedLockedByAnotherThread_NoWait() throws Exception {
+        entityLocker_.lockShared(KEY1);
+        try {
+            Future<Boolean> future1 = executorService_.submit(() -> entityLocker_.forSharedLock(KEY1,
+                    () -> entityLocker_.isSharedLockedByCurrentThread(KEY1), 500, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(future1.get());
+        } finally {
+            entityLocker_.unlockShared(KEY1);
+        }
+    }
+
+    @Test
+    public void lock_RepeatedLockAndUnlock_NoGarbage() {
+        final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        //Transaction of thread, entries of table and their shared holders are created by the first cycles.
+        lockAndUnlock(1000);
+        final long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        lockAndUnlock(100_000);
+        Assertions.assertTrue(threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes < 1024);
+    }
+
+    private void lockAndUnlock(int count) {
+        for (int i = 0; i < count; i++) {
+            entityLocker_.lock(KEY1);
+            entityLocker_.unlock(KEY1);
+            entityLocker_.lockShared(KEY2);
+            entityLocker_.lockShared(KEY2);
+            entityLocker_.unlockShared(KEY2);
+            entityLocker_.unlockShared(KEY2);
+        }
+    }
+
+    @Test
+    public void lock_ManyKeys_AllKeysFoundAndRemoved() {
+        final int keyCount = 10000;
+        for (long key = 0; key < keyCount; key++) {
+            entityLocker_.lock(key * 31);
+        }
+        Assertions.assertEquals(keyCount, entityLocker_.getEntryCount());
+        for (long key = 0; key < keyCount; key++) {
+            Assertions.assertTrue(entityLocker_.isLockedByCurrentThread(key * 31));
+        }
+        for (long key = 0; key < keyCount; key += 2) {
+            entityLocker_.unlock(key * 31);
+        }
+        for (long key = 0; key < keyCount; key++) {
+            Assertions.assertEquals(key % 2 == 1, entityLocker_.isLockedByCurrentThread(key * 31));
+        }
+        for (long key = 1; key < keyCount; key += 2) {
+            entityLocker_.unlock(key * 31);
+        }
+        Assertions.assertEquals(0, entityLocker_.getEntryCount());
+    }
+
+    @Test
+    public void forLock_MultipleThreadsWritingToVariable_NoExceptions() throws Exception {
+        final AtomicLong counter = new AtomicLong(0);
+        final int threadCount = 2;
+        final long iterationsCount = 1000;
+        final List<Future<?>> futureList = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futureList.add(executorService_.submit(() -> {
+                for (int j = 0; j < iterationsCount; j++) {
+                    entityLocker_.forLock(KEY1, () -> {
+                        long n = counter.get();
+                        Thread.yield();
+                        if (!counter.compareAndSet(n, n + 1)) {
+                            throw new ConcurrentModificationException();
+                        }
+                    });
+                }
+            }));
+        }
+        for (Future<?> future : futureList) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        Assertions.assertEquals(threadCount * iterationsCount, counter.get());
+        Assertions.assertEquals(0, entityLocker_.getEntryCount());
+    }
+
+    @Test
+    public void lock_DeadlockPresent_DeadlockExceptionThrown() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        Future<?> future1 = executorService_.submit(() -> entityLocker_.forLock(KEY1, () -> {
+            latch.countDown();
+            awaitQuietly(latch);
+            entityLocker_.forLock(KEY2, () -> {
+            }, 2, TimeUnit.SECONDS);
+        }));
+        Future<?> future2 = executorService_.submit(() -> entityLocker_.forLock(KEY2, () -> {
+            latch.countDown();
+            awaitQuietly(latch);
+            entityLocker_.forLock(KEY1, () -> {
+            }, 2, TimeUnit.SECONDS);
+        }));
+        int deadlockCount = 0;
+        for (Future<?> future : new Future<?>[]{future1, future2}) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Assertions.assertTrue(e.getCause() instanceof DeadlockException);
+                deadlockCount++;
+            }
+        }
+        Assertions.assertEquals(1, deadlockCount);
+        Assertions.assertEquals(0, entityLocker_.getEntryCount());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
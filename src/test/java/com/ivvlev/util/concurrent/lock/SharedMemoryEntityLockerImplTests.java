@@ -0,0 +1,175 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class SharedMemoryEntityLockerImplTests extends EntityLockerImplTests {
+
+    private Path path_;
+
+    protected EntityLocker<String> newEntityLocker() {
+        try {
+            path_ = Files.createTempFile("entity-locker", ".lock");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        path_.toFile().deleteOnExit();
+        return new SharedMemoryEntityLockerImpl<>(path_);
+    }
+
+    /**
+     * Process locking KEY1 until it is killed. Used by {@link #tryLock_OwnerProcessDied_LockRecovered()}.
+     *
+     * @param args Path of lock table file.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        new SharedMemoryEntityLockerImpl<String>(Paths.get(args[0])).lock("key1");
+        System.out.println("locked");
+        System.out.flush();
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void tryLock_KeyIsLockedByAnotherLocker_ReturnFalse() {
+        final EntityLocker<String> otherLocker = new SharedMemoryEntityLockerImpl<>(path_);
+        getEntityLocker().lock(KEY1);
+        try {
+            Assertions.assertFalse(otherLocker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+            Assertions.assertTrue(otherLocker.tryLock(KEY2, 100, TimeUnit.MILLISECONDS));
+            otherLocker.unlock(KEY2);
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        Assertions.assertTrue(otherLocker.tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+        otherLocker.unlock(KEY1);
+    }
+
+    @Test
+    public void tryLock_KeyIsLockedByAnotherLockerAndSubMillisecondTimeout_ReturnFalse() throws Exception {
+        final SharedMemoryEntityLockerImpl<String> otherLocker = new SharedMemoryEntityLockerImpl<>(path_);
+        getEntityLocker().lock(KEY1);
+        try {
+            final Future<Boolean> future = getExecutorService().submit(() -> otherLocker.tryLock(KEY1, 500, TimeUnit.MICROSECONDS));
+            Assertions.assertFalse(future.get(5, TimeUnit.SECONDS));
+        } finally {
+            getEntityLocker().unlock(KEY1);
+        }
+        otherLocker.close();
+    }
+
+    @Test
+    public void lockAll_LockersLockKeysInOppositeOrder_NoDeadlock() throws Exception {
+        final SharedMemoryEntityLockerImpl<String> otherLocker = new SharedMemoryEntityLockerImpl<>(path_);
+        try {
+            final Future<?> future = getExecutorService().submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    otherLocker.forLockAll(List.of(KEY2, KEY1), () -> {
+                    });
+                }
+            });
+            for (int i = 0; i < 1000; i++) {
+                getEntityLocker().forLockAll(List.of(KEY1, KEY2), () -> {
+                });
+            }
+            future.get(10, TimeUnit.SECONDS);
+        } finally {
+            otherLocker.close();
+        }
+    }
+
+    @Test
+    public void tryLock_ThreadsOfAnotherLockerLockKeyOneAfterAnother_LockAcquired() throws Exception {
+        final SharedMemoryEntityLockerImpl<String> otherLocker = new SharedMemoryEntityLockerImpl<>(path_);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            //Two threads keep the slot used by the other locker: one of them holds the key, while another waits for it.
+            final Runnable task = () -> {
+                while (!stopped.get()) {
+                    otherLocker.lock(KEY1);
+                    try {
+                        sleep(1);
+                    } finally {
+                        otherLocker.unlock(KEY1);
+                    }
+                }
+            };
+            final Future<?> future1 = getExecutorService().submit(task);
+            final Future<?> future2 = getExecutorService().submit(task);
+            sleep(50);
+            Assertions.assertTrue(getEntityLocker().tryLock(KEY1, 5, TimeUnit.SECONDS));
+            getEntityLocker().unlock(KEY1);
+            stopped.set(true);
+            future1.get(5, TimeUnit.SECONDS);
+            future2.get(5, TimeUnit.SECONDS);
+        } finally {
+            stopped.set(true);
+        }
+        otherLocker.close();
+    }
+
+    @Test
+    public void close_KeyIsLocked_ExceptionThrown() {
+        final SharedMemoryEntityLockerImpl<String> entityLocker = (SharedMemoryEntityLockerImpl<String>) getEntityLocker();
+        entityLocker.lock(KEY1);
+        Assertions.assertThrows(EntityLockerException.class, entityLocker::close);
+        entityLocker.unlock(KEY1);
+        entityLocker.close();
+    }
+
+    @Test
+    public void lock_LockerIsClosed_ExceptionThrown() {
+        final SharedMemoryEntityLockerImpl<String> entityLocker = (SharedMemoryEntityLockerImpl<String>) getEntityLocker();
+        entityLocker.close();
+        entityLocker.close();
+        Assertions.assertThrows(EntityLockerException.class, () -> entityLocker.lock(KEY1));
+    }
+
+    @Test
+    public void newSharedMemoryEntityLocker_SlotCountDiffers_ExceptionThrown() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SharedMemoryEntityLockerImpl<String>(path_, 16));
+    }
+
+    @Test
+    public void tryLock_OwnerProcessDied_LockRecovered() throws Exception {
+        final String java = ProcessHandle.current().info().command().orElse("java");
+        final Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                SharedMemoryEntityLockerImplTests.class.getName(), path_.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            Assertions.assertEquals("locked", reader.readLine());
+            Assertions.assertFalse(getEntityLocker().tryLock(KEY1, 100, TimeUnit.MILLISECONDS));
+        } finally {
+            process.destroyForcibly();
+            process.waitFor();
+        }
+        Assertions.assertTrue(getEntityLocker().tryLock(KEY1, 5, TimeUnit.SECONDS));
+        getEntityLocker().unlock(KEY1);
+    }
+
+    @Test
+    @Override
+    public void getLockTableSnapshot_KeysLockedAndWaited_OwnersHoldCountsAndWaitersReported() {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) getEntityLocker();
+        entityLocker.lock(KEY1);
+        try {
+            //Stripes are not bound to keys.
+            Assertions.assertTrue(entityLocker.getLockTableSnapshot().getKeys().isEmpty());
+        } finally {
+            entityLocker.unlock(KEY1);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.ivvlev.util.concurrent.lock;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class StripedEntityLockerImplTests extends EntityLockerImplTests {
+
+    protected EntityLocker<String> newEntityLocker() {
+        return new StripedEntityLockerImpl<>();
+    }
+
+    @Test
+    public void newStripedEntityLocker_StripeCountNotPowerOfTwo_RoundedUp() {
+        Assertions.assertEquals(1, new StripedEntityLockerImpl<String>(1).getStripeCount());
+        Assertions.assertEquals(8, new StripedEntityLockerImpl<String>(5).getStripeCount());
+        Assertions.assertEquals(8, new StripedEntityLockerImpl<String>(8).getStripeCount());
+    }
+
+    @Test
+    public void newStripedEntityLocker_WrongStripeCount_ExceptionThrown() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new StripedEntityLockerImpl<String>(0));
+    }
+
+    @Test
+    public void tryLock_KeyOfSameStripeIsLockedByAnotherThread_ReturnFalse() throws Exception {
+        final EntityLocker<String> entityLocker = new StripedEntityLockerImpl<>(1);
+        entityLocker.lock(KEY1);
+        try {
+            Future<Boolean> future1 = getExecutorService().submit(() -> {
+                return entityLocker.tryLock(KEY2, 1000, TimeUnit.MILLISECONDS);
+            });
+            Assertions.assertFalse(future1.get());
+            Assertions.assertTrue(entityLocker.isLockedByCurrentThread(KEY2));
+        } finally {
+            entityLocker.unlock(KEY1);
+        }
+    }
+
+    @Test
+    @Override
+    public void getLockTableSnapshot_KeysLockedAndWaited_OwnersHoldCountsAndWaitersReported() {
+        final EntityLockerAbst<String> entityLocker = (EntityLockerAbst<String>) getEntityLocker();
+        entityLocker.lock(KEY1);
+        try {
+            //Stripes are not bound to keys.
+            Assertions.assertTrue(entityLocker.getLockTableSnapshot().getKeys().isEmpty());
+        } finally {
+            entityLocker.unlock(KEY1);
+        }
+    }
+}